@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.web.security.JwtTokenMinter;
+import edu.kit.datamanager.entities.RepoUserRole;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.DefaultClaims;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.time.DateUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the token creation path used at login time before the introduction
+ * of JwtTokenMinter (DefaultClaims, ObjectMapper per call, claim map copy and
+ * signWith(HS512, String)) with the JwtTokenMinter path. Run with the 'gc'
+ * profiler (configured in build.gradle) to see allocation rates per token.
+ *
+ * @author jejkal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtMintingBenchmark{
+
+  private static final String SECRET = "vkfvoswsohwrxgjaxipuiyyjgubggzdaqrcuupbugxtnalhiegkppdgjgwxsmvdb";
+
+  private RepoUser user;
+  private JwtTokenMinter minter;
+
+  @Setup
+  public void setup(){
+    user = RepoUser.createUser();
+    user.setUsername("jdoe");
+    user.setFirstname("John");
+    user.setLastname("Doe");
+    user.setEmail("john.doe@example.com");
+    user.setRolesAsEnum(Arrays.asList(RepoUserRole.USER, RepoUserRole.ADMINISTRATOR));
+    minter = new JwtTokenMinter(SECRET);
+  }
+
+  @Benchmark
+  public String legacyBuilder() throws JsonProcessingException{
+    Claims claims = new DefaultClaims();
+    claims.put("username", user.getUsername());
+    claims.put("firstname", user.getFirstname());
+    claims.put("lastname", user.getLastname());
+    claims.put("email", user.getEmail());
+    claims.put("groupid", "USERS");
+
+    Set<String> rolesAsString = new HashSet<>();
+    user.getRolesAsEnum().forEach((role) -> {
+      rolesAsString.add(role.toString());
+    });
+    claims.put("roles", new ObjectMapper().writeValueAsString(rolesAsString.toArray(new String[]{})));
+    Map<String, Object> claimMap = new HashMap<>();
+    claims.entrySet().forEach((entry) -> {
+      claimMap.put(entry.getKey(), entry.getValue());
+    });
+
+    return Jwts.builder().setClaims(claims).setExpiration(DateUtils.addHours(new Date(), 1)).signWith(SignatureAlgorithm.HS512, SECRET).compact();
+  }
+
+  @Benchmark
+  public String tokenMinter(){
+    Map<String, Object> claimMap = new HashMap<>();
+    claimMap.put("username", user.getUsername());
+    claimMap.put("firstname", user.getFirstname());
+    claimMap.put("lastname", user.getLastname());
+    claimMap.put("email", user.getEmail());
+    claimMap.put("groupid", "USERS");
+    claimMap.put("roles", JwtTokenMinter.rolesClaim(user.getRolesAsEnum()));
+
+    return minter.mint(claimMap, DateUtils.addHours(new Date(), 1));
+  }
+}
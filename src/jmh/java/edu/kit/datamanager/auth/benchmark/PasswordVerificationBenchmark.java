@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.benchmark;
+
+import edu.kit.datamanager.auth.web.security.PasswordEncodingPolicy;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * Compares the password verification throughput of the supported password
+ * algorithms for different costs on the current machine. The cost is the
+ * BCrypt work factor for algorithm 'bcrypt' and the number of iterations for
+ * algorithm 'pbkdf2'. Results can be used to choose
+ * repo.auth.password.bcryptStrength and repo.auth.password.pbkdf2Iterations,
+ * e.g. by running './gradlew jmh -Pjmh.includes=PasswordVerificationBenchmark'.
+ * Verification is done via the encoder selected by PasswordEncodingPolicy in
+ * order to include the cost of the algorithm prefix handling.
+ *
+ * @author jejkal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordVerificationBenchmark{
+
+  private static final String PASSWORD = "correct horse battery staple";
+
+  @Param({"bcrypt:8", "bcrypt:10", "bcrypt:12", "pbkdf2:10000", "pbkdf2:100000", "pbkdf2:185000"})
+  private String configuration;
+
+  private PasswordEncoder encoder;
+  private String encodedPassword;
+
+  @Setup
+  public void setup(){
+    String algorithm = configuration.substring(0, configuration.indexOf(':'));
+    int cost = Integer.parseInt(configuration.substring(configuration.indexOf(':') + 1));
+    PasswordEncodingPolicy policy;
+    if(PasswordEncodingPolicy.BCRYPT.equals(algorithm)){
+      policy = new PasswordEncodingPolicy(algorithm, new BCryptPasswordEncoder(cost), 1);
+    } else{
+      policy = new PasswordEncodingPolicy(algorithm, new BCryptPasswordEncoder(), cost);
+    }
+    encoder = policy.forAlgorithm(algorithm);
+    encodedPassword = encoder.encode(PASSWORD);
+  }
+
+  @Benchmark
+  public boolean verify(){
+    return encoder.matches(PASSWORD, encodedPassword);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.entities.RepoUserRole;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of hydrating the roles of one page of 1000 loaded users.
+ * 'legacyJson' resembles the former @PostLoad handler creating an ObjectMapper
+ * and parsing the JSON roles per user, 'sharedMapperJson' is the remaining
+ * fallback for users without role mask and 'roleMask' is the regular path.
+ *
+ * @author jejkal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoleHydrationBenchmark{
+
+  private static final int PAGE_SIZE = 1000;
+
+  private List<RepoUser> legacyUsers;
+  private List<RepoUser> maskedUsers;
+
+  @Setup
+  public void setup(){
+    legacyUsers = new ArrayList<>(PAGE_SIZE);
+    maskedUsers = new ArrayList<>(PAGE_SIZE);
+    for(int i = 0; i < PAGE_SIZE; i++){
+      RepoUser user = RepoUser.createUser();
+      user.setUsername("user" + i);
+      user.setRolesAsEnum(new ArrayList<>(Arrays.asList(RepoUserRole.USER, RepoUserRole.ADMINISTRATOR)));
+      user.convertEnumToRoles();
+      maskedUsers.add(user);
+
+      RepoUser legacy = user.copy();
+      legacy.setRoleMask(null);
+      legacyUsers.add(legacy);
+    }
+  }
+
+  @Benchmark
+  public int legacyJson() throws IOException{
+    int cnt = 0;
+    for(RepoUser user : legacyUsers){
+      ObjectMapper mapper = new ObjectMapper();
+      JsonNode jsonNode = mapper.readTree(user.getRoles());
+      Collection<RepoUserRole> roles = new ArrayList<>();
+      for(JsonNode node : jsonNode){
+        roles.add(RepoUserRole.fromValue(node.asText()));
+      }
+      user.setRolesAsEnum(roles);
+      cnt += roles.size();
+    }
+    return cnt;
+  }
+
+  @Benchmark
+  public int sharedMapperJson(){
+    int cnt = 0;
+    for(RepoUser user : legacyUsers){
+      user.convertRolesToEnum();
+      cnt += user.getRolesAsEnum().size();
+    }
+    return cnt;
+  }
+
+  @Benchmark
+  public int roleMask(){
+    int cnt = 0;
+    for(RepoUser user : maskedUsers){
+      user.hydrateRoles();
+      cnt += user.getRolesAsEnum().size();
+    }
+    return cnt;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.benchmark;
+
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.web.security.ExtendedJwtAuthenticationProvider;
+import edu.kit.datamanager.auth.web.security.JwtTokenMinter;
+import edu.kit.datamanager.auth.web.security.TokenRevocationList;
+import edu.kit.datamanager.auth.web.security.ValidatedTokenCache;
+import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.security.filter.JwtAuthenticationToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.time.DateUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Per-request cost of authenticating a bearer token, i.e. parsing the token,
+ * verifying the HS512 signature and deserializing the roles claim, compared
+ * with a lookup in the ValidatedTokenCache. Both providers check the (empty)
+ * revocation list as done in production.
+ *
+ * @author jejkal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenAuthenticationBenchmark{
+
+  private static final String SECRET = "vkfvoswsohwrxgjaxipuiyyjgubggzdaqrcuupbugxtnalhiegkppdgjgwxsmvdb";
+
+  private ExtendedJwtAuthenticationProvider uncachedProvider;
+  private ExtendedJwtAuthenticationProvider cachedProvider;
+  private String token;
+  private Map<String, Object> claims;
+
+  @Setup
+  public void setup(){
+    RepoUser user = RepoUser.createUser();
+    user.setUsername("jdoe");
+    user.setFirstname("John");
+    user.setLastname("Doe");
+    user.setEmail("john.doe@example.com");
+    user.setRolesAsEnum(Arrays.asList(RepoUserRole.USER, RepoUserRole.ADMINISTRATOR));
+    JwtTokenMinter minter = new JwtTokenMinter(SECRET);
+    claims = JwtTokenMinter.userClaims(user, "USERS");
+    token = minter.mint(claims, DateUtils.addHours(new Date(), 1));
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    TokenRevocationList revocationList = new TokenRevocationList(1000, 0.01, registry);
+    uncachedProvider = new ExtendedJwtAuthenticationProvider(SECRET, null, null, null, minter, LoggerFactory.getLogger(TokenAuthenticationBenchmark.class));
+    uncachedProvider.setRevocationList(revocationList);
+    cachedProvider = new ExtendedJwtAuthenticationProvider(SECRET, null, null, null, minter, LoggerFactory.getLogger(TokenAuthenticationBenchmark.class));
+    cachedProvider.setRevocationList(revocationList);
+    cachedProvider.setTokenCache(new ValidatedTokenCache(1000, registry));
+  }
+
+  @Benchmark
+  public Authentication uncached(){
+    return uncachedProvider.authenticate(JwtAuthenticationToken.factoryToken(token, claims));
+  }
+
+  @Benchmark
+  public Authentication cached(){
+    return cachedProvider.authenticate(JwtAuthenticationToken.factoryToken(token, claims));
+  }
+}
@@ -17,6 +17,8 @@ package edu.kit.datamanager.auth;
 
 import com.monitorjbl.json.JsonViewSupportFactoryBean;
 import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import edu.kit.datamanager.auth.web.security.BCryptStrengthCalibrator;
+import edu.kit.datamanager.auth.web.security.PasswordEncodingPolicy;
 import edu.kit.datamanager.service.IMessagingService;
 import edu.kit.datamanager.service.impl.RabbitMQMessagingService;
 import org.slf4j.Logger;
@@ -66,8 +68,18 @@ public class Application{
   }
 
   @Bean
-  public BCryptPasswordEncoder passwordEncoder(){
-    return new BCryptPasswordEncoder();
+  public BCryptPasswordEncoder passwordEncoder(ApplicationProperties applicationProperties){
+    int strength = applicationProperties.getBcryptStrength();
+    if(applicationProperties.getPasswordCalibrationTarget() > 0){
+      strength = BCryptStrengthCalibrator.calibrate(strength, applicationProperties.getPasswordCalibrationTarget());
+      LoggerFactory.getLogger(Application.class).info("Using BCrypt strength {} for target verification time of {} ms.", strength, applicationProperties.getPasswordCalibrationTarget());
+    }
+    return new BCryptPasswordEncoder(strength);
+  }
+
+  @Bean
+  public PasswordEncodingPolicy passwordEncodingPolicy(ApplicationProperties applicationProperties, BCryptPasswordEncoder passwordEncoder){
+    return new PasswordEncodingPolicy(applicationProperties.getPasswordAlgorithm(), passwordEncoder, applicationProperties.getPbkdf2Iterations());
   }
 
 //  @Bean
@@ -17,6 +17,7 @@ package edu.kit.datamanager.auth.configuration;
 
 import edu.kit.datamanager.configuration.GenericApplicationProperties;
 import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 /**
@@ -26,4 +27,218 @@ import org.springframework.stereotype.Component;
 @Component
 @Data
 public class ApplicationProperties extends GenericApplicationProperties{
+
+  /**
+   * Number of threads used for password verification. If smaller than 1, the
+   * number of available processors is used.
+   */
+  @Value("${repo.auth.login.hashingThreads:0}")
+  private int hashingThreads;
+  /**
+   * Max. number of password verifications waiting for a hashing thread.
+   */
+  @Value("${repo.auth.login.hashingQueueCapacity:64}")
+  private int hashingQueueCapacity;
+  /**
+   * Max. time in milliseconds a login request waits for its password
+   * verification.
+   */
+  @Value("${repo.auth.login.hashingMaxWait:5000}")
+  private long hashingMaxWait;
+  /**
+   * Seconds returned as Retry-After if a login is rejected due to overload.
+   */
+  @Value("${repo.auth.login.retryAfter:5}")
+  private int loginRetryAfter;
+  /**
+   * BCrypt work factor (log2 of the number of rounds) used to encode
+   * passwords. Passwords encoded with a lower work factor are re-encoded after
+   * the next successful login.
+   */
+  @Value("${repo.auth.password.bcryptStrength:10}")
+  private int bcryptStrength;
+  /**
+   * Target time in milliseconds of a single password verification. If greater
+   * than 0, the highest BCrypt work factor not exceeding this time on the
+   * current machine is determined at startup. The configured bcryptStrength is
+   * used as lower bound.
+   */
+  @Value("${repo.auth.password.calibrationTarget:0}")
+  private long passwordCalibrationTarget;
+  /**
+   * Id of the password hashing algorithm used for users without
+   * passwordAlgorithm attribute, either 'bcrypt' or 'pbkdf2'.
+   */
+  @Value("${repo.auth.password.algorithm:bcrypt}")
+  private String passwordAlgorithm;
+  /**
+   * Number of iterations of the 'pbkdf2' password hashing algorithm.
+   */
+  @Value("${repo.auth.password.pbkdf2Iterations:185000}")
+  private int pbkdf2Iterations;
+  /**
+   * Max. number of password re-encodings waiting for execution. Further
+   * re-encodings are skipped and performed at one of the next logins.
+   */
+  @Value("${repo.auth.password.upgradeQueueCapacity:100}")
+  private int passwordUpgradeQueueCapacity;
+  /**
+   * If true, concurrent logins with identical username and password share a
+   * single password verification.
+   */
+  @Value("${repo.auth.login.coalescing:true}")
+  private boolean loginCoalescing;
+  /**
+   * Max. number of requests with Basic credentials per client address and
+   * minute. 0 disables throttling by address.
+   */
+  @Value("${repo.auth.throttle.addressRate:1200}")
+  private int throttleAddressRate;
+  /**
+   * Max. number of requests with Basic credentials a client address may send at
+   * once.
+   */
+  @Value("${repo.auth.throttle.addressBurst:200}")
+  private int throttleAddressBurst;
+  /**
+   * Max. number of failed authentications per username, client address and
+   * minute. 0 disables throttling of failed authentications.
+   */
+  @Value("${repo.auth.throttle.usernameRate:60}")
+  private int throttleUsernameRate;
+  /**
+   * Max. number of failed authentications per username and client address at
+   * once.
+   */
+  @Value("${repo.auth.throttle.usernameBurst:10}")
+  private int throttleUsernameBurst;
+  /**
+   * Number of buckets per throttling key, i.e. client address and username.
+   * Memory consumption is 8 bytes per bucket.
+   */
+  @Value("${repo.auth.throttle.buckets:65536}")
+  private int throttleBuckets;
+  /**
+   * Max. number of users held in the user cache.
+   */
+  @Value("${repo.auth.userCache.size:10000}")
+  private long userCacheSize;
+  /**
+   * Seconds after which cached users expire.
+   */
+  @Value("${repo.auth.userCache.ttl:60}")
+  private long userCacheTtl;
+  /**
+   * Max. number of unknown usernames held in the user cache. Unknown usernames
+   * are answered without database lookup. 0 disables caching of unknown
+   * usernames.
+   */
+  @Value("${repo.auth.userCache.negativeSize:10000}")
+  private long userCacheNegativeSize;
+  /**
+   * Seconds after which cached unknown usernames expire. This bounds the time
+   * until users created by other service instances sharing the same database
+   * are able to login.
+   */
+  @Value("${repo.auth.userCache.negativeTtl:30}")
+  private long userCacheNegativeTtl;
+  /**
+   * Algorithm used to sign tokens. HS512 uses the shared secret (repo.auth.jwtSecret),
+   * RS256, RS384, RS512, ES256, ES384 and ES512 use an asymmetric key pair
+   * whose public key is published at /.well-known/jwks.json.
+   */
+  @Value("${repo.auth.jwt.algorithm:HS512}")
+  private String jwtAlgorithm;
+  /**
+   * Path of the PEM encoded (PKCS#8) private key used for asymmetric signing.
+   * If empty, a new key pair is generated at startup, which invalidates all
+   * issued tokens on restart.
+   */
+  @Value("${repo.auth.jwt.privateKey:}")
+  private String jwtPrivateKey;
+  /**
+   * Path of the PEM encoded (X.509) public key matching jwtPrivateKey.
+   */
+  @Value("${repo.auth.jwt.publicKey:}")
+  private String jwtPublicKey;
+  /**
+   * Seconds after which issued tokens expire. Former signing keys are kept for
+   * verification for this time plus one minute after being rotated.
+   */
+  @Value("${repo.auth.jwt.tokenLifetime:3600}")
+  private long tokenLifetime;
+  /**
+   * Seconds after which the asymmetric signing key is rotated. If smaller than
+   * 1, keys are only rotated via POST /api/v1/keys/rotate.
+   */
+  @Value("${repo.auth.jwt.rotationInterval:0}")
+  private long keyRotationInterval;
+  /**
+   * Seconds clients may cache the JSON Web Key Set. Should be smaller than the
+   * rotation interval, such that clients know the next signing key in advance.
+   */
+  @Value("${repo.auth.jwt.jwksMaxAge:3600}")
+  private long jwksMaxAge;
+  /**
+   * Seconds after which refresh tokens expire. Each refresh issues a new
+   * refresh token with a new lifetime.
+   */
+  @Value("${repo.auth.jwt.refreshTokenLifetime:604800}")
+  private long refreshTokenLifetime;
+  /**
+   * Number of revoked token ids the revocation Bloom filter is sized for.
+   */
+  @Value("${repo.auth.revocation.expectedRevocations:10000}")
+  private int expectedRevocations;
+  /**
+   * Targeted false positive rate of the revocation Bloom filter.
+   */
+  @Value("${repo.auth.revocation.falsePositiveRate:0.01}")
+  private double revocationFalsePositiveRate;
+  /**
+   * Seconds between loading revocations added by other service instances. If
+   * smaller than 1, revocations are only loaded at startup.
+   */
+  @Value("${repo.auth.revocation.syncInterval:30}")
+  private long revocationSyncInterval;
+  /**
+   * Max. number of verified tokens held in the token cache. Cached tokens are
+   * not parsed and verified again until they expire. If smaller than 1, the
+   * cache is disabled.
+   */
+  @Value("${repo.auth.tokenCache.size:10000}")
+  private long tokenCacheSize;
+  /**
+   * Max. number of introspection results held in the introspection cache.
+   */
+  @Value("${repo.auth.introspection.cacheSize:10000}")
+  private long introspectionCacheSize;
+  /**
+   * Seconds negative introspection results are cached. Positive results are
+   * cached until the token expires.
+   */
+  @Value("${repo.auth.introspection.negativeTtl:300}")
+  private long introspectionNegativeTtl;
+  /**
+   * Max. number of tokens introspected in a single batch request.
+   */
+  @Value("${repo.auth.introspection.maxBatchSize:100}")
+  private int introspectionMaxBatchSize;
+  /**
+   * Number of records parsed, hashed and inserted together by the bulk user
+   * import.
+   */
+  @Value("${repo.auth.import.batchSize:500}")
+  private int importBatchSize;
+  /**
+   * Number of threads used to hash passwords of imported users. If smaller than
+   * 1, the number of available processors is used.
+   */
+  @Value("${repo.auth.import.hashingThreads:0}")
+  private int importHashingThreads;
+  /**
+   * Number of rows fetched at once while exporting users and groups.
+   */
+  @Value("${repo.auth.export.fetchSize:500}")
+  private int exportFetchSize;
 }
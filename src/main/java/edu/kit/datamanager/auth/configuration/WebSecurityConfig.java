@@ -17,12 +17,36 @@ package edu.kit.datamanager.auth.configuration;
 
 import edu.kit.datamanager.auth.configuration.ApplicationProperties;
 import edu.kit.datamanager.auth.service.IGroupService;
+import edu.kit.datamanager.auth.service.IPersonalAccessTokenService;
 import edu.kit.datamanager.auth.service.IUserService;
 import edu.kit.datamanager.auth.web.security.ExtendedJwtAuthenticationProvider;
+import edu.kit.datamanager.auth.web.security.JwtKeyRotationScheduler;
+import edu.kit.datamanager.auth.web.security.JwtKeySet;
+import edu.kit.datamanager.auth.web.security.JwtSigningKey;
+import edu.kit.datamanager.auth.web.security.JwtTokenMinter;
+import edu.kit.datamanager.auth.web.security.LoginCapacityFilter;
+import edu.kit.datamanager.auth.web.security.LoginCoalescer;
+import edu.kit.datamanager.auth.web.security.LoginThrottleFilter;
+import edu.kit.datamanager.auth.web.security.PasswordEncodingPolicy;
+import edu.kit.datamanager.auth.web.security.PasswordUpgrader;
+import edu.kit.datamanager.auth.web.security.PasswordVerifier;
+import edu.kit.datamanager.auth.web.security.PersonalAccessTokenAuthenticationProvider;
+import edu.kit.datamanager.auth.web.security.PersonalAccessTokenFilter;
+import edu.kit.datamanager.auth.web.security.ShardedRateLimiter;
+import edu.kit.datamanager.auth.web.security.TokenIntrospector;
+import edu.kit.datamanager.auth.web.security.TokenRevocationList;
+import edu.kit.datamanager.auth.web.security.ValidatedTokenCache;
 import edu.kit.datamanager.security.filter.JwtAuthenticationFilter;
 import edu.kit.datamanager.security.filter.NoopAuthenticationEventPublisher;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
@@ -30,7 +54,6 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.config.http.SessionCreationPolicy;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
 import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 
@@ -56,7 +79,15 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter{
   private IGroupService groupService;
 
   @Autowired
-  private BCryptPasswordEncoder passwordEncoder;
+  private IPersonalAccessTokenService personalAccessTokenService;
+
+  @Autowired
+  private PasswordEncodingPolicy passwordEncodingPolicy;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  private ExtendedJwtAuthenticationProvider jwtAuthenticationProvider;
 
 //  @Autowired
 //  private UserRepositoryImpl userRepositoryImpl;
@@ -71,7 +102,101 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter{
 //  }
   @Override
   public void configure(AuthenticationManagerBuilder auth) throws Exception{
-    auth.authenticationEventPublisher(new NoopAuthenticationEventPublisher()).authenticationProvider(new ExtendedJwtAuthenticationProvider(applicationProperties.getJwtSecret(), userService, groupService, passwordEncoder, logger));
+    //personal access tokens are verified by a separate provider, which is also no bean for the reason given below
+    auth.authenticationEventPublisher(new NoopAuthenticationEventPublisher()).
+            authenticationProvider(jwtAuthenticationProvider()).
+            authenticationProvider(new PersonalAccessTokenAuthenticationProvider(personalAccessTokenService, userService, groupService, jwtTokenMinter(), applicationProperties.getTokenLifetime(), logger));
+  }
+
+  /**
+   * Get the authentication provider shared by the authentication manager and
+   * the token introspector. The provider is intentionally no bean, as a single
+   * AuthenticationProvider bean would also be registered at the global
+   * authentication manager, which then repeats failed logins as parent.
+   */
+  private synchronized ExtendedJwtAuthenticationProvider jwtAuthenticationProvider() throws IOException{
+    if(jwtAuthenticationProvider == null){
+      ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider(applicationProperties.getJwtSecret(), userService, groupService, passwordVerifier(), jwtTokenMinter(), jwtKeySet(), logger);
+      provider.setTokenLifetime(applicationProperties.getTokenLifetime());
+      provider.setRevocationList(tokenRevocationList());
+      provider.setPasswordUpgrader(passwordUpgrader());
+      if(applicationProperties.isLoginCoalescing()){
+        provider.setLoginCoalescer(new LoginCoalescer(meterRegistry));
+      }
+      if(applicationProperties.getTokenCacheSize() > 0){
+        provider.setTokenCache(new ValidatedTokenCache(applicationProperties.getTokenCacheSize(), meterRegistry));
+      }
+      jwtAuthenticationProvider = provider;
+    }
+    return jwtAuthenticationProvider;
+  }
+
+  @Bean
+  public TokenIntrospector tokenIntrospector() throws IOException{
+    return new TokenIntrospector(jwtAuthenticationProvider(), tokenRevocationList(),
+            applicationProperties.getIntrospectionCacheSize(),
+            applicationProperties.getIntrospectionNegativeTtl(),
+            meterRegistry);
+  }
+
+  @Bean
+  public JwtKeySet jwtKeySet() throws IOException{
+    JwtSigningKey signingKey = createSigningKey();
+    if(signingKey == null){
+      return JwtKeySet.empty();
+    }
+    //former signing keys are kept for the token lifetime plus one minute of clock skew between services
+    long retention = (applicationProperties.getTokenLifetime() + 60) * 1000;
+    return new JwtKeySet(signingKey, JwtSigningKey.generate(signingKey.getAlgorithm()), retention);
+  }
+
+  @Bean
+  public JwtKeyRotationScheduler jwtKeyRotationScheduler() throws IOException{
+    return new JwtKeyRotationScheduler(jwtKeySet(), applicationProperties.getKeyRotationInterval(), logger);
+  }
+
+  @Bean
+  public JwtTokenMinter jwtTokenMinter() throws IOException{
+    JwtKeySet keySet = jwtKeySet();
+    return keySet.isEmpty() ? new JwtTokenMinter(applicationProperties.getJwtSecret()) : new JwtTokenMinter(keySet);
+  }
+
+  private JwtSigningKey createSigningKey() throws IOException{
+    SignatureAlgorithm algorithm = SignatureAlgorithm.forName(applicationProperties.getJwtAlgorithm());
+    if(algorithm.isHmac()){
+      //tokens are signed using the shared secret, thus, there is no key to publish
+      return null;
+    }
+    String privateKey = applicationProperties.getJwtPrivateKey();
+    String publicKey = applicationProperties.getJwtPublicKey();
+    if(privateKey == null || privateKey.isEmpty() || publicKey == null || publicKey.isEmpty()){
+      logger.warn("No key pair configured for token algorithm {}. Generating new key pair, tokens issued before will be invalid after restart.", algorithm);
+      return JwtSigningKey.generate(algorithm);
+    }
+    return JwtSigningKey.fromPem(null, algorithm,
+            new String(Files.readAllBytes(Paths.get(privateKey)), StandardCharsets.US_ASCII),
+            new String(Files.readAllBytes(Paths.get(publicKey)), StandardCharsets.US_ASCII));
+  }
+
+  @Bean
+  public TokenRevocationList tokenRevocationList(){
+    return new TokenRevocationList(applicationProperties.getExpectedRevocations(), applicationProperties.getRevocationFalsePositiveRate(), meterRegistry);
+  }
+
+  @Bean
+  public PasswordVerifier passwordVerifier(){
+    //verifies passwords of all supported algorithms
+    return new PasswordVerifier(passwordEncodingPolicy.getDefaultEncoder(),
+            applicationProperties.getHashingThreads(),
+            applicationProperties.getHashingQueueCapacity(),
+            applicationProperties.getHashingMaxWait(),
+            applicationProperties.getLoginRetryAfter(),
+            meterRegistry);
+  }
+
+  @Bean
+  public PasswordUpgrader passwordUpgrader(){
+    return new PasswordUpgrader(passwordEncodingPolicy, userService, applicationProperties.getPasswordUpgradeQueueCapacity(), meterRegistry, logger);
   }
 
   @Override
@@ -80,9 +205,14 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter{
             .and()
             .csrf().disable()
             .addFilterBefore(new BasicAuthenticationFilter(authenticationManager()), AbstractPreAuthenticatedProcessingFilter.class)
+            .addFilterBefore(loginThrottleFilter(), BasicAuthenticationFilter.class)
+            .addFilterBefore(new LoginCapacityFilter(), BasicAuthenticationFilter.class)
+            .addFilterBefore(new PersonalAccessTokenFilter(authenticationManager()), BasicAuthenticationFilter.class)
             .addFilterAfter(new JwtAuthenticationFilter(authenticationManager()), BasicAuthenticationFilter.class).
             authorizeRequests().
             antMatchers("/api/v1/login").permitAll().
+            antMatchers("/api/v1/login/**").permitAll().
+            antMatchers("/.well-known/jwks.json").permitAll().
             antMatchers("/swagger-ui.html").permitAll().
             antMatchers("/api/v1").authenticated();
     http.headers().cacheControl().disable();
@@ -96,6 +226,19 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter{
     //http.authorizeRequests().antMatchers("/css/**", "/js/**", "/loggedout").permitAll().anyRequest().authenticated().and().httpBasic().and().logout().disable().csrf().disable();
   }
 
+  private LoginThrottleFilter loginThrottleFilter(){
+    //not a bean, otherwise the filter would also be registered outside of the security filter chain
+    ShardedRateLimiter addressLimiter = null;
+    if(applicationProperties.getThrottleAddressRate() > 0){
+      addressLimiter = new ShardedRateLimiter(applicationProperties.getThrottleAddressRate(), applicationProperties.getThrottleAddressBurst(), applicationProperties.getThrottleBuckets());
+    }
+    ShardedRateLimiter usernameLimiter = null;
+    if(applicationProperties.getThrottleUsernameRate() > 0){
+      usernameLimiter = new ShardedRateLimiter(applicationProperties.getThrottleUsernameRate(), applicationProperties.getThrottleUsernameBurst(), applicationProperties.getThrottleBuckets());
+    }
+    return new LoginThrottleFilter(addressLimiter, usernameLimiter, meterRegistry);
+  }
+
 //  @Bean
 //  CorsConfigurationSource corsConfigurationSource(){
 //    final UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
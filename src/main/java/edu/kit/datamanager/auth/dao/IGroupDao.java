@@ -16,10 +16,14 @@
 package edu.kit.datamanager.auth.dao;
 
 import edu.kit.datamanager.auth.domain.RepoUserGroup;
+import java.util.Date;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  *
@@ -30,4 +34,53 @@ public interface IGroupDao extends JpaRepository<RepoUserGroup, Long>, JpaSpecif
 
   public Page<RepoUserGroup> findByMembershipsUserUsernameEqualsAndMembershipsRoleGreaterThanEqualAndActiveTrue(String username, RepoUserGroup.GroupRole role, Pageable pgbl);
 
+  /**
+   * Count the memberships of a user in an active group, ignoring memberships
+   * with role NO_MEMBER. The query uses the unique group id, the membership
+   * index of the group and the user index of the memberships, such that its
+   * cost does not depend on the number of group members.
+   *
+   * @param groupId The (uppercase) group id.
+   * @param username The username.
+   * @param excludedRole The role not counted as membership, i.e. NO_MEMBER.
+   *
+   * @return The number of matching memberships, either 0 or 1.
+   */
+  @Query("SELECT COUNT(m) FROM RepoUserGroup g JOIN g.memberships m WHERE g.groupId = :groupId AND g.active = true AND m.user.username = :username AND m.role <> :excludedRole")
+  public long countActiveMemberships(@Param("groupId") String groupId, @Param("username") String username, @Param("excludedRole") RepoUserGroup.GroupRole excludedRole);
+
+  /**
+   * Initialize the version of groups stored before versioning has been
+   * introduced.
+   *
+   * @return The number of updated groups.
+   */
+  @Modifying
+  @Query("UPDATE RepoUserGroup g SET g.version = 0 WHERE g.version IS NULL")
+  public int initializeVersions();
+
+  /**
+   * Initialize the modification date of groups stored before modification
+   * dates have been introduced.
+   *
+   * @param lastUpdate The modification date to set.
+   *
+   * @return The number of updated groups.
+   */
+  @Modifying
+  @Query("UPDATE RepoUserGroup g SET g.lastUpdate = :lastUpdate WHERE g.lastUpdate IS NULL")
+  public int initializeLastUpdate(@Param("lastUpdate") Date lastUpdate);
+
+  /**
+   * Increment the version and set the modification date of a group, e.g.
+   * after its memberships have been changed.
+   *
+   * @param id The numeric id of the group.
+   * @param lastUpdate The modification date.
+   *
+   * @return The number of updated groups, either 0 or 1.
+   */
+  @Modifying
+  @Query("UPDATE RepoUserGroup g SET g.version = g.version + 1, g.lastUpdate = :lastUpdate WHERE g.id = :id")
+  public int touch(@Param("id") Long id, @Param("lastUpdate") Date lastUpdate);
 }
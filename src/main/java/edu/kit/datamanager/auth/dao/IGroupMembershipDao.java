@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.dao;
+
+import edu.kit.datamanager.auth.domain.GroupMembership;
+import edu.kit.datamanager.auth.domain.RepoUserGroup;
+import java.util.Optional;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * Access to single group memberships without loading the membership
+ * collection of the group. Membership lists are ordered by id, sort
+ * information of the provided Pageable is not supported.
+ *
+ * @author jejkal
+ */
+public interface IGroupMembershipDao extends JpaRepository<GroupMembership, Long>{
+
+  /**
+   * Find all memberships of a group including the user of each membership.
+   *
+   * @param groupId The numeric id of the group.
+   * @param pgbl The page request.
+   *
+   * @return A page of memberships.
+   */
+  @Query(value = "SELECT m FROM RepoUserGroup g JOIN g.memberships m JOIN FETCH m.user WHERE g.id = :groupId ORDER BY m.id",
+          countQuery = "SELECT COUNT(m) FROM RepoUserGroup g JOIN g.memberships m WHERE g.id = :groupId")
+  public Page<GroupMembership> findByGroup(@Param("groupId") Long groupId, Pageable pgbl);
+
+  /**
+   * Find all memberships of a group with a certain role including the user of
+   * each membership.
+   *
+   * @param groupId The numeric id of the group.
+   * @param role The membership role.
+   * @param pgbl The page request.
+   *
+   * @return A page of memberships.
+   */
+  @Query(value = "SELECT m FROM RepoUserGroup g JOIN g.memberships m JOIN FETCH m.user WHERE g.id = :groupId AND m.role = :role ORDER BY m.id",
+          countQuery = "SELECT COUNT(m) FROM RepoUserGroup g JOIN g.memberships m WHERE g.id = :groupId AND m.role = :role")
+  public Page<GroupMembership> findByGroupAndRole(@Param("groupId") Long groupId, @Param("role") RepoUserGroup.GroupRole role, Pageable pgbl);
+
+  /**
+   * Find the membership of a user in a group.
+   *
+   * @param groupId The numeric id of the group.
+   * @param userId The numeric id of the user.
+   *
+   * @return An optional of type GroupMembership.
+   */
+  @Query("SELECT m FROM RepoUserGroup g JOIN g.memberships m WHERE g.id = :groupId AND m.user.id = :userId")
+  public Optional<GroupMembership> findByGroupAndUser(@Param("groupId") Long groupId, @Param("userId") Long userId);
+
+  /**
+   * Find the role of a user in a group.
+   *
+   * @param groupId The numeric id of the group.
+   * @param username The username.
+   *
+   * @return An optional of type GroupRole, empty if the user has no
+   * membership.
+   */
+  @Query("SELECT m.role FROM RepoUserGroup g JOIN g.memberships m WHERE g.id = :groupId AND m.user.username = :username")
+  public Optional<RepoUserGroup.GroupRole> findRole(@Param("groupId") Long groupId, @Param("username") String username);
+
+  /**
+   * Assign an already persisted membership to a group. The membership
+   * collection is maintained directly in order to avoid loading all
+   * memberships of the group.
+   *
+   * @param groupId The numeric id of the group.
+   * @param membershipId The numeric id of the membership.
+   */
+  @Modifying
+  @Query(value = "INSERT INTO repo_user_group_memberships (repo_user_group_id, memberships_id) VALUES (:groupId, :membershipId)", nativeQuery = true)
+  public void assignToGroup(@Param("groupId") Long groupId, @Param("membershipId") Long membershipId);
+
+  /**
+   * Remove a membership from the membership collection of its group.
+   *
+   * @param membershipId The numeric id of the membership.
+   */
+  @Modifying
+  @Query(value = "DELETE FROM repo_user_group_memberships WHERE memberships_id = :membershipId", nativeQuery = true)
+  public void removeFromGroup(@Param("membershipId") Long membershipId);
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.dao;
+
+import edu.kit.datamanager.auth.domain.PersonalAccessToken;
+import java.util.Optional;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * Access to personal access tokens. Tokens are looked up by their public
+ * prefix using a unique index.
+ *
+ * @author jejkal
+ */
+public interface IPersonalAccessTokenDao extends JpaRepository<PersonalAccessToken, Long>{
+
+  /**
+   * Find a token by its public prefix.
+   *
+   * @param prefix The prefix.
+   *
+   * @return The token or Optional.empty().
+   */
+  public Optional<PersonalAccessToken> findByPrefix(String prefix);
+
+  /**
+   * Find all tokens of a user.
+   *
+   * @param username The username.
+   * @param pgbl The page request.
+   *
+   * @return A page of tokens.
+   */
+  public Page<PersonalAccessToken> findByUsername(String username, Pageable pgbl);
+
+  /**
+   * Delete all tokens of a user.
+   *
+   * @param username The username.
+   *
+   * @return The number of deleted tokens.
+   */
+  @Modifying
+  @Query("DELETE FROM PersonalAccessToken t WHERE t.username = :username")
+  public int deleteByUsername(@Param("username") String username);
+}
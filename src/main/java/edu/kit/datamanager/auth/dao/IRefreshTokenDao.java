@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.dao;
+
+import edu.kit.datamanager.auth.domain.RefreshToken;
+import java.util.Date;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * Access to stored refresh tokens. Tokens are looked up by the hash of the
+ * opaque token using a unique index.
+ *
+ * @author jejkal
+ */
+public interface IRefreshTokenDao extends JpaRepository<RefreshToken, Long>{
+
+  /**
+   * Find a refresh token by its hash.
+   *
+   * @param tokenHash The hash of the opaque token.
+   *
+   * @return The refresh token or Optional.empty().
+   */
+  public Optional<RefreshToken> findByTokenHash(String tokenHash);
+
+  /**
+   * Atomically mark a refresh token as used. Only one of multiple concurrent
+   * callers presenting the same token will succeed.
+   *
+   * @param id The id of the refresh token.
+   *
+   * @return 1 if the token was marked as used, 0 if it was used before.
+   */
+  @Modifying
+  @Query("UPDATE RefreshToken t SET t.used = true WHERE t.id = :id AND t.used = false")
+  public int markUsed(@Param("id") Long id);
+
+  /**
+   * Delete all refresh tokens of a token family.
+   *
+   * @param familyId The family id.
+   *
+   * @return The number of deleted tokens.
+   */
+  @Modifying
+  @Query("DELETE FROM RefreshToken t WHERE t.familyId = :familyId")
+  public int deleteByFamily(@Param("familyId") String familyId);
+
+  /**
+   * Delete all refresh tokens of a user.
+   *
+   * @param username The username.
+   *
+   * @return The number of deleted tokens.
+   */
+  @Modifying
+  @Query("DELETE FROM RefreshToken t WHERE t.username = :username")
+  public int deleteByUser(@Param("username") String username);
+
+  /**
+   * Delete all refresh tokens of a user expired before the provided date.
+   *
+   * @param username The username.
+   * @param date The date.
+   *
+   * @return The number of deleted tokens.
+   */
+  @Modifying
+  @Query("DELETE FROM RefreshToken t WHERE t.username = :username AND t.expiresAt < :date")
+  public int deleteExpired(@Param("username") String username, @Param("date") Date date);
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.dao;
+
+import edu.kit.datamanager.auth.domain.TokenRevocation;
+import java.util.Date;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * Access to persisted token revocations.
+ *
+ * @author jejkal
+ */
+public interface ITokenRevocationDao extends JpaRepository<TokenRevocation, Long>{
+
+  /**
+   * Find all revocations not expired yet.
+   *
+   * @param date The current date.
+   *
+   * @return All matching revocations.
+   */
+  public List<TokenRevocation> findByExpiresAtAfter(Date date);
+
+  /**
+   * Find all revocations not expired yet and created after the provided date,
+   * e.g. by another service instance.
+   *
+   * @param createdAt The date after which revocations have been created.
+   * @param date The current date.
+   *
+   * @return All matching revocations.
+   */
+  public List<TokenRevocation> findByCreatedAtAfterAndExpiresAtAfter(Date createdAt, Date date);
+
+  /**
+   * Delete all revocations expired before the provided date.
+   *
+   * @param date The date.
+   *
+   * @return The number of deleted revocations.
+   */
+  @Modifying
+  @Query("DELETE FROM TokenRevocation r WHERE r.expiresAt < :date")
+  public int deleteExpired(@Param("date") Date date);
+}
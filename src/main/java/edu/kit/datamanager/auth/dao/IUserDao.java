@@ -16,9 +16,17 @@
 package edu.kit.datamanager.auth.dao;
 
 import edu.kit.datamanager.auth.domain.RepoUser;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  *
@@ -35,4 +43,109 @@ public interface IUserDao extends JpaRepository<RepoUser, Long>, JpaSpecificatio
    */
   public Optional<RepoUser> findByUsername(String username);
 
+  /**
+   * Find users stored before role masks have been introduced.
+   *
+   * @param pgbl The page request.
+   *
+   * @return A slice of users without role mask.
+   */
+  public Slice<RepoUser> findByRoleMaskIsNull(Pageable pgbl);
+
+  /**
+   * Initialize the version of users stored before versioning has been
+   * introduced.
+   *
+   * @return The number of updated users.
+   */
+  @Modifying
+  @Query("UPDATE RepoUser u SET u.version = 0 WHERE u.version IS NULL")
+  public int initializeVersions();
+
+  /**
+   * Initialize the modification date of users stored before modification dates
+   * have been introduced.
+   *
+   * @param lastUpdate The modification date to set.
+   *
+   * @return The number of updated users.
+   */
+  @Modifying
+  @Query("UPDATE RepoUser u SET u.lastUpdate = :lastUpdate WHERE u.lastUpdate IS NULL")
+  public int initializeLastUpdate(@Param("lastUpdate") Date lastUpdate);
+
+  /**
+   * Register a failed login attempt for the user with the provided username.
+   * The failure counter is incremented up to maxFailures and the user is
+   * locked as soon as maxFailures is reached. Both is done within one
+   * conditional UPDATE statement evaluated by the database, so that concurrent
+   * attempts, also on different service instances, cannot lose increments.
+   * Already locked users are not modified.
+   *
+   * @param username The username.
+   * @param maxFailures The number of failures after which the user is locked.
+   * @param lockedUntil The date until which the user will be locked.
+   * @param lastUpdate The modification date.
+   *
+   * @return The number of updated users, either 0 or 1.
+   */
+  @Modifying
+  @Query("UPDATE RepoUser u SET "
+          + "u.loginFailures = CASE WHEN COALESCE(u.loginFailures, 0) + 1 >= :maxFailures THEN :maxFailures ELSE COALESCE(u.loginFailures, 0) + 1 END, "
+          + "u.locked = CASE WHEN COALESCE(u.loginFailures, 0) + 1 >= :maxFailures THEN true ELSE u.locked END, "
+          + "u.lockedUntil = CASE WHEN COALESCE(u.loginFailures, 0) + 1 >= :maxFailures THEN :lockedUntil ELSE u.lockedUntil END, "
+          + "u.version = u.version + 1, u.lastUpdate = :lastUpdate "
+          + "WHERE u.username = :username AND (u.locked IS NULL OR u.locked = false)")
+  public int registerLoginFailure(@Param("username") String username, @Param("maxFailures") Integer maxFailures, @Param("lockedUntil") Date lockedUntil, @Param("lastUpdate") Date lastUpdate);
+
+  /**
+   * Get the current number of failed logins of the user with the provided
+   * username directly from the database, i.e. bypassing already loaded user
+   * instances.
+   *
+   * @param username The username.
+   *
+   * @return The number of failed logins or null if no user or no counter
+   * exists.
+   */
+  @Query("SELECT u.loginFailures FROM RepoUser u WHERE u.username = :username")
+  public Integer findLoginFailuresByUsername(@Param("username") String username);
+
+  /**
+   * Reset the failed login counter of the user with the provided username. The
+   * user is only updated if the counter is not already zero.
+   *
+   * @param username The username.
+   * @param lastUpdate The modification date.
+   *
+   * @return The number of updated users, either 0 or 1.
+   */
+  @Modifying
+  @Query("UPDATE RepoUser u SET u.loginFailures = 0, u.version = u.version + 1, u.lastUpdate = :lastUpdate WHERE u.username = :username AND u.loginFailures > 0")
+  public int resetLoginFailures(@Param("username") String username, @Param("lastUpdate") Date lastUpdate);
+
+  /**
+   * Replace the password of the user with the provided username if the stored
+   * password still equals currentPassword.
+   *
+   * @param username The username.
+   * @param currentPassword The expected, currently stored password.
+   * @param newPassword The new password.
+   * @param lastUpdate The modification date.
+   *
+   * @return The number of updated users, either 0 or 1.
+   */
+  @Modifying
+  @Query("UPDATE RepoUser u SET u.password = :newPassword, u.version = u.version + 1, u.lastUpdate = :lastUpdate WHERE u.username = :username AND u.password = :currentPassword")
+  public int updatePassword(@Param("username") String username, @Param("currentPassword") String currentPassword, @Param("newPassword") String newPassword, @Param("lastUpdate") Date lastUpdate);
+
+  /**
+   * Find the usernames among the provided usernames which are already in use.
+   *
+   * @param usernames The usernames to check.
+   *
+   * @return The list of existing usernames.
+   */
+  @Query("SELECT u.username FROM RepoUser u WHERE u.username IN :usernames")
+  public List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
 }
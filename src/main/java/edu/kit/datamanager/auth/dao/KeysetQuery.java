@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.dao;
+
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Keyset (seek) pagination on the primary key of an entity. Instead of
+ * skipping offset rows and counting all matches, the next chunk is obtained
+ * by seeking to the first id greater than the last id of the previous chunk
+ * using the primary key index. One additional row is fetched in order to
+ * determine whether there is a next chunk, thus, no count query is issued.
+ *
+ * @author jejkal
+ */
+public final class KeysetQuery{
+
+  private KeysetQuery(){
+  }
+
+  /**
+   * Find the next chunk of entities matching the provided specification.
+   *
+   * @param <T> The entity type.
+   * @param em The entity manager.
+   * @param type The entity class, which must have a numeric attribute 'id'.
+   * @param spec The specification to match or null.
+   * @param afterId The last id of the previous chunk or null to start with the
+   * first entity.
+   * @param size The max. number of elements in the returned slice.
+   *
+   * @return A slice of entities ordered by id.
+   */
+  public static <T> Slice<T> findAfter(EntityManager em, Class<T> type, Specification<T> spec, Long afterId, int size){
+    CriteriaBuilder builder = em.getCriteriaBuilder();
+    CriteriaQuery<T> query = builder.createQuery(type);
+    Root<T> root = query.from(type);
+
+    Predicate predicate = (spec != null) ? spec.toPredicate(root, query, builder) : null;
+    if(afterId != null){
+      Predicate seek = builder.greaterThan(root.<Long>get("id"), afterId);
+      predicate = (predicate != null) ? builder.and(predicate, seek) : seek;
+    }
+    if(predicate != null){
+      query.where(predicate);
+    }
+    query.select(root).orderBy(builder.asc(root.get("id")));
+
+    List<T> result = em.createQuery(query).setMaxResults(size + 1).getResultList();
+    boolean hasNext = result.size() > size;
+    return new SliceImpl<>(hasNext ? result.subList(0, size) : result, PageRequest.of(0, size), hasNext);
+  }
+}
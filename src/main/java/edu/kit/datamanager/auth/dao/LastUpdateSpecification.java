@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.dao;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.persistence.criteria.Predicate;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Specification restricting results to entities modified within a certain
+ * time range. The entity must have an indexed attribute 'lastUpdate' of type
+ * Date.
+ *
+ * @author jejkal
+ */
+public final class LastUpdateSpecification{
+
+  private LastUpdateSpecification(){
+  }
+
+  /**
+   * Create a specification matching all entities with lastUpdate &gt;=
+   * lastUpdateFrom and lastUpdate &lt;= lastUpdateUntil. If one boundary is
+   * null, the range is open on this side.
+   *
+   * @param <T> The entity type.
+   * @param lastUpdateFrom The lower boundary or null.
+   * @param lastUpdateUntil The upper boundary or null.
+   *
+   * @return The specification or null if both boundaries are null.
+   */
+  public static <T> Specification<T> between(Instant lastUpdateFrom, Instant lastUpdateUntil){
+    if(lastUpdateFrom == null && lastUpdateUntil == null){
+      return null;
+    }
+    return (root, query, builder) -> {
+      List<Predicate> predicates = new ArrayList<>();
+      if(lastUpdateFrom != null){
+        predicates.add(builder.greaterThanOrEqualTo(root.<Date>get("lastUpdate"), Date.from(lastUpdateFrom)));
+      }
+      if(lastUpdateUntil != null){
+        predicates.add(builder.lessThanOrEqualTo(root.<Date>get("lastUpdate"), Date.from(lastUpdateUntil)));
+      }
+      return builder.and(predicates.toArray(new Predicate[]{}));
+    };
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.dao.listener;
+
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.service.impl.RepoUserCache;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * JPA entity listener invalidating cached users whenever a user entity is
+ * written, independent from whether the write was issued via RepoUserService
+ * or directly via IUserDao. The listener is instantiated by Hibernate via
+ * Spring's bean container, which allows to inject the cache.
+ *
+ * @author jejkal
+ */
+public class RepoUserCacheListener{
+
+  @Autowired
+  private RepoUserCache userCache;
+
+  @PostPersist
+  @PostUpdate
+  @PostRemove
+  public void invalidate(RepoUser user){
+    if(userCache != null){
+      userCache.invalidate(user.getUsername());
+    }
+  }
+}
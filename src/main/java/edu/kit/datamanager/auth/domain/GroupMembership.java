@@ -21,12 +21,15 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import edu.kit.datamanager.annotations.Searchable;
 import edu.kit.datamanager.annotations.SecureUpdate;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
-import javax.persistence.OneToOne;
+import javax.persistence.Index;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
 import javax.persistence.Transient;
 import lombok.AccessLevel;
 import lombok.Data;
@@ -40,6 +43,7 @@ import org.springframework.beans.factory.annotation.Autowired;
  * @author jejkal
  */
 @Entity
+@Table(indexes = {@Index(name = "group_membership_user_idx", columnList = "user_id")})
 @JsonIgnoreProperties(ignoreUnknown = true)
 @Data
 @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -58,7 +62,7 @@ public class GroupMembership{
   @Searchable
   private Long id;
   
-  @OneToOne
+  @ManyToOne(fetch = FetchType.LAZY)
   private RepoUser user;
   @Enumerated(EnumType.STRING)
   private RepoUserGroup.GroupRole role;
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import edu.kit.datamanager.entities.RepoUserRole;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.Transient;
+import lombok.Data;
+
+/**
+ * Long-lived personal access token used by automated clients instead of
+ * username and password. A token consists of a public prefix and a secret.
+ * Only the prefix and the SHA-256 hash of the secret are stored, which allows
+ * to verify a token by a single lookup via the unique prefix index. The scopes
+ * of a token are the roles it grants, which are additionally limited to the
+ * current roles of the user.
+ *
+ * @author jejkal
+ */
+@Entity
+@Table(indexes = {
+  @Index(name = "personal_access_token_prefix_idx", columnList = "prefix", unique = true),
+  @Index(name = "personal_access_token_username_idx", columnList = "username")})
+@Schema(description = "A personal access token.")
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Data
+public class PersonalAccessToken{
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+  private Long id;
+  @Schema(description = "A name describing the purpose of the token.", required = true)
+  private String name;
+  @Column(nullable = false, length = 16)
+  @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+  @Schema(description = "The public prefix identifying the token.")
+  private String prefix;
+  @Column(nullable = false, length = 64)
+  @JsonIgnore
+  private String secretHash;
+  @Column(nullable = false)
+  @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+  private String username;
+  @Schema(description = "The group the token is associated with. If not provided, the token is associated with group USERS.")
+  private String groupId;
+  @JsonIgnore
+  @Column(name = "scope_bits")
+  private Integer roleMask;
+  @Transient
+  @Schema(description = "The roles granted by the token. If not provided, the token grants ROLE_USER.")
+  private Collection<RepoUserRole> scopes = new ArrayList<>();
+  @Temporal(TemporalType.TIMESTAMP)
+  @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+  private Date createdAt;
+  @Temporal(TemporalType.TIMESTAMP)
+  @Schema(description = "The expiration date of the token. If not provided, the token does not expire.")
+  private Date expiresAt;
+  @Transient
+  @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+  @Schema(description = "The token, only returned once at creation time.")
+  private String token;
+
+  @PrePersist
+  public void storeScopes(){
+    roleMask = RepoUser.toRoleMask(scopes);
+  }
+
+  @PostLoad
+  public void hydrateScopes(){
+    scopes = RepoUser.toRoles((roleMask != null) ? roleMask : 0);
+  }
+
+  /**
+   * Check whether this token has expired.
+   *
+   * @return TRUE if the token has an expiration date in the past.
+   */
+  @JsonIgnore
+  public boolean isExpired(){
+    return expiresAt != null && expiresAt.before(new Date());
+  }
+}
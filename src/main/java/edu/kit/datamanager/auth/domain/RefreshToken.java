@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.domain;
+
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.Transient;
+import lombok.Data;
+
+/**
+ * Refresh token issued at login. Only the SHA-256 hash of the opaque token is
+ * stored, the token itself is only available via getToken() directly after
+ * issuing it. All tokens created by rotating a token belong to the same family,
+ * which allows to revoke the whole chain at once, e.g. if a token that has
+ * already been used is presented again.
+ *
+ * @author jejkal
+ */
+@Entity
+@Table(indexes = {
+  @Index(name = "refresh_token_hash_idx", columnList = "token_hash", unique = true),
+  @Index(name = "refresh_token_family_idx", columnList = "family_id"),
+  @Index(name = "refresh_token_username_idx", columnList = "username")})
+@Data
+public class RefreshToken{
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+  @Column(name = "token_hash", nullable = false, length = 64)
+  private String tokenHash;
+  @Column(name = "family_id", nullable = false, length = 36)
+  private String familyId;
+  @Column(nullable = false)
+  private String username;
+  private String groupId;
+  @Temporal(TemporalType.TIMESTAMP)
+  private Date expiresAt;
+  private boolean used;
+  @Transient
+  private String token;
+}
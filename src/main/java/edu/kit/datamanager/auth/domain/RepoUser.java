@@ -21,9 +21,9 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.kit.datamanager.auth.dao.listener.RepoUserCacheListener;
 import edu.kit.datamanager.entities.EtagSupport;
 import edu.kit.datamanager.entities.RepoUserRole;
 import edu.kit.datamanager.exceptions.CustomInternalServerError;
@@ -31,19 +31,26 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.PostLoad;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
+import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.Transient;
+import javax.persistence.Version;
 import lombok.AccessLevel;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -60,6 +67,8 @@ import org.slf4j.LoggerFactory;
  * @author jejkal
  */
 @Entity
+@Table(indexes = {@Index(name = "repo_user_last_update_idx", columnList = "last_update")})
+@EntityListeners(RepoUserCacheListener.class)
 @Schema(description = "An agent of type 'user' related to a resource, e.g. the creator or a contributor.")
 @JsonIgnoreProperties(ignoreUnknown = true)
 @Data
@@ -82,6 +91,13 @@ public class RepoUser implements UserDetails, EtagSupport{
   @SecureUpdate({"FORBIDDEN"})
   @Column(nullable = false, unique = true)
   private String username;
+  @Version
+  @SecureUpdate({"FORBIDDEN"})
+  private Long version;
+  @Column(name = "last_update")
+  @Temporal(TemporalType.TIMESTAMP)
+  @SecureUpdate({"FORBIDDEN"})
+  private Date lastUpdate;
   @Searchable
   private String firstname;
   @Searchable
@@ -90,6 +106,9 @@ public class RepoUser implements UserDetails, EtagSupport{
   private String email;
   private String activeGroup;
   private String password;
+  @SecureUpdate({"ROLE_ADMINISTRATOR"})
+  @Schema(description = "The password hashing algorithm of the user, e.g. 'pbkdf2' for service accounts. If not set, the default algorithm is used.")
+  private String passwordAlgorithm;
   @Searchable
   private String orcid;
   //special/internal properties that cannot be changed by the user
@@ -110,6 +129,33 @@ public class RepoUser implements UserDetails, EtagSupport{
   private transient Collection<RepoUserRole> rolesAsEnum = new LinkedList<>();
   @SecureUpdate({"ROLE_ADMINISTRATOR"})
   private String roles;
+  //compact role representation used to hydrate rolesAsEnum, see ROLE_BITS for the bit of each role
+  @JsonIgnore
+  @Schema(hidden = true)
+  @Column(name = "role_bits")
+  private Integer roleMask;
+
+  private static final ObjectMapper ROLES_MAPPER = new ObjectMapper();
+  private static final RepoUserRole[] ALL_ROLES = RepoUserRole.values();
+  /**
+   * Bit per role value used in role masks. The bits are persisted and must
+   * never be changed or reused. They are assigned by value instead of by
+   * ordinal, as RepoUserRole is part of service-base and its order may change
+   * between releases. New roles have to be added here with a new bit.
+   */
+  private static final Map<String, Integer> ROLE_BITS;
+
+  static{
+    Map<String, Integer> bits = new HashMap<>();
+    bits.put("ROLE_NO_ACCESS", 1 << 0);
+    bits.put("ROLE_GUEST", 1 << 1);
+    bits.put("ROLE_USER", 1 << 2);
+    bits.put("ROLE_ADMINISTRATOR", 1 << 3);
+    bits.put("ROLE_INACTIVE", 1 << 4);
+    bits.put("ROLE_CURATOR", 1 << 5);
+    bits.put("ROLE_ANONYMOUS", 1 << 6);
+    ROLE_BITS = Collections.unmodifiableMap(bits);
+  }
 
   public static RepoUser createUser(){
     return new RepoUser();
@@ -120,6 +166,36 @@ public class RepoUser implements UserDetails, EtagSupport{
     addRole(RepoUserRole.USER);
   }
 
+  /**
+   * Create a detached copy of this user. All mutable properties, e.g. the
+   * roles, are copied, so that modifications of the copy do not affect this
+   * instance.
+   *
+   * @return A copy of this user.
+   */
+  public RepoUser copy(){
+    RepoUser copy = new RepoUser();
+    copy.id = id;
+    copy.username = username;
+    copy.version = version;
+    copy.lastUpdate = (lastUpdate != null) ? new Date(lastUpdate.getTime()) : null;
+    copy.firstname = firstname;
+    copy.lastname = lastname;
+    copy.email = email;
+    copy.activeGroup = activeGroup;
+    copy.password = password;
+    copy.passwordAlgorithm = passwordAlgorithm;
+    copy.orcid = orcid;
+    copy.loginFailures = loginFailures;
+    copy.lockedUntil = (lockedUntil != null) ? new Date(lockedUntil.getTime()) : null;
+    copy.active = active;
+    copy.locked = locked;
+    copy.rolesAsEnum = (rolesAsEnum != null) ? new ArrayList<>(rolesAsEnum) : null;
+    copy.roles = roles;
+    copy.roleMask = roleMask;
+    return copy;
+  }
+
   public void erasePassword(){
     this.password = null;
   }
@@ -173,12 +249,30 @@ public class RepoUser implements UserDetails, EtagSupport{
     }
   }
 
+  /**
+   * Hydrate the roles of a loaded user. If the role mask is set, the roles are
+   * obtained from the mask. Otherwise, the user was stored before role masks
+   * have been introduced and the roles are parsed from the JSON representation
+   * once. In that case, the role mask is set, such that it is persisted with the
+   * next update.
+   */
   @PostLoad
+  public void hydrateRoles(){
+    if(roleMask != null){
+      rolesAsEnum = toRoles(roleMask);
+    } else{
+      convertRolesToEnum();
+      roleMask = toRoleMask(rolesAsEnum);
+    }
+  }
+
+  /**
+   * Parse the JSON representation of the roles into rolesAsEnum.
+   */
   public void convertRolesToEnum(){
     if(roles != null){
       try{
-        ObjectMapper mapper = new ObjectMapper();
-        final JsonNode jsonNode = mapper.readTree(roles);
+        final JsonNode jsonNode = ROLES_MAPPER.readTree(roles);
         rolesAsEnum = new ArrayList<>();
         if(jsonNode.isArray()){
           for(JsonNode node : jsonNode){
@@ -196,23 +290,72 @@ public class RepoUser implements UserDetails, EtagSupport{
 
   @PrePersist
   @PreUpdate
-  public void convertEnumToRoles(){
-    String[] values = new String[rolesAsEnum.size()];
+  public void beforeWrite(){
+    convertEnumToRoles();
+    lastUpdate = new Date();
+  }
 
-    int cnt = 0;
+  /**
+   * Write rolesAsEnum to the JSON representation of the roles and to the role
+   * mask.
+   */
+  public void convertEnumToRoles(){
+    //role values are plain identifiers, thus, no JSON serializer is needed
+    StringBuilder b = new StringBuilder("[");
     for(RepoUserRole role : rolesAsEnum){
-      values[cnt] = role.getValue();
-      cnt++;
+      if(b.length() > 1){
+        b.append(",");
+      }
+      b.append("\"").append(role.getValue()).append("\"");
     }
+    roles = b.append("]").toString();
+    roleMask = toRoleMask(rolesAsEnum);
+  }
 
-    try{
-      ObjectMapper mapper = new ObjectMapper();
-      roles = mapper.writeValueAsString(values);
-    } catch(JsonProcessingException ex){
-      //There should be no scenario where serializing a string array into json fails. However, log and throw error.
-      LOGGER.error("Failed to write user roles from " + this, ex);
-      throw new CustomInternalServerError("Failed to write user roles.");
+  /**
+   * Get the role mask for the provided roles.
+   *
+   * @param roles The roles.
+   *
+   * @return The role mask.
+   *
+   * @throws IllegalStateException if no bit has been assigned to one of the
+   * roles.
+   */
+  public static int toRoleMask(Collection<RepoUserRole> roles){
+    int mask = 0;
+    if(roles != null){
+      for(RepoUserRole role : roles){
+        mask |= getRoleBit(role);
+      }
     }
+    return mask;
+  }
+
+  private static int getRoleBit(RepoUserRole role){
+    Integer bit = ROLE_BITS.get(role.getValue());
+    if(bit == null){
+      throw new IllegalStateException("No role mask bit assigned to role " + role.getValue() + ".");
+    }
+    return bit;
+  }
+
+  /**
+   * Get the roles contained in the provided role mask.
+   *
+   * @param mask The role mask.
+   *
+   * @return A modifiable list of roles ordered by ordinal.
+   */
+  public static Collection<RepoUserRole> toRoles(int mask){
+    Collection<RepoUserRole> result = new ArrayList<>(Integer.bitCount(mask));
+    for(RepoUserRole role : ALL_ROLES){
+      Integer bit = ROLE_BITS.get(role.getValue());
+      if(bit != null && (mask & bit) != 0){
+        result.add(role);
+      }
+    }
+    return result;
   }
 
   @Override
@@ -224,15 +367,8 @@ public class RepoUser implements UserDetails, EtagSupport{
   @Override
   @JsonIgnore
   public String getEtag(){
-    //remember password
-    String tmpPwd = getPassword();
-    //reset password to not include it in the etag
-    erasePassword();
-    //create etag
-    String result = Integer.toString(hashCode());
-    //re-set password
-    setPassword(tmpPwd);
-    return result;
+    //the version is incremented on every update, thus, id and version identify the state of the user
+    return id + "-" + version;
   }
 
   public void clean(){
@@ -248,5 +384,6 @@ public class RepoUser implements UserDetails, EtagSupport{
     active = null;
     locked = null;
     roles = null;
+    roleMask = null;
   }
 }
@@ -18,12 +18,14 @@ package edu.kit.datamanager.auth.domain;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import edu.kit.datamanager.annotations.Searchable;
 import edu.kit.datamanager.annotations.SecureUpdate;
 import edu.kit.datamanager.entities.EtagSupport;
 import io.swagger.v3.oas.annotations.media.Schema;
 import java.io.Serializable;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 import javax.persistence.Column;
@@ -32,14 +34,25 @@ import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.JoinTable;
 import javax.persistence.OneToMany;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import javax.persistence.Transient;
+import javax.persistence.Version;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
+import lombok.ToString;
 import org.apache.commons.collections4.IteratorUtils;
+import org.hibernate.annotations.Formula;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -48,6 +61,7 @@ import org.springframework.beans.factory.annotation.Autowired;
  * @author jejkal
  */
 @Entity
+@Table(indexes = {@Index(name = "repo_user_group_last_update_idx", columnList = "last_update")})
 @Schema(description = "An agent of type 'user' related to a resource, e.g. the creator or a contributor.")
 @JsonIgnoreProperties(ignoreUnknown = true)
 @Data
@@ -100,6 +114,13 @@ public class RepoUserGroup implements EtagSupport, Serializable{
   @SecureUpdate({"FORBIDDEN"})
   @Column(nullable = false, unique = true)
   private String groupId;
+  @Version
+  @SecureUpdate({"FORBIDDEN"})
+  private Long version;
+  @Column(name = "last_update")
+  @Temporal(TemporalType.TIMESTAMP)
+  @SecureUpdate({"FORBIDDEN"})
+  private Date lastUpdate;
   @Column(nullable = false)
   @Searchable
   @SecureUpdate({"ROLE_GROUP_MANAGER", "ROLE_ADMINISTRATOR"})
@@ -107,9 +128,21 @@ public class RepoUserGroup implements EtagSupport, Serializable{
   @Column(nullable = false)
   @SecureUpdate({"ROLE_GROUP_MANAGER", "ROLE_ADMINISTRATOR"})
   private Boolean active = true;
-  @OneToMany(cascade = javax.persistence.CascadeType.ALL, fetch = FetchType.EAGER, orphanRemoval = true)
+  //memberships can be provided at creation time, afterwards they are managed via /api/v1/groups/{id}/members
+  @OneToMany(cascade = javax.persistence.CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval = true)
+  @JoinTable(name = "repo_user_group_memberships",
+          joinColumns = @JoinColumn(name = "repo_user_group_id"),
+          inverseJoinColumns = @JoinColumn(name = "memberships_id"),
+          indexes = {@Index(name = "repo_user_group_memberships_group_idx", columnList = "repo_user_group_id")})
   @SecureUpdate({"ROLE_GROUP_MANAGER", "ROLE_ADMINISTRATOR"})
+  @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
   private Set<GroupMembership> memberships = new HashSet<>();
+  //number of memberships with a role other than NO_MEMBER, calculated by the database while loading the group
+  @Formula("(SELECT COUNT(*) FROM group_membership gm WHERE gm.role <> 'NO_MEMBER' AND gm.id IN (SELECT m.memberships_id FROM repo_user_group_memberships m WHERE m.repo_user_group_id = id))")
+  @SecureUpdate({"FORBIDDEN"})
+  private Long memberCount;
 
   public static RepoUserGroup createGroup(String groupId){
     RepoUserGroup group = new RepoUserGroup();
@@ -149,10 +182,17 @@ public class RepoUserGroup implements EtagSupport, Serializable{
     return GroupRole.NO_MEMBER;
   }
 
+  @PrePersist
+  @PreUpdate
+  public void beforeWrite(){
+    lastUpdate = new Date();
+  }
+
   @JsonIgnore
   @Override
   public String getEtag(){
-    return Integer.toString(hashCode());
+    //the version is incremented on every update including membership changes, thus, id and version identify the state of the group
+    return id + "-" + version;
   }
 
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * Response of a token request containing an access token and the refresh token
+ * which can be used to obtain the next access token.
+ *
+ * @author jejkal
+ */
+@Schema(description = "An access token and the refresh token used to obtain a new access token.")
+@Data
+public class TokenResponse{
+
+  @Schema(description = "The JSON Web Token to provide as Bearer token.")
+  private String accessToken;
+  @Schema(description = "The token type, always 'Bearer'.")
+  private String tokenType = "Bearer";
+  @Schema(description = "Seconds until the access token expires.")
+  private long expiresIn;
+  @Schema(description = "The single-use refresh token.")
+  private String refreshToken;
+
+  public TokenResponse(){
+  }
+
+  public TokenResponse(String accessToken, long expiresIn, String refreshToken){
+    this.accessToken = accessToken;
+    this.expiresIn = expiresIn;
+    this.refreshToken = refreshToken;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.domain;
+
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import lombok.Data;
+
+/**
+ * Persistent revocation of either a single token identified by its token id
+ * or of all tokens of a user issued before a certain date. Revocations are
+ * kept until all affected tokens have expired.
+ *
+ * @author jejkal
+ */
+@Entity
+@Table(indexes = {@Index(name = "token_revocation_expires_at_idx", columnList = "expires_at"), @Index(name = "token_revocation_created_at_idx", columnList = "created_at")})
+@Data
+public class TokenRevocation{
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+  @Column(length = 64)
+  private String tokenId;
+  private String username;
+  @Temporal(TemporalType.TIMESTAMP)
+  private Date notBefore;
+  @Column(name = "expires_at", nullable = false)
+  @Temporal(TemporalType.TIMESTAMP)
+  private Date expiresAt;
+  @Column(name = "created_at")
+  @Temporal(TemporalType.TIMESTAMP)
+  private Date createdAt;
+
+  @PrePersist
+  public void setCreationDate(){
+    if(createdAt == null){
+      createdAt = new Date();
+    }
+  }
+}
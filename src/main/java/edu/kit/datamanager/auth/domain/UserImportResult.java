@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * Result of importing a single record of a bulk user import.
+ *
+ * @author jejkal
+ */
+@Schema(description = "The result of importing a single user record.")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Data
+public class UserImportResult{
+
+  public enum Status{
+    CREATED,
+    FAILED;
+  }
+
+  @Schema(description = "The line of the record in the imported file.")
+  private long line;
+  @Schema(description = "The username of the record, if available.")
+  private String username;
+  @Schema(description = "The import status of the record.")
+  private Status status;
+  @Schema(description = "The reason why the record could not be imported.")
+  private String message;
+
+  public UserImportResult(){
+  }
+
+  public UserImportResult(long line, String username, Status status, String message){
+    this.line = line;
+    this.username = username;
+    this.status = status;
+    this.message = message;
+  }
+}
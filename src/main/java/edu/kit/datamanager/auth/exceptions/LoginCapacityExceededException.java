@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception thrown if a password verification cannot be performed because the
+ * hashing pool is saturated. This exception is intentionally no
+ * AuthenticationException as it must not be handled as failed login but should
+ * result in HTTP SERVICE_UNAVAILABLE (503) with a Retry-After header.
+ *
+ * @author jejkal
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class LoginCapacityExceededException extends RuntimeException{
+
+  private final int retryAfter;
+
+  public LoginCapacityExceededException(String message, int retryAfter){
+    super(message);
+    this.retryAfter = retryAfter;
+  }
+
+  /**
+   * Get the number of seconds a client should wait before retrying.
+   *
+   * @return The number of seconds.
+   */
+  public int getRetryAfter(){
+    return retryAfter;
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Service for exporting all users, groups and group memberships, e.g. for
+ * backup purposes or for seeding another system.
+ *
+ * @author jejkal
+ */
+public interface IDirectoryExportService{
+
+  /**
+   * Write all users, groups and group memberships as NDJSON to the provided
+   * stream. Each line contains one JSON object with an attribute 'type', which
+   * is either 'user', 'group' or 'membership'. All users are written first,
+   * followed by all groups and all memberships. Passwords are not exported.
+   *
+   * @param out The stream to write to.
+   *
+   * @throws IOException if writing to the stream fails.
+   */
+  void export(OutputStream out) throws IOException;
+}
@@ -15,11 +15,14 @@
  */
 package edu.kit.datamanager.auth.service;
 
+import edu.kit.datamanager.auth.domain.GroupMembership;
 import edu.kit.datamanager.auth.domain.RepoUserGroup;
 import edu.kit.datamanager.service.IGenericService;
+import java.time.Instant;
 import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
 /**
  *
@@ -48,7 +51,101 @@ public interface IGroupService extends IGenericService<RepoUserGroup>, HealthInd
   RepoUserGroup create(final RepoUserGroup entity, String caller);
 
   Page<RepoUserGroup> findAll(RepoUserGroup example, Pageable pgbl, boolean callerIsAdmin);
-          
+
+  /**
+   * Find groups matching the provided example and modified within the
+   * provided time range. If the caller is no administrator, only active groups
+   * the caller is member of are returned.
+   *
+   * @param example The example or null to find all groups.
+   * @param lastUpdateFrom The min. modification date or null.
+   * @param lastUpdateUntil The max. modification date or null.
+   * @param pgbl The page request.
+   * @param callerIsAdmin TRUE if the caller has ROLE_ADMINISTRATOR.
+   *
+   * @return A page of groups.
+   */
+  Page<RepoUserGroup> findAll(RepoUserGroup example, Instant lastUpdateFrom, Instant lastUpdateUntil, Pageable pgbl, boolean callerIsAdmin);
+
+  /**
+   * Find groups matching the provided example using keyset pagination. In
+   * contrast to offset-based pagination, no count query is performed. If the
+   * caller is no administrator, only active groups the caller is member of are
+   * returned.
+   *
+   * @param example The example or null to find all groups.
+   * @param lastUpdateFrom The min. modification date or null.
+   * @param lastUpdateUntil The max. modification date or null.
+   * @param afterId Only groups with an id greater than afterId are returned. If
+   * null, the first chunk is returned.
+   * @param size The max. number of returned groups.
+   * @param callerIsAdmin TRUE if the caller has ROLE_ADMINISTRATOR.
+   *
+   * @return A slice of groups ordered by id.
+   */
+  Slice<RepoUserGroup> findAllAfter(RepoUserGroup example, Instant lastUpdateFrom, Instant lastUpdateUntil, Long afterId, int size, boolean callerIsAdmin);
+
+  /**
+   * Find the memberships of a group without loading all memberships at once.
+   * Memberships are ordered by id, sort information of the provided Pageable
+   * is ignored.
+   *
+   * @param groupId The numeric id of the group.
+   * @param role The role of the returned memberships or null to return
+   * memberships with any role.
+   * @param pgbl The page request.
+   *
+   * @return A page of memberships including the according users.
+   */
+  Page<GroupMembership> findMemberships(Long groupId, RepoUserGroup.GroupRole role, Pageable pgbl);
+
+  /**
+   * Get the role of a user in a group.
+   *
+   * @param groupId The numeric id of the group.
+   * @param username The username.
+   *
+   * @return The role of the user or NO_MEMBER if the user has no membership.
+   */
+  RepoUserGroup.GroupRole getMembershipRole(Long groupId, String username);
+
+  /**
+   * Add a user to a group or update the role of an existing membership. The
+   * version and modification date of the group are updated accordingly.
+   *
+   * @param group The group.
+   * @param userId The numeric id of the user.
+   * @param role The role of the user in the group.
+   *
+   * @return The new or updated membership.
+   *
+   * @throws BadArgumentException if the user does not exist or if the role is
+   * missing or NO_MEMBER.
+   */
+  GroupMembership addOrUpdateMembership(RepoUserGroup group, Long userId, RepoUserGroup.GroupRole role);
+
+  /**
+   * Remove the membership of a user from a group. If the user is no member,
+   * nothing happens. Otherwise, the version and modification date of the group
+   * are updated accordingly.
+   *
+   * @param group The group.
+   * @param userId The numeric id of the user.
+   */
+  void removeMembership(RepoUserGroup group, Long userId);
+
+  /**
+   * Check whether a user is member of an active group with a role other than
+   * NO_MEMBER. In contrast to loading the group, the check is performed by a
+   * single query.
+   *
+   * @param groupId The group id, which is converted to uppercase.
+   * @param username The username.
+   *
+   * @return TRUE if the group exists, is active and the user is member of it.
+   */
+  boolean isActiveMember(String groupId, String username);
+
   RepoUserGroup update(final RepoUserGroup entity);
 
 }
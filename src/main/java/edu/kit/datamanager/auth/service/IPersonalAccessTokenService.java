@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service;
+
+import edu.kit.datamanager.auth.domain.PersonalAccessToken;
+import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.exceptions.BadArgumentException;
+import edu.kit.datamanager.exceptions.ResourceNotFoundException;
+import java.util.Collection;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * Service for creating, verifying and deleting personal access tokens.
+ *
+ * @author jejkal
+ */
+public interface IPersonalAccessTokenService{
+
+  /**
+   * Create a new personal access token for the provided user based on the
+   * provided template. The scopes of the token must not exceed the provided
+   * roles of the caller. If a group is provided, the user must be an active
+   * member of this group.
+   *
+   * @param template The template containing name, scopes, group and expiration
+   * date.
+   * @param username The user the token is issued to.
+   * @param callerRoles The roles of the caller.
+   *
+   * @return The new token with the secret token value available via getToken().
+   *
+   * @throws BadArgumentException if the template is invalid.
+   */
+  PersonalAccessToken create(PersonalAccessToken template, String username, Collection<RepoUserRole> callerRoles) throws BadArgumentException;
+
+  /**
+   * Verify the provided token value.
+   *
+   * @param token The token value.
+   *
+   * @return The personal access token or null if the token is unknown,
+   * invalid or expired.
+   */
+  PersonalAccessToken verify(String token);
+
+  /**
+   * Get all tokens of the provided user.
+   *
+   * @param username The username.
+   * @param pgbl The page request.
+   *
+   * @return A page of tokens.
+   */
+  Page<PersonalAccessToken> findByUser(String username, Pageable pgbl);
+
+  /**
+   * Get a token by its id.
+   *
+   * @param id The token id.
+   *
+   * @return The token.
+   *
+   * @throws ResourceNotFoundException if no token exists for the provided id.
+   */
+  PersonalAccessToken findById(Long id) throws ResourceNotFoundException;
+
+  /**
+   * Delete the provided token, which revokes it immediately.
+   *
+   * @param token The token to delete.
+   */
+  void delete(PersonalAccessToken token);
+
+  /**
+   * Delete all tokens of the provided user, e.g. if all tokens of the user are
+   * revoked.
+   *
+   * @param username The username.
+   *
+   * @return The number of deleted tokens.
+   */
+  int deleteAll(String username);
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service;
+
+import edu.kit.datamanager.auth.domain.RefreshToken;
+import edu.kit.datamanager.exceptions.UnauthorizedAccessException;
+
+/**
+ * Service for issuing, rotating and revoking refresh tokens. Refresh tokens are
+ * opaque random values which can be exchanged for a new access token without
+ * providing the password again. Each token can be used only once. Presenting a
+ * used token again is treated as token theft and revokes the whole token
+ * family.
+ *
+ * @author jejkal
+ */
+public interface IRefreshTokenService{
+
+  /**
+   * Issue a new refresh token starting a new token family.
+   *
+   * @param username The user the token is issued to.
+   * @param groupId The group the access tokens obtained using the refresh token
+   * are associated with.
+   *
+   * @return The refresh token with the opaque token available via getToken().
+   */
+  RefreshToken issue(String username, String groupId);
+
+  /**
+   * Exchange the provided refresh token for a new one of the same family. The
+   * provided token becomes invalid. Before issuing the new token, it is checked
+   * that the user is still enabled and, if the token is associated with a
+   * group, that the user is still an active member of this group.
+   *
+   * @param token The opaque refresh token.
+   *
+   * @return The new refresh token with the opaque token available via
+   * getToken().
+   *
+   * @throws UnauthorizedAccessException if the token is unknown, expired or
+   * has been used before, or if the user or the group membership is no longer
+   * active.
+   */
+  RefreshToken rotate(String token) throws UnauthorizedAccessException;
+
+  /**
+   * Revoke the provided refresh token and all tokens of its family. Unknown
+   * tokens are ignored.
+   *
+   * @param token The opaque refresh token.
+   */
+  void revoke(String token);
+
+  /**
+   * Revoke all refresh tokens of the provided user.
+   *
+   * @param username The username.
+   *
+   * @return The number of revoked tokens.
+   */
+  int revokeAll(String username);
+}
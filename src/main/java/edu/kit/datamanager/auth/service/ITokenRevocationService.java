@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service;
+
+import edu.kit.datamanager.auth.domain.PersonalAccessToken;
+import edu.kit.datamanager.exceptions.BadArgumentException;
+
+/**
+ * Service for revoking tokens before they expire. Revocations are persisted
+ * and added to the in-memory TokenRevocationList checked during token
+ * authentication.
+ *
+ * @author jejkal
+ */
+public interface ITokenRevocationService{
+
+  /**
+   * Revoke the provided token.
+   *
+   * @param token The compact serialization of the token.
+   *
+   * @throws BadArgumentException if the token has no token id or expiration
+   * date.
+   */
+  void revokeToken(String token) throws BadArgumentException;
+
+  /**
+   * Revoke all tokens minted for the provided personal access token, e.g.
+   * after the personal access token has been deleted.
+   *
+   * @param token The personal access token.
+   */
+  void revokePersonalAccessToken(PersonalAccessToken token);
+
+  /**
+   * Revoke all tokens of the provided user issued until now. Refresh tokens
+   * and personal access tokens of the user are deleted.
+   *
+   * @param username The username.
+   */
+  void revokeUser(String username);
+
+  /**
+   * Add all revocations persisted since the last synchronization, e.g. by
+   * other service instances, to the revocation list and remove expired
+   * revocations.
+   */
+  void synchronize();
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service;
+
+import edu.kit.datamanager.auth.domain.UserImportResult;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * Service for importing large numbers of users at once.
+ *
+ * @author jejkal
+ */
+public interface IUserImportService{
+
+  /**
+   * Supported import formats.
+   */
+  enum Format{
+    /**
+     * One JSON representation of a user per line.
+     */
+    NDJSON,
+    /**
+     * Comma-separated values with a header line naming the columns, e.g.
+     * username,password,firstname,lastname,email,orcid,roles,passwordAlgorithm. Multiple roles are
+     * separated by ';'.
+     */
+    CSV;
+  }
+
+  /**
+   * Import users from the provided stream. The stream is processed in chunks,
+   * such that the entire import never has to be held in memory. For each
+   * record, one result is passed to the provided consumer in the order of the
+   * records. Records failing validation, e.g. due to a missing password or an
+   * existing username, are reported and skipped without affecting other
+   * records. As the import is meant for administrators, privileged roles are
+   * accepted.
+   *
+   * @param in The stream to read from.
+   * @param format The format of the stream.
+   * @param resultConsumer The consumer of the import results.
+   *
+   * @throws IOException if reading from the stream fails.
+   */
+  void importUsers(InputStream in, Format format, Consumer<UserImportResult> resultConsumer) throws IOException;
+}
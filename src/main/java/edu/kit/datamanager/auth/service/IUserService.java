@@ -18,7 +18,10 @@ package edu.kit.datamanager.auth.service;
 import edu.kit.datamanager.auth.domain.RepoUser;
 import edu.kit.datamanager.exceptions.BadArgumentException;
 import edu.kit.datamanager.service.IGenericService;
+import java.time.Instant;
+import java.util.Date;
 import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.data.domain.Slice;
 import org.springframework.security.core.userdetails.UserDetailsService;
 
 /**
@@ -59,4 +62,58 @@ public interface IUserService extends IGenericService<RepoUser>, HealthIndicator
    */
   void update(RepoUser user);
 
+  /**
+   * Atomically register a failed login attempt for the provided user. The
+   * implementation must increment the failure counter and lock the user as
+   * soon as maxFailures is reached without relying on the state of previously
+   * loaded user instances, as multiple attempts, potentially on multiple
+   * service instances, may be processed concurrently.
+   *
+   * @param username The username of the user.
+   * @param maxFailures The number of failures after which the user is locked.
+   * @param lockedUntil The date until which the user will be locked.
+   *
+   * @return The number of failed logins resulting from this attempt, which
+   * equals maxFailures if the user has been locked, or 0 if the user has not
+   * been updated, e.g. as it is already locked.
+   */
+  int registerLoginFailure(String username, int maxFailures, Date lockedUntil);
+
+  /**
+   * Reset the failed login counter of the provided user, e.g. after a
+   * successful login.
+   *
+   * @param username The username of the user.
+   */
+  void resetLoginFailures(String username);
+
+  /**
+   * Replace the encoded password of the provided user, e.g. after re-encoding
+   * it with a stronger configuration. The password is only replaced if the
+   * currently stored password equals currentPassword, such that concurrent
+   * password changes are not overwritten.
+   *
+   * @param username The username of the user.
+   * @param currentPassword The currently stored, encoded password.
+   * @param newPassword The new, encoded password.
+   *
+   * @return TRUE if the password has been replaced, FALSE otherwise.
+   */
+  boolean upgradePassword(String username, String currentPassword, String newPassword);
+
+
+  /**
+   * Find users matching the provided example using keyset pagination. In
+   * contrast to offset-based pagination, no count query is performed.
+   *
+   * @param example The example or null to find all users.
+   * @param lastUpdateFrom The min. modification date or null.
+   * @param lastUpdateUntil The max. modification date or null.
+   * @param afterId Only users with an id greater than afterId are returned. If
+   * null, the first chunk is returned.
+   * @param size The max. number of returned users.
+   *
+   * @return A slice of users ordered by id.
+   */
+  Slice<RepoUser> findAllAfter(RepoUser example, Instant lastUpdateFrom, Instant lastUpdateUntil, Long afterId, int size);
 }
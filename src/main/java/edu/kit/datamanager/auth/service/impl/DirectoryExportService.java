@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service.impl;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.domain.RepoUserGroup;
+import edu.kit.datamanager.auth.service.IDirectoryExportService;
+import edu.kit.datamanager.entities.RepoUserRole;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Export of users, groups and group memberships as NDJSON. All entities are
+ * read using forward-only scrolls with a fixed fetch size
+ * ('repo.auth.export.fetchSize') and are written directly to the output stream
+ * using a single JSON generator. The persistence context is cleared after each
+ * fetched block, so that memory consumption does not depend on the number of
+ * exported entities. Memberships are read as projections without loading
+ * membership or user entities.
+ *
+ * @author jejkal
+ */
+@Service
+public class DirectoryExportService implements IDirectoryExportService{
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ObjectMapper mapper;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+
+  @PersistenceContext
+  private EntityManager em;
+
+  @Override
+  @Transactional(readOnly = true)
+  public void export(OutputStream out) throws IOException{
+    logger.trace("Performing export(<stream>).");
+    int fetchSize = Math.max(1, applicationProperties.getExportFetchSize());
+    Session session = em.unwrap(Session.class);
+    //the generator must not close the response stream, which is done by the container
+    JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    generator.setRootValueSeparator(null);
+
+    long users = 0;
+    try(ScrollableResults results = scroll(session, "SELECT u FROM RepoUser u ORDER BY u.id", fetchSize)){
+      while(results.next()){
+        writeUser(generator, (RepoUser) results.get(0));
+        if(++users % fetchSize == 0){
+          session.clear();
+        }
+      }
+    }
+    session.clear();
+
+    long groups = 0;
+    try(ScrollableResults results = scroll(session, "SELECT g FROM RepoUserGroup g ORDER BY g.id", fetchSize)){
+      while(results.next()){
+        writeGroup(generator, (RepoUserGroup) results.get(0));
+        if(++groups % fetchSize == 0){
+          session.clear();
+        }
+      }
+    }
+    session.clear();
+
+    long memberships = 0;
+    try(ScrollableResults results = scroll(session, "SELECT g.groupId, u.username, m.role FROM RepoUserGroup g JOIN g.memberships m JOIN m.user u ORDER BY g.id, m.id", fetchSize)){
+      while(results.next()){
+        writeMembership(generator, (String) results.get(0), (String) results.get(1), (RepoUserGroup.GroupRole) results.get(2));
+        memberships++;
+      }
+    }
+    generator.flush();
+    logger.info("Exported {} user(s), {} group(s) and {} membership(s).", users, groups, memberships);
+  }
+
+  private ScrollableResults scroll(Session session, String query, int fetchSize){
+    return session.createQuery(query).
+            setFetchSize(fetchSize).
+            setReadOnly(true).
+            setCacheMode(CacheMode.IGNORE).
+            scroll(ScrollMode.FORWARD_ONLY);
+  }
+
+  private void writeUser(JsonGenerator generator, RepoUser user) throws IOException{
+    generator.writeStartObject();
+    generator.writeStringField("type", "user");
+    generator.writeNumberField("id", user.getId());
+    generator.writeStringField("username", user.getUsername());
+    writeOptionalField(generator, "firstname", user.getFirstname());
+    writeOptionalField(generator, "lastname", user.getLastname());
+    writeOptionalField(generator, "email", user.getEmail());
+    writeOptionalField(generator, "orcid", user.getOrcid());
+    writeOptionalField(generator, "activeGroup", user.getActiveGroup());
+    writeOptionalField(generator, "passwordAlgorithm", user.getPasswordAlgorithm());
+    writeOptionalField(generator, "active", user.getActive());
+    writeOptionalField(generator, "locked", user.getLocked());
+    generator.writeArrayFieldStart("roles");
+    for(RepoUserRole role : user.getRolesAsEnum()){
+      generator.writeString(role.getValue());
+    }
+    generator.writeEndArray();
+    writeOptionalField(generator, "lastUpdate", user.getLastUpdate());
+    generator.writeEndObject();
+    generator.writeRaw('\n');
+  }
+
+  private void writeGroup(JsonGenerator generator, RepoUserGroup group) throws IOException{
+    generator.writeStartObject();
+    generator.writeStringField("type", "group");
+    generator.writeNumberField("id", group.getId());
+    generator.writeStringField("groupId", group.getGroupId());
+    writeOptionalField(generator, "groupname", group.getGroupname());
+    writeOptionalField(generator, "active", group.getActive());
+    writeOptionalField(generator, "lastUpdate", group.getLastUpdate());
+    generator.writeEndObject();
+    generator.writeRaw('\n');
+  }
+
+  private void writeMembership(JsonGenerator generator, String groupId, String username, RepoUserGroup.GroupRole role) throws IOException{
+    generator.writeStartObject();
+    generator.writeStringField("type", "membership");
+    generator.writeStringField("groupId", groupId);
+    generator.writeStringField("username", username);
+    writeOptionalField(generator, "role", (role != null) ? role.getValue() : null);
+    generator.writeEndObject();
+    generator.writeRaw('\n');
+  }
+
+  private void writeOptionalField(JsonGenerator generator, String name, Object value) throws IOException{
+    if(value == null){
+      return;
+    }
+    if(value instanceof Boolean){
+      generator.writeBooleanField(name, (Boolean) value);
+    } else if(value instanceof Date){
+      generator.writeStringField(name, ((Date) value).toInstant().toString());
+    } else{
+      generator.writeStringField(name, value.toString());
+    }
+  }
+}
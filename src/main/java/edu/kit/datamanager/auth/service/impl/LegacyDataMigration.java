@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service.impl;
+
+import edu.kit.datamanager.auth.dao.IGroupDao;
+import edu.kit.datamanager.auth.dao.IUserDao;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import java.util.Date;
+import java.util.List;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * One-time migration of users and groups stored by previous versions of the
+ * service. The migration runs as soon as the application context has been
+ * refreshed, i.e. before the web server accepts requests, and performs the
+ * following steps:
+ * <ul>
+ * <li>Initialize the version of users and groups without version. This has to
+ * happen first, as versioned entities without version cannot be updated.</li>
+ * <li>Initialize the modification date of users and groups without
+ * modification date with the current date, such that they are included in the
+ * next incremental synchronization.</li>
+ * <li>Set the role mask of users without role mask. While loading, RepoUser
+ * parses the legacy JSON roles and sets the role mask, which is then persisted
+ * in batches. Users not migrated yet, e.g. if they were added by an older
+ * service instance sharing the database, are still handled at load time.</li>
+ * </ul>
+ *
+ * @author jejkal
+ */
+@Component
+public class LegacyDataMigration{
+
+  private static final int BATCH_SIZE = 500;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private IUserDao userDao;
+  @Autowired
+  private IGroupDao groupDao;
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @EventListener(ContextRefreshedEvent.class)
+  public void migrate(){
+    TransactionTemplate template = new TransactionTemplate(transactionManager);
+    try{
+      int users = template.execute((status) -> userDao.initializeVersions());
+      int groups = template.execute((status) -> groupDao.initializeVersions());
+      if(users + groups > 0){
+        logger.info("Initialized version of {} user(s) and {} group(s).", users, groups);
+      }
+      Date now = new Date();
+      users = template.execute((status) -> userDao.initializeLastUpdate(now));
+      groups = template.execute((status) -> groupDao.initializeLastUpdate(now));
+      if(users + groups > 0){
+        logger.info("Initialized modification date of {} user(s) and {} group(s).", users, groups);
+      }
+    } catch(RuntimeException ex){
+      logger.error("Failed to initialize versions and modification dates of users and groups.", ex);
+      return;
+    }
+
+    int migrated = 0;
+    int batch;
+    do{
+      try{
+        batch = template.execute((status) -> {
+          List<RepoUser> users = userDao.findByRoleMaskIsNull(PageRequest.of(0, BATCH_SIZE)).getContent();
+          userDao.saveAll(users);
+          return users.size();
+        });
+      } catch(RuntimeException ex){
+        //users with unreadable roles are left as they are and fail at load time as before
+        logger.error("Failed to migrate user roles to role masks.", ex);
+        return;
+      }
+      migrated += batch;
+    } while(batch == BATCH_SIZE);
+
+    if(migrated > 0){
+      logger.info("Migrated roles of {} user(s) to role masks.", migrated);
+    }
+  }
+}
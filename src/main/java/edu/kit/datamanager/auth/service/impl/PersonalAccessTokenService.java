@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service.impl;
+
+import edu.kit.datamanager.auth.dao.IPersonalAccessTokenDao;
+import edu.kit.datamanager.auth.domain.PersonalAccessToken;
+import edu.kit.datamanager.auth.service.IGroupService;
+import edu.kit.datamanager.auth.service.IPersonalAccessTokenService;
+import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.exceptions.BadArgumentException;
+import edu.kit.datamanager.exceptions.ResourceNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Personal access token service. Token values have the format
+ * kitdm_&lt;prefix&gt;_&lt;secret&gt; with a 16 character hex prefix and a 256 bit
+ * random secret. As the secret has full entropy, its SHA-256 hash is stored
+ * instead of a salted and stretched hash, which allows to verify a token by a
+ * single indexed lookup and one hash operation.
+ *
+ * @author jejkal
+ */
+@Service
+@Transactional
+public class PersonalAccessTokenService implements IPersonalAccessTokenService{
+
+  private static final String TOKEN_PREFIX = "kitdm_";
+  private static final int PREFIX_BYTES = 8;
+  private static final int SECRET_BYTES = 32;
+  private static final String USERS_GROUP = "USERS";
+  private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+
+  private final SecureRandom random = new SecureRandom();
+
+  @Autowired
+  private IPersonalAccessTokenDao dao;
+  @Autowired
+  private IGroupService groupService;
+  @Autowired
+  private Logger logger;
+
+  @Override
+  public PersonalAccessToken create(PersonalAccessToken template, String username, Collection<RepoUserRole> callerRoles) throws BadArgumentException{
+    logger.trace("Performing create({}, {}, {}).", template, username, callerRoles);
+    if(template.getName() == null || template.getName().trim().isEmpty()){
+      logger.error("No token name provided. Throwing BadArgumentException.");
+      throw new BadArgumentException("Attribute 'name' is mandatory.");
+    }
+    Collection<RepoUserRole> scopes = (template.getScopes() == null || template.getScopes().isEmpty()) ? Collections.singletonList(RepoUserRole.USER) : EnumSet.copyOf(template.getScopes());
+    for(RepoUserRole scope : scopes){
+      if(!callerRoles.contains(scope)){
+        logger.error("Scope {} exceeds the roles of the caller. Throwing BadArgumentException.", scope);
+        throw new BadArgumentException("Scope " + scope + " exceeds the roles of the caller.");
+      }
+    }
+    String groupId = (template.getGroupId() != null) ? template.getGroupId().toUpperCase() : USERS_GROUP;
+    if(!USERS_GROUP.equals(groupId) && !groupService.isActiveMember(groupId, username)){
+      logger.error("User {} is no active member of group {}. Throwing BadArgumentException.", username, groupId);
+      throw new BadArgumentException("Caller is no member of group " + groupId + " or the group does not exist or is disabled.");
+    }
+    if(template.getExpiresAt() != null && template.getExpiresAt().before(new Date())){
+      logger.error("Expiration date {} is in the past. Throwing BadArgumentException.", template.getExpiresAt());
+      throw new BadArgumentException("Attribute 'expiresAt' must be in the future.");
+    }
+
+    byte[] prefixBytes = new byte[PREFIX_BYTES];
+    byte[] secretBytes = new byte[SECRET_BYTES];
+    random.nextBytes(prefixBytes);
+    random.nextBytes(secretBytes);
+    String prefix = toHex(prefixBytes);
+    String secret = BASE64URL.encodeToString(secretBytes);
+
+    PersonalAccessToken token = new PersonalAccessToken();
+    token.setName(template.getName().trim());
+    token.setPrefix(prefix);
+    token.setSecretHash(hash(secret));
+    token.setUsername(username);
+    token.setGroupId(groupId);
+    token.setScopes(new ArrayList<>(scopes));
+    token.setCreatedAt(new Date());
+    token.setExpiresAt(template.getExpiresAt());
+    token = dao.save(token);
+    token.setToken(TOKEN_PREFIX + prefix + "_" + secret);
+    logger.info("Created personal access token {} for user {}.", prefix, username);
+    return token;
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public PersonalAccessToken verify(String token){
+    logger.trace("Performing verify(<token>).");
+    int secretStart = TOKEN_PREFIX.length() + PREFIX_BYTES * 2 + 1;
+    if(token == null || token.length() <= secretStart || !token.startsWith(TOKEN_PREFIX) || token.charAt(secretStart - 1) != '_'){
+      return null;
+    }
+    Optional<PersonalAccessToken> result = dao.findByPrefix(token.substring(TOKEN_PREFIX.length(), secretStart - 1));
+    if(!result.isPresent()){
+      logger.debug("Unknown personal access token provided.");
+      return null;
+    }
+    PersonalAccessToken pat = result.get();
+    byte[] expected = pat.getSecretHash().getBytes(StandardCharsets.US_ASCII);
+    byte[] provided = hash(token.substring(secretStart)).getBytes(StandardCharsets.US_ASCII);
+    if(!MessageDigest.isEqual(expected, provided)){
+      logger.warn("Invalid secret provided for personal access token {}.", pat.getPrefix());
+      return null;
+    }
+    if(pat.isExpired()){
+      logger.debug("Personal access token {} has expired.", pat.getPrefix());
+      return null;
+    }
+    return pat;
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public Page<PersonalAccessToken> findByUser(String username, Pageable pgbl){
+    logger.trace("Performing findByUser({}, {}).", username, pgbl);
+    return dao.findByUsername(username, pgbl);
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public PersonalAccessToken findById(Long id) throws ResourceNotFoundException{
+    logger.trace("Performing findById({}).", id);
+    return dao.findById(id).orElseThrow(() -> {
+      logger.error("No personal access token found for id {}. Throwing ResourceNotFoundException.", id);
+      return new ResourceNotFoundException("No personal access token found for id " + id + ".");
+    });
+  }
+
+  @Override
+  public void delete(PersonalAccessToken token){
+    logger.trace("Performing delete({}).", token.getPrefix());
+    dao.delete(token);
+    logger.info("Deleted personal access token {} of user {}.", token.getPrefix(), token.getUsername());
+  }
+
+  @Override
+  public int deleteAll(String username){
+    logger.trace("Performing deleteAll({}).", username);
+    return dao.deleteByUsername(username);
+  }
+
+  private String toHex(byte[] bytes){
+    StringBuilder result = new StringBuilder(bytes.length * 2);
+    for(byte b : bytes){
+      result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return result.toString();
+  }
+
+  private String hash(String secret){
+    try{
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.US_ASCII));
+      return BASE64URL.encodeToString(digest);
+    } catch(NoSuchAlgorithmException ex){
+      throw new IllegalStateException("SHA-256 not supported.", ex);
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service.impl;
+
+import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import edu.kit.datamanager.auth.dao.IRefreshTokenDao;
+import edu.kit.datamanager.auth.domain.RefreshToken;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.service.IGroupService;
+import edu.kit.datamanager.auth.service.IRefreshTokenService;
+import edu.kit.datamanager.auth.service.IUserService;
+import edu.kit.datamanager.exceptions.UnauthorizedAccessException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Optional;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Refresh token service storing SHA-256 hashes of 256 bit random tokens. As the
+ * tokens have full entropy, hashes are neither salted nor stretched, which
+ * allows to look them up directly via a unique index. Expired tokens of a user
+ * are removed whenever a new token family is issued to this user.
+ *
+ * @author jejkal
+ */
+@Service
+@Transactional
+public class RefreshTokenService implements IRefreshTokenService{
+
+  private static final int TOKEN_BYTES = 32;
+  private static final String USERS_GROUP = "USERS";
+  private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+
+  private final SecureRandom random = new SecureRandom();
+
+  @Autowired
+  private IRefreshTokenDao dao;
+  @Autowired
+  private IUserService userService;
+  @Autowired
+  private IGroupService groupService;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private Logger logger;
+
+  @Override
+  public RefreshToken issue(String username, String groupId){
+    logger.trace("Performing issue({}, {}).", username, groupId);
+    dao.deleteExpired(username, new Date());
+    return create(username, groupId, UUID.randomUUID().toString());
+  }
+
+  @Override
+  @Transactional(noRollbackFor = UnauthorizedAccessException.class)
+  public RefreshToken rotate(String token) throws UnauthorizedAccessException{
+    logger.trace("Performing rotate(<token>).");
+    Optional<RefreshToken> result = (token != null) ? dao.findByTokenHash(hash(token)) : Optional.empty();
+    if(!result.isPresent()){
+      logger.debug("Unknown refresh token provided.");
+      throw new UnauthorizedAccessException("Invalid refresh token.");
+    }
+    RefreshToken current = result.get();
+    if(current.getExpiresAt().before(new Date())){
+      logger.debug("Refresh token of user {} has expired.", current.getUsername());
+      dao.delete(current);
+      throw new UnauthorizedAccessException("Invalid refresh token.");
+    }
+    if(dao.markUsed(current.getId()) == 0){
+      //used before, someone else might have obtained a copy of the token
+      logger.warn("Refresh token of user {} has been used more than once. Revoking token family {}.", current.getUsername(), current.getFamilyId());
+      dao.deleteByFamily(current.getFamilyId());
+      throw new UnauthorizedAccessException("Invalid refresh token.");
+    }
+    RepoUser user = userService.loadUserByUsername(current.getUsername());
+    boolean groupActive = USERS_GROUP.equals(current.getGroupId()) || groupService.isActiveMember(current.getGroupId(), current.getUsername());
+    if(user == null || !user.isEnabled() || !groupActive){
+      logger.debug("User {} or membership in group {} is no longer active. Revoking token family {}.", current.getUsername(), current.getGroupId(), current.getFamilyId());
+      dao.deleteByFamily(current.getFamilyId());
+      throw new UnauthorizedAccessException("Invalid refresh token.");
+    }
+    return create(current.getUsername(), current.getGroupId(), current.getFamilyId());
+  }
+
+  @Override
+  public void revoke(String token){
+    logger.trace("Performing revoke(<token>).");
+    if(token == null){
+      return;
+    }
+    dao.findByTokenHash(hash(token)).ifPresent((t) -> {
+      logger.debug("Revoking refresh token family {} of user {}.", t.getFamilyId(), t.getUsername());
+      dao.deleteByFamily(t.getFamilyId());
+    });
+  }
+
+  @Override
+  public int revokeAll(String username){
+    logger.trace("Performing revokeAll({}).", username);
+    return dao.deleteByUser(username);
+  }
+
+  private RefreshToken create(String username, String groupId, String familyId){
+    byte[] value = new byte[TOKEN_BYTES];
+    random.nextBytes(value);
+    String token = BASE64URL.encodeToString(value);
+
+    RefreshToken refreshToken = new RefreshToken();
+    refreshToken.setTokenHash(hash(token));
+    refreshToken.setFamilyId(familyId);
+    refreshToken.setUsername(username);
+    refreshToken.setGroupId((groupId != null) ? groupId : USERS_GROUP);
+    refreshToken.setExpiresAt(new Date(System.currentTimeMillis() + applicationProperties.getRefreshTokenLifetime() * 1000));
+    refreshToken = dao.save(refreshToken);
+    refreshToken.setToken(token);
+    return refreshToken;
+  }
+
+  private String hash(String token){
+    try{
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+      return BASE64URL.encodeToString(digest);
+    } catch(NoSuchAlgorithmException ex){
+      throw new IllegalStateException("SHA-256 not supported.", ex);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Bounded in-process cache for users loaded by username. The cache holds
+ * private snapshots of the user entities. Callers always receive a copy of the
+ * cached snapshot, so that modifications of returned users, e.g. erasing the
+ * password or replacing the roles of an inactive user, never affect cached
+ * entries.
+ *
+ * Entries expire after the configured time to live, which also bounds the
+ * staleness in case of modifications performed by other service instances
+ * sharing the same database. Local modifications invalidate the according entry
+ * immediately and once more after the modifying transaction has been committed.
+ * Hit, miss and eviction statistics are published as 'cache.*' metrics with tag
+ * cache=users.
+ *
+ * Optionally, usernames for which no user exists are cached separately, such
+ * that repeated login attempts for unknown usernames, e.g. during username
+ * spraying, do not reach the database. Statistics of this cache are published
+ * with tag cache=unknownUsers. Invalidating a username also removes it from
+ * this cache, e.g. as soon as a user with this name is created. As a lookup may
+ * race with the creation of a user, each invalidation increments a generation
+ * counter of the username's stripe, and unknown usernames are only cached if no
+ * invalidation happened while the lookup was running.
+ *
+ * @author jejkal
+ */
+@Component
+public class RepoUserCache{
+
+  private static final Object UNKNOWN = new Object();
+  private static final int GENERATION_STRIPES = 1024;
+
+  private final Cache<String, RepoUser> cache;
+  private final Cache<String, Object> unknownUsers;
+  private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+  @Autowired
+  public RepoUserCache(ApplicationProperties applicationProperties, MeterRegistry meterRegistry){
+    cache = Caffeine.newBuilder().
+            maximumSize(applicationProperties.getUserCacheSize()).
+            expireAfterWrite(Duration.ofSeconds(applicationProperties.getUserCacheTtl())).
+            recordStats().
+            build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "users");
+    if(applicationProperties.getUserCacheNegativeSize() > 0){
+      unknownUsers = Caffeine.newBuilder().
+              maximumSize(applicationProperties.getUserCacheNegativeSize()).
+              expireAfterWrite(Duration.ofSeconds(applicationProperties.getUserCacheNegativeTtl())).
+              recordStats().
+              build();
+      CaffeineCacheMetrics.monitor(meterRegistry, unknownUsers, "unknownUsers");
+    } else{
+      unknownUsers = null;
+    }
+  }
+
+  /**
+   * Get the user with the provided username. If the user is not cached, it is
+   * obtained from the provided loader and added to the cache. Null results are
+   * only cached if caching of unknown usernames is enabled.
+   *
+   * @param username The username.
+   * @param loader The function used to load users not found in the cache.
+   *
+   * @return A copy of the cached user or null if no user exists.
+   */
+  public RepoUser get(String username, Function<String, RepoUser> loader){
+    String key = toKey(username);
+    if(unknownUsers != null && unknownUsers.getIfPresent(key) != null){
+      return null;
+    }
+    int stripe = stripe(key);
+    long generation = generations.get(stripe);
+    RepoUser snapshot = cache.get(key, (k) -> {
+      RepoUser loaded = loader.apply(k);
+      return (loaded != null) ? loaded.copy() : null;
+    });
+    if(snapshot == null){
+      if(unknownUsers != null && generations.get(stripe) == generation){
+        unknownUsers.put(key, UNKNOWN);
+        //an invalidation between check and put is detected by checking again
+        if(generations.get(stripe) != generation){
+          unknownUsers.invalidate(key);
+        }
+      }
+      return null;
+    }
+    return snapshot.copy();
+  }
+
+  /**
+   * Invalidate the cache entry for the provided username. If a transaction is
+   * active, the entry is invalidated again after commit in order to remove
+   * entries re-loaded concurrently before the modification became visible.
+   *
+   * @param username The username.
+   */
+  public void invalidate(String username){
+    if(username == null){
+      return;
+    }
+    final String key = toKey(username);
+    invalidateKey(key);
+    if(TransactionSynchronizationManager.isSynchronizationActive()){
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter(){
+        @Override
+        public void afterCompletion(int status){
+          if(status == TransactionSynchronization.STATUS_COMMITTED){
+            invalidateKey(key);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Remove all cached users.
+   */
+  public void invalidateAll(){
+    for(int i = 0; i < GENERATION_STRIPES; i++){
+      generations.incrementAndGet(i);
+    }
+    cache.invalidateAll();
+    if(unknownUsers != null){
+      unknownUsers.invalidateAll();
+    }
+  }
+
+  private void invalidateKey(String key){
+    //the generation is incremented first, such that concurrent lookups do not cache the username as unknown
+    generations.incrementAndGet(stripe(key));
+    cache.invalidate(key);
+    if(unknownUsers != null){
+      unknownUsers.invalidate(key);
+    }
+  }
+
+  private int stripe(String key){
+    int hash = key.hashCode();
+    return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+  }
+
+  private String toKey(String username){
+    return username.toLowerCase();
+  }
+}
@@ -17,6 +17,10 @@ package edu.kit.datamanager.auth.service.impl;
 
 import com.github.fge.jsonpatch.JsonPatch;
 import edu.kit.datamanager.auth.dao.IGroupDao;
+import edu.kit.datamanager.auth.dao.IGroupMembershipDao;
+import edu.kit.datamanager.auth.dao.KeysetQuery;
+import edu.kit.datamanager.auth.dao.LastUpdateSpecification;
+import edu.kit.datamanager.auth.domain.GroupMembership;
 import edu.kit.datamanager.auth.domain.RepoUser;
 import edu.kit.datamanager.auth.domain.RepoUserGroup;
 import edu.kit.datamanager.auth.service.IGroupService;
@@ -33,14 +37,18 @@ import edu.kit.datamanager.util.ControllerUtils;
 import edu.kit.datamanager.util.PatchUtil;
 import java.time.Instant;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Optional;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.Join;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Service;
@@ -57,6 +65,8 @@ public class RepoUserGroupService implements IGroupService{
   @Autowired
   private IGroupDao dao;
   @Autowired
+  private IGroupMembershipDao membershipDao;
+  @Autowired
   private IUserService userService;
 
   @Autowired
@@ -77,10 +87,10 @@ public class RepoUserGroupService implements IGroupService{
 
   @Override
   public Page<RepoUserGroup> findAll(RepoUserGroup example, Instant lastUpdateFrom, Instant lastUpdateUntil, Pageable pgbl){
-    logger.trace("Performing findAll({}, {}).", example, pgbl);
-    if(example != null){
-      logger.trace("Example provided, using example spec and calling findAll(spec, pgbl)");
-      Specification<RepoUserGroup> spec = Specification.where(new ByExampleSpecification(em).byExample(example));
+    logger.trace("Performing findAll({}, {}, {}, {}).", example, lastUpdateFrom, lastUpdateUntil, pgbl);
+    Specification<RepoUserGroup> spec = createSpecification(example, lastUpdateFrom, lastUpdateUntil, true);
+    if(spec != null){
+      logger.trace("Example or time range provided, calling findAll(spec, pgbl)");
       return getDao().findAll(spec, pgbl);
     } else{
       logger.trace("No example provided, using no spec and calling findAll(pgbl).");
@@ -90,17 +100,52 @@ public class RepoUserGroupService implements IGroupService{
 
   @Override
   public Page<RepoUserGroup> findAll(RepoUserGroup example, Pageable pgbl, boolean callerIsAdmin){
+    return findAll(example, null, null, pgbl, callerIsAdmin);
+  }
+
+  @Override
+  public Page<RepoUserGroup> findAll(RepoUserGroup example, Instant lastUpdateFrom, Instant lastUpdateUntil, Pageable pgbl, boolean callerIsAdmin){
     Page<RepoUserGroup> page;
     if(callerIsAdmin){
       //do find all
-      page = findAll(example, pgbl);
-    } else{
+      page = findAll(example, lastUpdateFrom, lastUpdateUntil, pgbl);
+    } else if(example == null && lastUpdateFrom == null && lastUpdateUntil == null){
       //query based on membership
       page = findByMembershipsUserUsernameEqualsAndMembershipsRoleGreaterThanEqualAndActiveTrue((String) AuthenticationHelper.getAuthentication().getPrincipal(), RepoUserGroup.GroupRole.GROUP_MEMBER, pgbl);
+    } else{
+      //query based on membership, example and time range
+      page = getDao().findAll(createSpecification(example, lastUpdateFrom, lastUpdateUntil, false), pgbl);
     }
     return page;
   }
 
+  @Override
+  @Transactional(readOnly = true)
+  public Slice<RepoUserGroup> findAllAfter(RepoUserGroup example, Instant lastUpdateFrom, Instant lastUpdateUntil, Long afterId, int size, boolean callerIsAdmin){
+    logger.trace("Performing findAllAfter({}, {}, {}, {}, {}, {}).", example, lastUpdateFrom, lastUpdateUntil, afterId, size, callerIsAdmin);
+    return KeysetQuery.findAfter(em, RepoUserGroup.class, createSpecification(example, lastUpdateFrom, lastUpdateUntil, callerIsAdmin), afterId, size);
+  }
+
+  private Specification<RepoUserGroup> createSpecification(RepoUserGroup example, Instant lastUpdateFrom, Instant lastUpdateUntil, boolean callerIsAdmin){
+    Specification<RepoUserGroup> spec = LastUpdateSpecification.between(lastUpdateFrom, lastUpdateUntil);
+    if(example != null){
+      Specification<RepoUserGroup> byExample = new ByExampleSpecification(em).byExample(example);
+      spec = (spec != null) ? spec.and(byExample) : Specification.where(byExample);
+    }
+    if(!callerIsAdmin){
+      //same restriction as findByMembershipsUserUsernameEqualsAndMembershipsRoleGreaterThanEqualAndActiveTrue
+      final String principal = (String) AuthenticationHelper.getAuthentication().getPrincipal();
+      Specification<RepoUserGroup> membership = (root, query, builder) -> {
+        Join<RepoUserGroup, GroupMembership> memberships = root.join("memberships");
+        return builder.and(builder.equal(memberships.get("user").get("username"), principal),
+                builder.greaterThanOrEqualTo(memberships.<RepoUserGroup.GroupRole>get("role"), RepoUserGroup.GroupRole.GROUP_MEMBER),
+                builder.isTrue(root.get("active")));
+      };
+      spec = (spec != null) ? spec.and(membership) : Specification.where(membership);
+    }
+    return spec;
+  }
+
   @Override
   @Transactional(readOnly = true)
   public RepoUserGroup findById(String id){
@@ -146,7 +191,84 @@ public class RepoUserGroupService implements IGroupService{
     logger.trace("Calling group.addOrUpdateMembership({}, {}).", "RepoUser#" + theUser.getId(), RepoUserGroup.GroupRole.GROUP_MANAGER);
     group.addOrUpdateMembership(theUser, RepoUserGroup.GroupRole.GROUP_MANAGER);
     logger.trace("Persisting and returning group {}.", group);
-    return getDao().save(group);
+    RepoUserGroup result = getDao().save(group);
+    result.setMemberCount(group.getMemberships().stream().filter((membership) -> !RepoUserGroup.GroupRole.NO_MEMBER.equals(membership.getRole())).count());
+    return result;
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public Page<GroupMembership> findMemberships(Long groupId, RepoUserGroup.GroupRole role, Pageable pgbl){
+    logger.trace("Performing findMemberships({}, {}, {}).", groupId, role, pgbl);
+    //memberships are always ordered by id, thus, sort information is removed
+    Pageable unsorted = PageRequest.of(pgbl.getPageNumber(), pgbl.getPageSize());
+    if(role != null){
+      return membershipDao.findByGroupAndRole(groupId, role, unsorted);
+    }
+    return membershipDao.findByGroup(groupId, unsorted);
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public RepoUserGroup.GroupRole getMembershipRole(Long groupId, String username){
+    logger.trace("Performing getMembershipRole({}, {}).", groupId, username);
+    return membershipDao.findRole(groupId, username).orElse(RepoUserGroup.GroupRole.NO_MEMBER);
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public boolean isActiveMember(String groupId, String username){
+    logger.trace("Performing isActiveMember({}, {}).", groupId, username);
+    if(groupId == null || username == null){
+      return false;
+    }
+    return getDao().countActiveMemberships(groupId.toUpperCase(), username, RepoUserGroup.GroupRole.NO_MEMBER) > 0;
+  }
+
+  @Override
+  public GroupMembership addOrUpdateMembership(RepoUserGroup group, Long userId, RepoUserGroup.GroupRole role){
+    logger.trace("Performing addOrUpdateMembership({}, {}, {}).", "RepoUserGroup#" + group.getId(), userId, role);
+    if(role == null || RepoUserGroup.GroupRole.NO_MEMBER.equals(role)){
+      logger.error("Invalid membership role {}. Throwing BadArgumentException.", role);
+      throw new BadArgumentException("Membership role must be either GROUP_MEMBER or GROUP_MANAGER.");
+    }
+    if(userId == null){
+      logger.error("No user id provided. Throwing BadArgumentException.");
+      throw new BadArgumentException("No user id provided.");
+    }
+
+    GroupMembership membership;
+    Optional<GroupMembership> existing = membershipDao.findByGroupAndUser(group.getId(), userId);
+    if(existing.isPresent()){
+      logger.trace("Updating role of existing membership.");
+      membership = existing.get();
+      membership.setRole(role);
+      membership = membershipDao.save(membership);
+    } else{
+      RepoUser user = em.find(RepoUser.class, userId);
+      if(user == null){
+        logger.error("No user found for id {}. Throwing BadArgumentException.", userId);
+        throw new BadArgumentException("User with id " + userId + " was not found.");
+      }
+      logger.trace("Adding new membership.");
+      membership = membershipDao.save(new GroupMembership(user, role));
+      membershipDao.assignToGroup(group.getId(), membership.getId());
+    }
+    getDao().touch(group.getId(), new Date());
+    return membership;
+  }
+
+  @Override
+  public void removeMembership(RepoUserGroup group, Long userId){
+    logger.trace("Performing removeMembership({}, {}).", "RepoUserGroup#" + group.getId(), userId);
+    Optional<GroupMembership> existing = membershipDao.findByGroupAndUser(group.getId(), userId);
+    if(!existing.isPresent()){
+      logger.trace("User {} is no member of group {}. Nothing to remove.", userId, group.getId());
+      return;
+    }
+    membershipDao.removeFromGroup(existing.get().getId());
+    membershipDao.delete(existing.get());
+    getDao().touch(group.getId(), new Date());
   }
 
   @Override
@@ -186,6 +308,8 @@ public class RepoUserGroupService implements IGroupService{
     logger.trace("Performing patch({}, {}, {}).", "RepoUserGroup#" + entity.getId(), patch, userGrants);
     RepoUserGroup updated = PatchUtil.applyPatch(entity, patch, RepoUserGroup.class, userGrants);
     logger.trace("Patch successfully applied. Persisting patched resource.");
+    //memberships are not part of the JSON representation, thus, keep the existing ones instead of removing them as orphans
+    updated.setMemberships(entity.getMemberships());
     getDao().save(updated);
     logger.trace("Resource successfully persisted.");
   }
@@ -18,8 +18,11 @@ package edu.kit.datamanager.auth.service.impl;
 import com.github.fge.jsonpatch.JsonPatch;
 import edu.kit.datamanager.dao.ByExampleSpecification;
 import edu.kit.datamanager.auth.dao.IUserDao;
+import edu.kit.datamanager.auth.dao.KeysetQuery;
+import edu.kit.datamanager.auth.dao.LastUpdateSpecification;
 import edu.kit.datamanager.auth.domain.RepoUser;
 import edu.kit.datamanager.auth.service.IUserService;
+import edu.kit.datamanager.auth.web.security.PasswordEncodingPolicy;
 import edu.kit.datamanager.entities.RepoUserRole;
 import edu.kit.datamanager.exceptions.BadArgumentException;
 import edu.kit.datamanager.exceptions.FeatureNotImplementedException;
@@ -30,6 +33,7 @@ import edu.kit.datamanager.util.PatchUtil;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Optional;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -38,9 +42,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -57,7 +62,9 @@ public class RepoUserService implements IUserService{
   @Autowired
   private Logger logger;
   @Autowired
-  private BCryptPasswordEncoder passwordEncoder;
+  private PasswordEncodingPolicy passwordEncodingPolicy;
+  @Autowired
+  private RepoUserCache userCache;
 
   @PersistenceContext
   private EntityManager em;
@@ -86,6 +93,18 @@ public class RepoUserService implements IUserService{
       throw new BadArgumentException("No password assigned to provided user.");
     }
 
+    if(user.getPasswordAlgorithm() != null && !callerIsAdmin){
+      logger.error("Selecting the password algorithm is only permitted for users with ROLE_ADMINISTRATOR. Throwing BadArgumentException.");
+      throw new BadArgumentException("Selecting the password algorithm is not allowed.");
+    }
+    PasswordEncoder encoder;
+    try{
+      encoder = passwordEncodingPolicy.forUser(user);
+    } catch(IllegalArgumentException ex){
+      logger.error("Unsupported password algorithm {} provided. Throwing BadArgumentException.", user.getPasswordAlgorithm());
+      throw new BadArgumentException(ex.getMessage());
+    }
+
     //enforce lowercase username
     logger.trace("Enforcing lowercase username.");
     user.setUsername(user.getUsername());
@@ -116,30 +135,34 @@ public class RepoUserService implements IUserService{
 
     //encode password
     logger.trace("Encoding user-provided password before persisting user to database.");
-    user.setPassword(passwordEncoder.encode(user.getPassword()));
+    user.setPassword(encoder.encode(user.getPassword()));
     logger.trace("Activating user.");
     user.setActive(Boolean.TRUE);
     user.setLocked(Boolean.FALSE);
     logger.trace("Persisting user to database.");
-    return getDao().save(user);
+    RepoUser result = getDao().save(user);
+    userCache.invalidate(result.getUsername());
+    return result;
   }
 
   @Override
   @Transactional(readOnly = true)
   public RepoUser loadUserByUsername(String name){
     logger.trace("Performing loadUserByUsername({}).", name);
-    Optional<RepoUser> user = getDao().findByUsername(name);
-    if(user.isPresent()){
+    if(name == null){
+      return null;
+    }
+    //the result is a copy of the cached user and can be modified safely
+    RepoUser result = userCache.get(name, (username) -> getDao().findByUsername(username).orElse(null));
+    if(result != null){
       logger.trace("User is present. Performing check for status.");
-      RepoUser result = user.get();
       if(!result.isEnabled()){
         logger.trace("User is inactive. Replacing roles by {}.", RepoUserRole.INACTIVE);
         result.setRolesAsEnum(Arrays.asList(RepoUserRole.INACTIVE));
       }
-      return result;
     }
 
-    return null;
+    return result;
   }
 
   @Override
@@ -162,9 +185,9 @@ public class RepoUserService implements IUserService{
   @Transactional(readOnly = true)
   public Page<RepoUser> findAll(RepoUser example, Instant lastUpdateFrom, Instant lastUpdateUntil, Pageable pgbl){
     logger.trace("Performing findAll({}, {}, {}, {}).", example, lastUpdateFrom, lastUpdateUntil, pgbl);
-    if(example != null){
-      logger.trace("Example provided, using example spec and calling findAll(spec, pgbl)");
-      Specification<RepoUser> spec = Specification.where(new ByExampleSpecification(em).byExample(example));
+    Specification<RepoUser> spec = createSpecification(example, lastUpdateFrom, lastUpdateUntil);
+    if(spec != null){
+      logger.trace("Example or time range provided, calling findAll(spec, pgbl)");
       return getDao().findAll(spec, pgbl);
     } else{
       logger.trace("No example provided, using no spec and calling findAll(pgbl).");
@@ -172,19 +195,69 @@ public class RepoUserService implements IUserService{
     }
   }
 
+  @Override
+  @Transactional(readOnly = true)
+  public Slice<RepoUser> findAllAfter(RepoUser example, Instant lastUpdateFrom, Instant lastUpdateUntil, Long afterId, int size){
+    logger.trace("Performing findAllAfter({}, {}, {}, {}, {}).", example, lastUpdateFrom, lastUpdateUntil, afterId, size);
+    return KeysetQuery.findAfter(em, RepoUser.class, createSpecification(example, lastUpdateFrom, lastUpdateUntil), afterId, size);
+  }
+
+  private Specification<RepoUser> createSpecification(RepoUser example, Instant lastUpdateFrom, Instant lastUpdateUntil){
+    Specification<RepoUser> spec = LastUpdateSpecification.between(lastUpdateFrom, lastUpdateUntil);
+    if(example != null){
+      Specification<RepoUser> byExample = new ByExampleSpecification(em).byExample(example);
+      spec = (spec != null) ? spec.and(byExample) : Specification.where(byExample);
+    }
+    return spec;
+  }
+
   @Override
   public void update(RepoUser user){
     logger.trace("Performing update({}).", "RepoUser#" + user.getId());
     getDao().save(user);
+    userCache.invalidate(user.getUsername());
     logger.trace("Resource successfully persisted.");
   }
 
+  @Override
+  public int registerLoginFailure(String username, int maxFailures, Date lockedUntil){
+    logger.trace("Performing registerLoginFailure({}, {}, {}).", username, maxFailures, lockedUntil);
+    int updated = getDao().registerLoginFailure(username, maxFailures, lockedUntil, new Date());
+    //bulk updates are not covered by entity listeners
+    userCache.invalidate(username);
+    if(updated == 0){
+      return 0;
+    }
+    //the updated row stays locked until commit, so this is the result of the update above
+    Integer failures = getDao().findLoginFailuresByUsername(username);
+    return (failures != null) ? failures : 0;
+  }
+
+  @Override
+  public void resetLoginFailures(String username){
+    logger.trace("Performing resetLoginFailures({}).", username);
+    if(getDao().resetLoginFailures(username, new Date()) > 0){
+      userCache.invalidate(username);
+    }
+  }
+
+  @Override
+  public boolean upgradePassword(String username, String currentPassword, String newPassword){
+    logger.trace("Performing upgradePassword({}, <password>, <password>).", username);
+    if(getDao().updatePassword(username, currentPassword, newPassword, new Date()) == 0){
+      return false;
+    }
+    userCache.invalidate(username);
+    return true;
+  }
+
   @Override
   public void patch(RepoUser entity, JsonPatch patch, Collection<? extends GrantedAuthority> userGrants){
     logger.trace("Performing patch({}, {}, {}).", "RepoUser#" + entity.getId(), patch, userGrants);
     RepoUser updated = PatchUtil.applyPatch(entity, patch, RepoUser.class, userGrants);
     logger.trace("Patch successfully applied. Persisting patched resource.");
     getDao().save(updated);
+    userCache.invalidate(entity.getUsername());
     logger.trace("Resource successfully persisted.");
   }
 
@@ -202,6 +275,7 @@ public class RepoUserService implements IUserService{
       getDao().delete(user);
       logger.trace("Resource successfully removed.");
     }
+    userCache.invalidate(user.getUsername());
   }
 
   protected IUserDao getDao(){
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service.impl;
+
+import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import edu.kit.datamanager.auth.dao.ITokenRevocationDao;
+import edu.kit.datamanager.auth.domain.PersonalAccessToken;
+import edu.kit.datamanager.auth.domain.TokenRevocation;
+import edu.kit.datamanager.auth.service.IPersonalAccessTokenService;
+import edu.kit.datamanager.auth.service.IRefreshTokenService;
+import edu.kit.datamanager.auth.service.ITokenRevocationService;
+import edu.kit.datamanager.auth.web.security.TokenRevocationList;
+import edu.kit.datamanager.exceptions.BadArgumentException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Token revocation service. As soon as the application context has been
+ * refreshed, all revocations not expired yet are loaded into the revocation
+ * list. Afterwards, revocations added by other service instances sharing the
+ * same database are loaded periodically (repo.auth.revocation.syncInterval),
+ * which also removes expired revocations from memory and database. As
+ * revocations of other instances may become visible after revocations created
+ * later, e.g. due to slow commits, each synchronization re-reads revocations
+ * created within an overlap window before the previous synchronization.
+ *
+ * @author jejkal
+ */
+@Service
+public class TokenRevocationService implements ITokenRevocationService{
+
+  /**
+   * Allowed clock skew between the services issuing and checking tokens.
+   */
+  private static final long CLOCK_SKEW_MILLIS = 60000;
+  /**
+   * Time before the previous synchronization for which revocations are read
+   * again. Covers clock skew between instances and delayed commits.
+   */
+  private static final long SYNC_OVERLAP_MILLIS = 2 * CLOCK_SKEW_MILLIS;
+
+  @Autowired
+  private ITokenRevocationDao dao;
+  @Autowired
+  private TokenRevocationList revocationList;
+  @Autowired
+  private IRefreshTokenService refreshTokenService;
+  @Autowired
+  private IPersonalAccessTokenService personalAccessTokenService;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+  @Autowired
+  private Logger logger;
+
+  private Date lastSync = null;
+  private Set<Long> knownIds = new HashSet<>();
+  private boolean started = false;
+  private ScheduledExecutorService executor;
+
+  @Override
+  public void revokeToken(String token) throws BadArgumentException{
+    logger.trace("Performing revokeToken(<token>).");
+    TokenRevocationList.TokenInfo info = TokenRevocationList.TokenInfo.of(token);
+    if(info.getTokenId() == null || info.getExpiresAt() == null){
+      logger.error("Token has no token id or expiration date. Throwing BadArgumentException.");
+      throw new BadArgumentException("Only tokens with token id (jti) and expiration date (exp) can be revoked.");
+    }
+    if(info.getExpiresAt() + CLOCK_SKEW_MILLIS < System.currentTimeMillis()){
+      logger.debug("Token {} has already expired. Skipping revocation.", info.getTokenId());
+      return;
+    }
+    TokenRevocation revocation = new TokenRevocation();
+    revocation.setTokenId(info.getTokenId());
+    revocation.setUsername(info.getUsername());
+    revocation.setExpiresAt(new Date(info.getExpiresAt() + CLOCK_SKEW_MILLIS));
+    dao.save(revocation);
+    revocationList.revokeToken(revocation.getTokenId(), revocation.getExpiresAt().getTime());
+    logger.info("Revoked token {} of user {}.", info.getTokenId(), info.getUsername());
+  }
+
+  @Override
+  public void revokePersonalAccessToken(PersonalAccessToken token){
+    logger.trace("Performing revokePersonalAccessToken({}).", token.getPrefix());
+    //minted tokens expire after the token lifetime at the latest
+    TokenRevocation revocation = new TokenRevocation();
+    revocation.setTokenId(TokenRevocationList.getPersonalAccessTokenId(token.getPrefix()));
+    revocation.setUsername(token.getUsername());
+    revocation.setExpiresAt(new Date(System.currentTimeMillis() + applicationProperties.getTokenLifetime() * 1000 + CLOCK_SKEW_MILLIS));
+    dao.save(revocation);
+    revocationList.revokeToken(revocation.getTokenId(), revocation.getExpiresAt().getTime());
+    logger.info("Revoked all tokens minted for personal access token {} of user {}.", token.getPrefix(), token.getUsername());
+  }
+
+  @Override
+  public void revokeUser(String username){
+    logger.trace("Performing revokeUser({}).", username);
+    //issue dates are provided in seconds, tokens issued within the current second are revoked as well
+    long now = System.currentTimeMillis() / 1000 * 1000;
+    TokenRevocation revocation = new TokenRevocation();
+    revocation.setUsername(username);
+    revocation.setNotBefore(new Date(now));
+    revocation.setExpiresAt(new Date(now + applicationProperties.getTokenLifetime() * 1000 + CLOCK_SKEW_MILLIS));
+    dao.save(revocation);
+    revocationList.revokeUser(username, now, revocation.getExpiresAt().getTime());
+    //refresh tokens and personal access tokens would otherwise allow to obtain new tokens right away
+    int refreshTokens = refreshTokenService.revokeAll(username);
+    int personalAccessTokens = personalAccessTokenService.deleteAll(username);
+    logger.info("Revoked all tokens, {} refresh token(s) and {} personal access token(s) of user {}.", refreshTokens, personalAccessTokens, username);
+  }
+
+  @Override
+  public synchronized void synchronize(){
+    logger.trace("Performing synchronize().");
+    Date now = new Date();
+    List<TokenRevocation> revocations;
+    if(lastSync == null){
+      revocations = dao.findByExpiresAtAfter(now);
+    } else{
+      revocations = dao.findByCreatedAtAfterAndExpiresAtAfter(new Date(lastSync.getTime() - SYNC_OVERLAP_MILLIS), now);
+    }
+    //revocations of the overlap window have already been applied by the previous synchronization
+    Set<Long> loadedIds = new HashSet<>();
+    int added = 0;
+    for(TokenRevocation revocation : revocations){
+      loadedIds.add(revocation.getId());
+      if(knownIds.contains(revocation.getId())){
+        continue;
+      }
+      if(revocation.getTokenId() != null){
+        revocationList.revokeToken(revocation.getTokenId(), revocation.getExpiresAt().getTime());
+      } else if(revocation.getUsername() != null && revocation.getNotBefore() != null){
+        revocationList.revokeUser(revocation.getUsername(), revocation.getNotBefore().getTime(), revocation.getExpiresAt().getTime());
+      }
+      added++;
+    }
+    knownIds = loadedIds;
+    lastSync = now;
+    if(added > 0){
+      logger.debug("Loaded {} token revocation(s).", added);
+    }
+    int purged = revocationList.purgeExpired();
+    if(purged > 0){
+      int deleted = new TransactionTemplate(transactionManager).execute((status) -> dao.deleteExpired(now));
+      logger.debug("Removed {} expired revocation(s) from memory and {} from database.", purged, deleted);
+    }
+  }
+
+  @EventListener(ContextRefreshedEvent.class)
+  public synchronized void start(){
+    if(started){
+      return;
+    }
+    started = true;
+    try{
+      synchronize();
+    } catch(RuntimeException ex){
+      logger.error("Failed to load token revocations.", ex);
+    }
+    long interval = applicationProperties.getRevocationSyncInterval();
+    if(interval > 0){
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("token-revocation-sync-");
+      threadFactory.setDaemon(true);
+      executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+      executor.scheduleWithFixedDelay(() -> {
+        try{
+          synchronize();
+        } catch(RuntimeException ex){
+          logger.error("Failed to synchronize token revocations.", ex);
+        }
+      }, interval, interval, TimeUnit.SECONDS);
+    }
+  }
+
+  @PreDestroy
+  public synchronized void shutdown(){
+    if(executor != null){
+      executor.shutdownNow();
+    }
+  }
+}
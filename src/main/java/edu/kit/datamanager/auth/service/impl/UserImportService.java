@@ -0,0 +1,352 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import edu.kit.datamanager.auth.dao.IUserDao;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.domain.UserImportResult;
+import edu.kit.datamanager.auth.service.IUserImportService;
+import edu.kit.datamanager.auth.web.security.PasswordEncodingPolicy;
+import edu.kit.datamanager.entities.RepoUserRole;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Bulk import of users. Records are read line by line and processed in chunks
+ * of 'repo.auth.import.batchSize' records. For each chunk, existing usernames
+ * are determined by a single query, passwords are hashed in parallel by a
+ * dedicated, size-limited pool and all valid records are inserted by one JDBC
+ * batch within one transaction. As user ids are generated by identity columns,
+ * which prevents Hibernate from batching inserts, records are inserted via
+ * JDBC without obtaining generated keys. If a batch fails, e.g. because a
+ * username has been registered concurrently, the records of the chunk are
+ * inserted one by one in order to report the failing records.
+ *
+ * @author jejkal
+ */
+@Service
+public class UserImportService implements IUserImportService{
+
+  private static final String INSERT_USER = "INSERT INTO repo_user "
+          + "(username, version, last_update, firstname, lastname, email, orcid, password, password_algorithm, login_failures, active, locked, roles, role_bits) "
+          + "VALUES (?, 0, ?, ?, ?, ?, ?, ?, ?, 0, true, false, ?, ?)";
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private IUserDao userDao;
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+  @Autowired
+  private PasswordEncodingPolicy passwordEncodingPolicy;
+  @Autowired
+  private ObjectMapper mapper;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private RepoUserCache userCache;
+
+  private ThreadPoolExecutor hashingPool;
+  private int batchSize;
+
+  @PostConstruct
+  public void init(){
+    batchSize = Math.max(1, applicationProperties.getImportBatchSize());
+    int threads = applicationProperties.getImportHashingThreads();
+    int poolSize = (threads < 1) ? Runtime.getRuntime().availableProcessors() : threads;
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("user-import-");
+    threadFactory.setDaemon(true);
+    //chunks of concurrent imports exceeding the queue are hashed by the importing thread itself
+    hashingPool = new ThreadPoolExecutor(poolSize, poolSize, 0l, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(batchSize), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  @PreDestroy
+  public void shutdown(){
+    hashingPool.shutdownNow();
+  }
+
+  @Override
+  public void importUsers(InputStream in, Format format, Consumer<UserImportResult> resultConsumer) throws IOException{
+    logger.trace("Performing importUsers(<stream>, {}, <consumer>).", format);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    List<String> header = null;
+    List<ImportRecord> chunk = new ArrayList<>(batchSize);
+    long lineNumber = 0;
+    long records = 0;
+    long created = 0;
+    String line;
+    while((line = reader.readLine()) != null){
+      lineNumber++;
+      if(line.trim().isEmpty()){
+        continue;
+      }
+      if(Format.CSV.equals(format) && header == null){
+        header = parseCsvLine(line);
+        continue;
+      }
+      chunk.add(parseRecord(lineNumber, line, format, header));
+      records++;
+      if(chunk.size() == batchSize){
+        created += processChunk(chunk, resultConsumer);
+        chunk.clear();
+      }
+    }
+    if(!chunk.isEmpty()){
+      created += processChunk(chunk, resultConsumer);
+    }
+    logger.info("Imported {} user(s), {} record(s) failed.", created, records - created);
+  }
+
+  private ImportRecord parseRecord(long lineNumber, String line, Format format, List<String> header){
+    ImportRecord record = new ImportRecord(lineNumber);
+    try{
+      record.user = Format.CSV.equals(format) ? fromCsv(header, parseCsvLine(line)) : mapper.readValue(line, RepoUser.class);
+    } catch(IOException | IllegalArgumentException ex){
+      logger.debug("Failed to parse import record at line {}.", lineNumber, ex);
+      record.error = "Failed to parse record: " + ex.getMessage();
+      return record;
+    }
+    RepoUser user = record.user;
+    if(user.getUsername() == null || user.getUsername().trim().isEmpty()){
+      record.error = "No username assigned to provided user.";
+    } else if("SELF".equals(user.getUsername())){
+      record.error = "Username 'SELF' is not allowed.";
+    } else if(user.getPassword() == null || user.getPassword().isEmpty()){
+      record.error = "No password assigned to provided user.";
+    } else if(user.getPasswordAlgorithm() != null && !passwordEncodingPolicy.getAlgorithms().contains(user.getPasswordAlgorithm())){
+      record.error = "Unsupported password algorithm '" + user.getPasswordAlgorithm() + "'.";
+    } else if(user.getRolesAsEnum() == null || user.getRolesAsEnum().isEmpty()){
+      user.setRolesAsEnum(new ArrayList<>());
+      user.addRole(RepoUserRole.USER);
+    }
+    return record;
+  }
+
+  private int processChunk(List<ImportRecord> chunk, Consumer<UserImportResult> resultConsumer){
+    //reject duplicates within the chunk and existing users using a single query
+    Set<String> usernames = new HashSet<>();
+    for(ImportRecord record : chunk){
+      if(record.error == null && !usernames.add(record.user.getUsername())){
+        record.error = "Duplicate username within import.";
+      }
+    }
+    if(!usernames.isEmpty()){
+      Set<String> existing = new HashSet<>(userDao.findExistingUsernames(usernames));
+      for(ImportRecord record : chunk){
+        if(record.error == null && existing.contains(record.user.getUsername())){
+          record.error = "User already exists.";
+        }
+      }
+    }
+
+    //hash passwords in parallel, the password of each record is only replaced after all hashes are available
+    List<ImportRecord> valid = chunk.stream().filter((record) -> record.error == null).collect(Collectors.toList());
+    List<Future<String>> hashes = new ArrayList<>(valid.size());
+    for(ImportRecord record : valid){
+      String rawPassword = record.user.getPassword();
+      PasswordEncoder encoder = passwordEncodingPolicy.forUser(record.user);
+      hashes.add(hashingPool.submit(() -> encoder.encode(rawPassword)));
+    }
+    for(int i = 0; i < valid.size(); i++){
+      try{
+        valid.get(i).user.setPassword(hashes.get(i).get());
+      } catch(ExecutionException ex){
+        valid.get(i).error = "Failed to encode password.";
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+        hashes.forEach((hash) -> hash.cancel(true));
+        throw new IllegalStateException("User import has been interrupted.", ex);
+      }
+    }
+    valid.removeIf((record) -> record.error != null);
+
+    int created = insert(valid);
+    for(ImportRecord record : chunk){
+      String username = (record.user != null) ? record.user.getUsername() : null;
+      if(record.error == null){
+        //JDBC inserts bypass the entity listener, remove the username from the cache of unknown users
+        userCache.invalidate(username);
+        resultConsumer.accept(new UserImportResult(record.line, username, UserImportResult.Status.CREATED, null));
+      } else{
+        resultConsumer.accept(new UserImportResult(record.line, username, UserImportResult.Status.FAILED, record.error));
+      }
+    }
+    return created;
+  }
+
+  private int insert(List<ImportRecord> records){
+    if(records.isEmpty()){
+      return 0;
+    }
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    TransactionTemplate template = new TransactionTemplate(transactionManager);
+    try{
+      template.execute((status) -> jdbcTemplate.batchUpdate(INSERT_USER, records, records.size(), (ps, record) -> bind(ps, record.user, now)));
+      return records.size();
+    } catch(DataAccessException ex){
+      logger.warn("Failed to insert batch of {} user(s). Inserting users one by one.", records.size(), ex);
+    }
+    int created = 0;
+    for(ImportRecord record : records){
+      try{
+        template.execute((status) -> jdbcTemplate.update(INSERT_USER, (ps) -> bind(ps, record.user, now)));
+        created++;
+      } catch(DataAccessException ex){
+        logger.debug("Failed to insert user {}.", record.user.getUsername(), ex);
+        record.error = "Failed to store user.";
+      }
+    }
+    return created;
+  }
+
+  private void bind(PreparedStatement ps, RepoUser user, Timestamp now) throws SQLException{
+    user.convertEnumToRoles();
+    ps.setString(1, user.getUsername());
+    ps.setTimestamp(2, now);
+    ps.setString(3, user.getFirstname());
+    ps.setString(4, user.getLastname());
+    ps.setString(5, user.getEmail());
+    ps.setString(6, user.getOrcid());
+    ps.setString(7, user.getPassword());
+    ps.setString(8, user.getPasswordAlgorithm());
+    ps.setString(9, user.getRoles());
+    ps.setInt(10, user.getRoleMask());
+  }
+
+  private RepoUser fromCsv(List<String> header, List<String> values){
+    if(values.size() > header.size()){
+      throw new IllegalArgumentException("Record has more values than the header line.");
+    }
+    RepoUser user = new RepoUser();
+    for(int i = 0; i < values.size(); i++){
+      String value = values.get(i).isEmpty() ? null : values.get(i);
+      switch(header.get(i).trim().toLowerCase()){
+        case "username":
+          user.setUsername(value);
+          break;
+        case "password":
+          user.setPassword(value);
+          break;
+        case "firstname":
+          user.setFirstname(value);
+          break;
+        case "lastname":
+          user.setLastname(value);
+          break;
+        case "email":
+          user.setEmail(value);
+          break;
+        case "orcid":
+          user.setOrcid(value);
+          break;
+        case "passwordalgorithm":
+          user.setPasswordAlgorithm(value);
+          break;
+        case "roles":
+          if(value != null){
+            List<RepoUserRole> roles = new ArrayList<>();
+            for(String role : value.split(";")){
+              roles.add(RepoUserRole.fromValue(role.trim()));
+            }
+            user.setRolesAsEnum(roles);
+          }
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported column '" + header.get(i) + "'.");
+      }
+    }
+    return user;
+  }
+
+  /**
+   * Split a CSV line into its values. Values may be enclosed in double quotes,
+   * quotes within quoted values are escaped by doubling them. Line breaks
+   * within values are not supported.
+   */
+  static List<String> parseCsvLine(String line){
+    List<String> values = new ArrayList<>();
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    for(int i = 0; i < line.length(); i++){
+      char c = line.charAt(i);
+      if(quoted){
+        if(c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){
+          value.append('"');
+          i++;
+        } else if(c == '"'){
+          quoted = false;
+        } else{
+          value.append(c);
+        }
+      } else if(c == '"'){
+        quoted = true;
+      } else if(c == ','){
+        values.add(value.toString());
+        value.setLength(0);
+      } else{
+        value.append(c);
+      }
+    }
+    if(quoted){
+      throw new IllegalArgumentException("Unterminated quoted value.");
+    }
+    values.add(value.toString());
+    return values;
+  }
+
+  private static class ImportRecord{
+
+    private final long line;
+    private RepoUser user;
+    private String error;
+
+    ImportRecord(long line){
+      this.line = line;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web;
+
+import edu.kit.datamanager.auth.service.IDirectoryExportService;
+import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.exceptions.AccessForbiddenException;
+import edu.kit.datamanager.util.AuthenticationHelper;
+import edu.kit.datamanager.util.ControllerUtils;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.io.IOException;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Export of the entire user and group directory.
+ *
+ * @author jejkal
+ */
+@Schema(description = "Directory Export")
+@RestController
+public class DirectoryExportController{
+
+  @Autowired
+  private Logger LOGGER;
+  @Autowired
+  private IDirectoryExportService exportService;
+
+  @Operation(summary = "Export all users and groups.",
+          description = "Streams all users, groups and group memberships as NDJSON, one object per line with attribute 'type' being 'user', 'group' or 'membership'. "
+          + "Passwords are not exported. Exporting requires ROLE_ADMINISTRATOR.")
+  @GetMapping(value = "/api/v1/export", produces = "application/x-ndjson")
+  public void export(final HttpServletResponse response) throws IOException{
+    ControllerUtils.checkAnonymousAccess();
+
+    if(!AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue())){
+      LOGGER.warn("Caller is not allowed to export users and groups. ROLE_ADMINISTRATOR is required. Throwing AccessForbiddenException.");
+      throw new AccessForbiddenException("Insufficient role. ROLE_ADMINISTRATOR required.");
+    }
+
+    response.setStatus(HttpStatus.OK.value());
+    response.setContentType("application/x-ndjson");
+    exportService.export(response.getOutputStream());
+  }
+}
@@ -17,20 +17,26 @@ package edu.kit.datamanager.auth.web;
 
 import com.github.fge.jsonpatch.JsonPatch;
 import com.monitorjbl.json.JsonResult;
+import edu.kit.datamanager.auth.domain.GroupMembership;
+import edu.kit.datamanager.auth.domain.RepoUser;
 import edu.kit.datamanager.auth.domain.RepoUserGroup;
 import edu.kit.datamanager.auth.domain.RepoUserGroup.GroupRole;
 import edu.kit.datamanager.exceptions.AccessForbiddenException;
+import edu.kit.datamanager.exceptions.BadArgumentException;
 import edu.kit.datamanager.exceptions.UpdateForbiddenException;
 import edu.kit.datamanager.auth.service.IGroupService;
 import edu.kit.datamanager.auth.service.IUserService;
 import edu.kit.datamanager.controller.hateoas.event.PaginatedResultsRetrievedEvent;
 import javax.servlet.http.HttpServletResponse;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.context.request.WebRequest;
 import edu.kit.datamanager.controller.IGenericResourceController;
 import edu.kit.datamanager.entities.RepoUserRole;
@@ -38,6 +44,7 @@ import edu.kit.datamanager.exceptions.FeatureNotImplementedException;
 import edu.kit.datamanager.exceptions.ResourceNotFoundException;
 import edu.kit.datamanager.util.AuthenticationHelper;
 import edu.kit.datamanager.util.ControllerUtils;
+import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Schema;
 import java.time.Instant;
@@ -50,6 +57,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.hateoas.server.mvc.WebMvcLinkBuilder;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -92,7 +100,7 @@ public class GroupController implements IGenericResourceController<RepoUserGroup
 
     RepoUserGroup newGroup = userGroupService.create(group, (String) AuthenticationHelper.getPrincipal());
 
-    return ResponseEntity.created(WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getById(Long.toString(newGroup.getId()), null, request, response)).toUri()).eTag("\"" + newGroup.getEtag() + "\"").body(filterUserGroup(newGroup));
+    return ResponseEntity.created(WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getById(Long.toString(newGroup.getId()), null, request, response)).toUri()).eTag("\"" + newGroup.getEtag() + "\"").body(newGroup);
   }
 
   @Override
@@ -109,7 +117,7 @@ public class GroupController implements IGenericResourceController<RepoUserGroup
       throw new ResourceNotFoundException("Group with id " + id + " was not found or is disabled.");
     }
 
-    RepoUserGroup.GroupRole role = group.getUserRole((String) AuthenticationHelper.getAuthentication().getPrincipal());
+    RepoUserGroup.GroupRole role = userGroupService.getMembershipRole(group.getId(), (String) AuthenticationHelper.getAuthentication().getPrincipal());
     if(GroupRole.NO_MEMBER.equals(role)){
       //no member, check for admin access
       if(!AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue())){
@@ -118,7 +126,13 @@ public class GroupController implements IGenericResourceController<RepoUserGroup
       }
     }
 
-    return ResponseEntity.ok().eTag("\"" + group.getEtag() + "\"").body(filterUserGroup(group));
+    String etag = "\"" + group.getEtag() + "\"";
+    if(request.checkNotModified(etag)){
+      LOGGER.trace("Group with id {} not modified. Returning HTTP NOT_MODIFIED.", id);
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+    }
+
+    return ResponseEntity.ok().eTag(etag).body(group);
   }
 
   @Override
@@ -145,12 +159,51 @@ public class GroupController implements IGenericResourceController<RepoUserGroup
 
     PageRequest request = ControllerUtils.checkPaginationInformation(pgbl);
 
-    Page<RepoUserGroup> page = userGroupService.findAll(example, request, AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue()));
+    Page<RepoUserGroup> page = userGroupService.findAll(example, lastUpdateFrom, lastUpdateUntil, request, AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue()));
 
     eventPublisher.publishEvent(new PaginatedResultsRetrievedEvent<>(RepoUserGroup.class, uriBuilder, response, page.getNumber(), page.getTotalPages(), request.getPageSize()));
     //publish listing event??
 
-    return ResponseEntity.ok().body(filterUserGroups(page.getContent()));
+    return ResponseEntity.ok().body(page.getContent());
+  }
+
+  @Operation(summary = "List groups using keyset pagination.",
+          description = "Opt-in alternative to offset-based pagination for large group lists. The first chunk is obtained by providing an empty 'after' parameter. "
+          + "If there are more groups, the response contains a Link header with relation 'next', which has to be used to obtain the next chunk. "
+          + "The total number of groups is not determined and the 'page' and 'sort' parameters are ignored. Callers without ROLE_ADMINISTRATOR only receive active groups they are member of.")
+  @RequestMapping(value = {"", "/"}, method = {RequestMethod.GET}, params = "after")
+  @ResponseBody
+  public ResponseEntity<List<RepoUserGroup>> findAllAfter(
+          @RequestParam(name = "after") String after,
+          @RequestParam(name = "from", required = false) Instant lastUpdateFrom,
+          @RequestParam(name = "until", required = false) Instant lastUpdateUntil,
+          final Pageable pgbl,
+          final HttpServletResponse response){
+    return findByExampleAfter(null, after, lastUpdateFrom, lastUpdateUntil, pgbl, response);
+  }
+
+  @Operation(summary = "Find groups by example using keyset pagination.",
+          description = "Keyset pagination variant of finding groups by example. See listing groups using keyset pagination for details.")
+  @RequestMapping(value = {"search"}, method = {RequestMethod.POST}, params = "after")
+  @ResponseBody
+  public ResponseEntity<List<RepoUserGroup>> findByExampleAfter(
+          @RequestBody RepoUserGroup example,
+          @RequestParam(name = "after") String after,
+          @RequestParam(name = "from", required = false) Instant lastUpdateFrom,
+          @RequestParam(name = "until", required = false) Instant lastUpdateUntil,
+          final Pageable pgbl,
+          final HttpServletResponse response){
+    ControllerUtils.checkAnonymousAccess();
+
+    PageRequest request = ControllerUtils.checkPaginationInformation(pgbl);
+
+    Slice<RepoUserGroup> slice = userGroupService.findAllAfter(example, lastUpdateFrom, lastUpdateUntil, KeysetCursor.decode(after), request.getPageSize(), AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue()));
+    List<RepoUserGroup> groups = slice.getContent();
+    if(slice.hasNext()){
+      KeysetCursor.addNextLink(response, groups.get(groups.size() - 1).getId());
+    }
+
+    return ResponseEntity.ok().body(groups);
   }
 
   @Override
@@ -163,7 +216,7 @@ public class GroupController implements IGenericResourceController<RepoUserGroup
 
     RepoUserGroup group = userGroupService.findById(id);
 
-    RepoUserGroup.GroupRole role = group.getUserRole((String) AuthenticationHelper.getAuthentication().getPrincipal());
+    RepoUserGroup.GroupRole role = userGroupService.getMembershipRole(group.getId(), (String) AuthenticationHelper.getAuthentication().getPrincipal());
     boolean adminAccess = false;
     boolean managerAccess = GroupRole.GROUP_MANAGER.equals(role);
     if(!managerAccess || !group.getActive()){
@@ -205,7 +258,7 @@ public class GroupController implements IGenericResourceController<RepoUserGroup
 
     try{
       RepoUserGroup group = userGroupService.findById(id);
-      RepoUserGroup.GroupRole role = group.getUserRole((String) AuthenticationHelper.getAuthentication().getPrincipal());
+      RepoUserGroup.GroupRole role = userGroupService.getMembershipRole(group.getId(), (String) AuthenticationHelper.getAuthentication().getPrincipal());
       if(!GroupRole.GROUP_MANAGER.equals(role)){
         //check admin access
         if(!AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue())){
@@ -225,21 +278,104 @@ public class GroupController implements IGenericResourceController<RepoUserGroup
     return ResponseEntity.noContent().build();
   }
 
-  private RepoUserGroup filterUserGroup(RepoUserGroup group){
-    group.getMemberships().forEach((membership) -> {
-      membership.getUser().clean();
+  @Operation(summary = "List the members of a group.",
+          description = "Members are returned page-wise ordered by membership id. Optionally, the result can be restricted to members with a certain role, e.g. GROUP_MANAGER. "
+          + "Members are only accessible by members of the group and by callers with ROLE_ADMINISTRATOR.")
+  @RequestMapping(value = {"/{id}/members"}, method = {RequestMethod.GET})
+  @ResponseBody
+  public ResponseEntity<List<GroupMembership>> getMembers(
+          @PathVariable("id") final String id,
+          @RequestParam(name = "role", required = false) GroupRole role,
+          final Pageable pgbl,
+          final WebRequest request,
+          final HttpServletResponse response,
+          final UriComponentsBuilder uriBuilder){
+    ControllerUtils.checkAnonymousAccess();
+
+    RepoUserGroup group = userGroupService.findById(id);
+    boolean adminAccess = AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue());
+    if(!group.getActive() && !adminAccess){
+      LOGGER.warn("Access to members of inactive group with id {} requested by principal {} w/o ADMINISTRATOR privileges. Throwing ResourceNotFoundException.", id, AuthenticationHelper.getPrincipal());
+      throw new ResourceNotFoundException("Group with id " + id + " was not found or is disabled.");
+    }
+
+    GroupRole callerRole = userGroupService.getMembershipRole(group.getId(), (String) AuthenticationHelper.getAuthentication().getPrincipal());
+    if(GroupRole.NO_MEMBER.equals(callerRole) && !adminAccess){
+      LOGGER.warn("Access to members of group with id {} requested by principal {} w/o membership or ADMINISTRATOR privileges. Throwing AccessForbiddenException.", id, AuthenticationHelper.getPrincipal());
+      throw new AccessForbiddenException("Group access only allowed for group members.");
+    }
+
+    PageRequest pageRequest = ControllerUtils.checkPaginationInformation(pgbl);
+    Page<GroupMembership> page = userGroupService.findMemberships(group.getId(), role, pageRequest);
+
+    eventPublisher.publishEvent(new PaginatedResultsRetrievedEvent<>(GroupMembership.class, uriBuilder, response, page.getNumber(), page.getTotalPages(), pageRequest.getPageSize()));
+
+    List<GroupMembership> members = new ArrayList<>();
+    page.getContent().forEach((membership) -> {
+      members.add(filterMembership(membership));
     });
+    return ResponseEntity.ok().body(members);
+  }
+
+  @Operation(summary = "Add a member to a group or change the role of a member.",
+          description = "The membership is provided as body, e.g. {\"user\":{\"id\":1},\"role\":\"GROUP_MEMBER\"}. If the user is already member of the group, only the role is updated. "
+          + "Members can only be added by managers of an active group and by callers with ROLE_ADMINISTRATOR.")
+  @RequestMapping(value = {"/{id}/members"}, method = {RequestMethod.POST})
+  @ResponseBody
+  public ResponseEntity<GroupMembership> addMember(
+          @PathVariable("id") final String id,
+          @RequestBody GroupMembership membership,
+          final WebRequest request,
+          final HttpServletResponse response){
+    ControllerUtils.checkAnonymousAccess();
+
+    RepoUserGroup group = userGroupService.findById(id);
+    checkManagerAccess(group);
+
+    if(membership.getUser() == null){
+      LOGGER.error("No user provided for new membership. Throwing BadArgumentException.");
+      throw new BadArgumentException("No user provided for new membership.");
+    }
 
-    return group;
+    GroupMembership result = userGroupService.addOrUpdateMembership(group, membership.getUser().getId(), membership.getRole());
+    return ResponseEntity.ok().body(filterMembership(result));
   }
 
-  private List<RepoUserGroup> filterUserGroups(List<RepoUserGroup> groups){
-    groups.forEach((group) -> {
-      group.getMemberships().forEach((membership) -> {
-        membership.getUser().clean();
-      });
-    });
-    return groups;
+  @Operation(summary = "Remove a member from a group.",
+          description = "Members can only be removed by managers of an active group and by callers with ROLE_ADMINISTRATOR. Removing a user who is no member has no effect.")
+  @RequestMapping(value = {"/{id}/members/{userId}"}, method = {RequestMethod.DELETE})
+  @ResponseBody
+  public ResponseEntity removeMember(
+          @PathVariable("id") final String id,
+          @PathVariable("userId") final String userId,
+          final WebRequest request,
+          final HttpServletResponse response){
+    ControllerUtils.checkAnonymousAccess();
+
+    RepoUserGroup group = userGroupService.findById(id);
+    checkManagerAccess(group);
+
+    userGroupService.removeMembership(group, ControllerUtils.parseIdToLong(userId));
+    return ResponseEntity.noContent().build();
+  }
+
+  private void checkManagerAccess(RepoUserGroup group){
+    GroupRole role = userGroupService.getMembershipRole(group.getId(), (String) AuthenticationHelper.getAuthentication().getPrincipal());
+    if(!GroupRole.GROUP_MANAGER.equals(role) || !group.getActive()){
+      if(!AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue())){
+        LOGGER.warn("Caller with principal {} has neither ADMINISTRATOR nor GROUP_MANAGER permissions. Changing members not allowed. Throwing AccessForbiddenException.", AuthenticationHelper.getPrincipal());
+        throw new AccessForbiddenException("Insufficient role. ROLE_GROUP_MANAGER or ROLE_ADMINISTRATOR required to change group members.");
+      }
+    }
+  }
+
+  private GroupMembership filterMembership(GroupMembership membership){
+    //use a copy of the user in order to remove user details without modifying the managed entity
+    RepoUser user = membership.getUser().copy();
+    user.clean();
+    GroupMembership result = new GroupMembership(user, membership.getRole());
+    result.setId(membership.getId());
+    return result;
   }
 
   @Override
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web;
+
+import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import edu.kit.datamanager.auth.web.security.TokenIntrospector;
+import edu.kit.datamanager.exceptions.BadArgumentException;
+import edu.kit.datamanager.util.ControllerUtils;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Token introspection for clients which cannot verify tokens themselves.
+ * Callers have to be authenticated in order to prevent anonymous probing of
+ * tokens.
+ *
+ * @author jejkal
+ */
+@Schema(description = "Token Introspection")
+@RestController
+public class IntrospectionController{
+
+  @Autowired
+  private Logger LOGGER;
+  @Autowired
+  private TokenIntrospector introspector;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+
+  @Operation(summary = "Introspect a token.",
+          description = "Validates the provided token in the style of RFC 7662. For valid tokens, the response contains 'active': true and all claims of the token. "
+          + "For invalid, expired or revoked tokens, the response only contains 'active': false. "
+          + "As in RFC 7662, the token should be sent as form parameter (application/x-www-form-urlencoded) instead of a query parameter.")
+  @PostMapping(value = "/api/v1/introspect", produces = "application/json")
+  public Map<String, Object> introspect(
+          @Parameter(description = "The token to introspect.", required = true) @RequestParam(name = "token") String token){
+    ControllerUtils.checkAnonymousAccess();
+    return introspector.introspect(token);
+  }
+
+  @Operation(summary = "Introspect multiple tokens.",
+          description = "Validates all tokens provided as JSON array in the request body. The response contains one introspection result per token in the order of the request.")
+  @PostMapping(value = "/api/v1/introspect/batch", consumes = "application/json", produces = "application/json")
+  public List<Map<String, Object>> introspectBatch(
+          @Parameter(description = "The tokens to introspect.", required = true) @RequestBody List<String> tokens){
+    ControllerUtils.checkAnonymousAccess();
+    if(tokens.size() > applicationProperties.getIntrospectionMaxBatchSize()){
+      LOGGER.error("Batch of {} tokens exceeds max. batch size. Throwing BadArgumentException.", tokens.size());
+      throw new BadArgumentException("At most " + applicationProperties.getIntrospectionMaxBatchSize() + " tokens can be introspected at once.");
+    }
+    return introspector.introspect(tokens);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web;
+
+import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import edu.kit.datamanager.auth.web.security.JwtKeySet;
+import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.exceptions.AccessForbiddenException;
+import edu.kit.datamanager.exceptions.FeatureNotImplementedException;
+import edu.kit.datamanager.util.AuthenticationHelper;
+import edu.kit.datamanager.util.ControllerUtils;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+/**
+ * Publishes the public keys used to sign tokens as JSON Web Key Set, which
+ * allows other services to verify tokens locally without calling the
+ * Authentication Service. Furthermore, administrators can rotate the signing
+ * key without restarting the service.
+ *
+ * @author jejkal
+ */
+@Schema(description = "JSON Web Key Set")
+@RestController
+public class JwksController{
+
+  @Autowired
+  private Logger LOGGER;
+  @Autowired
+  private JwtKeySet keySet;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+
+  @Operation(summary = "Get the JSON Web Key Set.",
+          description = "Returns the public keys used to verify tokens issued by this service. The response may be cached according to its Cache-Control header and revalidated using its ETag. "
+          + "If tokens are signed using the shared secret, the key set is empty.")
+  @GetMapping(value = "/.well-known/jwks.json", produces = "application/json")
+  public ResponseEntity<Map<String, Object>> getKeySet(final WebRequest request){
+    String etag = "\"" + keySet.getEtag() + "\"";
+    CacheControl cacheControl = CacheControl.maxAge(applicationProperties.getJwksMaxAge(), TimeUnit.SECONDS).cachePublic();
+    if(request.checkNotModified(etag)){
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+    }
+    return ResponseEntity.ok().eTag(etag).cacheControl(cacheControl).body(keySet.toJwks());
+  }
+
+  @Operation(summary = "Rotate the token signing key.",
+          description = "The next key published in the JSON Web Key Set becomes the signing key and a new next key is generated. The former signing key remains valid for verification until all tokens signed with it have expired. "
+          + "Rotation is only supported for asymmetric signing keys and requires ROLE_ADMINISTRATOR. The response contains the new key set.")
+  @PostMapping(value = "/api/v1/keys/rotate", produces = "application/json")
+  public ResponseEntity<Map<String, Object>> rotate(){
+    ControllerUtils.checkAnonymousAccess();
+    if(!AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue())){
+      LOGGER.warn("Key rotation requested by principal {} w/o ADMINISTRATOR privileges. Throwing AccessForbiddenException.", AuthenticationHelper.getPrincipal());
+      throw new AccessForbiddenException("Key rotation is only allowed for administrators.");
+    }
+    if(keySet.isEmpty()){
+      throw new FeatureNotImplementedException("Key rotation is not supported for tokens signed using the shared secret.");
+    }
+    String keyId = keySet.rotate().getKeyId();
+    LOGGER.info("Token signing key rotated by principal {}. New key id is {}.", AuthenticationHelper.getPrincipal(), keyId);
+    return ResponseEntity.ok().eTag("\"" + keySet.getEtag() + "\"").body(keySet.toJwks());
+  }
+}
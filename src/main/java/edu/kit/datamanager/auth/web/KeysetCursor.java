@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web;
+
+import edu.kit.datamanager.exceptions.BadArgumentException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+/**
+ * Opaque cursor used for keyset pagination of listings, e.g. GET
+ * /api/v1/users?after=&lt;cursor&gt;. Clients must not interpret cursors, they
+ * only pass the cursor obtained from the 'next' link of the previous response.
+ *
+ * @author jejkal
+ */
+final class KeysetCursor{
+
+  private static final String PREFIX = "id:";
+
+  private KeysetCursor(){
+  }
+
+  /**
+   * Create a cursor pointing behind the entity with the provided id.
+   *
+   * @param id The id of the last returned entity.
+   *
+   * @return The cursor.
+   */
+  static String encode(Long id){
+    return Base64.getUrlEncoder().withoutPadding().encodeToString((PREFIX + id).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Obtain the id from the provided cursor. An empty cursor refers to the
+   * beginning of the listing.
+   *
+   * @param cursor The cursor.
+   *
+   * @return The id or null for an empty cursor.
+   *
+   * @throws BadArgumentException if the cursor is invalid.
+   */
+  static Long decode(String cursor){
+    if(cursor == null || cursor.isEmpty()){
+      return null;
+    }
+    try{
+      String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      if(!value.startsWith(PREFIX)){
+        throw new BadArgumentException("Invalid cursor " + cursor + ".");
+      }
+      return Long.parseLong(value.substring(PREFIX.length()));
+    } catch(IllegalArgumentException ex){
+      //also covers NumberFormatException
+      throw new BadArgumentException("Invalid cursor " + cursor + ".");
+    }
+  }
+
+  /**
+   * Add a Link header with relation 'next' pointing to the current request
+   * URI, where parameter 'after' is replaced by a cursor pointing behind the
+   * entity with the provided id.
+   *
+   * @param response The response.
+   * @param lastId The id of the last returned entity.
+   */
+  static void addNextLink(HttpServletResponse response, Long lastId){
+    String next = ServletUriComponentsBuilder.fromCurrentRequest().replaceQueryParam("after", encode(lastId)).toUriString();
+    response.addHeader(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+  }
+}
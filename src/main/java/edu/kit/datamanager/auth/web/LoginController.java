@@ -15,15 +15,30 @@
  */
 package edu.kit.datamanager.auth.web;
 
+import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import edu.kit.datamanager.auth.domain.RefreshToken;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.domain.TokenResponse;
+import edu.kit.datamanager.auth.service.IGroupService;
+import edu.kit.datamanager.auth.service.IRefreshTokenService;
+import edu.kit.datamanager.auth.service.IUserService;
+import edu.kit.datamanager.auth.web.security.JwtTokenMinter;
+import edu.kit.datamanager.auth.web.security.PersonalAccessTokenAuthenticationProvider;
+import edu.kit.datamanager.auth.web.security.TokenRevocationList;
+import edu.kit.datamanager.exceptions.AccessForbiddenException;
 import edu.kit.datamanager.exceptions.UnauthorizedAccessException;
 import edu.kit.datamanager.security.filter.JwtAuthenticationToken;
 import edu.kit.datamanager.util.AuthenticationHelper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.Date;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -35,8 +50,20 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class LoginController{
 
+  private static final String USERS_GROUP = "USERS";
+
   @Autowired
   private Logger LOGGER;
+  @Autowired
+  private IRefreshTokenService refreshTokenService;
+  @Autowired
+  private IUserService userService;
+  @Autowired
+  private IGroupService groupService;
+  @Autowired
+  private JwtTokenMinter tokenMinter;
+  @Autowired
+  private ApplicationProperties applicationProperties;
 
   @Operation(summary = "Perform user login.",
           description = "The caller authenticates via HTTP Basic and will receive a JSON Web Token in the response body. "
@@ -53,4 +80,90 @@ public class LoginController{
     return token.getToken();
   }
 
+  @Operation(summary = "Exchange a token for a token of another group.",
+          description = "The caller authenticates using a valid JSON Web Token and will receive a new JSON Web Token associated with the provided group without providing the password again. "
+          + "The caller has to be member of the particular group. The new token expires at the same time as the provided token. "
+          + "Tokens obtained using a personal access token cannot be exchanged.")
+  @PostMapping("/api/v1/login/exchange")
+  public String exchange(
+          @Parameter(description = "The group id the returned token will associated with. The caller has to be member of the particular group.", required = true) @RequestParam(name = "groupId") String groupId){
+    if(!(AuthenticationHelper.getAuthentication() instanceof JwtAuthenticationToken)){
+      throw new UnauthorizedAccessException("Access denied");
+    }
+    JwtAuthenticationToken token = ((JwtAuthenticationToken) AuthenticationHelper.getAuthentication());
+    String username = token.getName();
+    //the exchanged token would carry all roles of the user instead of the scopes of the personal access token
+    if(PersonalAccessTokenAuthenticationProvider.isPersonalAccessTokenAuthentication(token)){
+      LOGGER.warn("Caller {} tried to exchange a token obtained using a personal access token. Throwing AccessForbiddenException.", username);
+      throw new AccessForbiddenException("Tokens obtained using a personal access token cannot be exchanged.");
+    }
+    String targetGroup = groupId.toUpperCase();
+    if(!USERS_GROUP.equals(targetGroup) && !groupService.isActiveMember(targetGroup, username)){
+      LOGGER.warn("Caller {} is no member of group {} or the group does not exist or is disabled. Throwing AccessForbiddenException.", username, targetGroup);
+      throw new AccessForbiddenException("Caller is no member of group " + targetGroup + " or the group does not exist or is disabled.");
+    }
+    RepoUser user = userService.loadUserByUsername(username);
+    if(user == null || !user.isEnabled()){
+      throw new UnauthorizedAccessException("Access denied");
+    }
+    //exchanging tokens must not extend the lifetime of the session
+    Long expiresAt = TokenRevocationList.TokenInfo.of(token.getToken()).getExpiresAt();
+    long maxExpiresAt = System.currentTimeMillis() + applicationProperties.getTokenLifetime() * 1000;
+    Date expiration = new Date((expiresAt != null) ? Math.min(expiresAt, maxExpiresAt) : maxExpiresAt);
+    LOGGER.debug("Exchanged token of user {} for group {}.", username, targetGroup);
+    return tokenMinter.mint(JwtTokenMinter.userClaims(user, targetGroup), expiration);
+  }
+
+  @Operation(summary = "Perform user login and obtain a refresh token.",
+          description = "The caller authenticates via HTTP Basic and will receive a JSON Web Token together with a refresh token. "
+          + "The refresh token can be exchanged for a new JSON Web Token at /api/v1/login/refresh without providing the password again.")
+  @PostMapping("/api/v1/login/token")
+  public TokenResponse token(
+          @Parameter(description = "The group id the returned token will associated with. The caller has to be member of the particular group.") @RequestParam(name = "groupId", required = false) String groupId,
+          @RequestHeader(name = HttpHeaders.AUTHORIZATION, required = false) String authorization){
+    //refresh tokens are only issued for a password login, otherwise a stolen access token could be extended forever
+    if(!(AuthenticationHelper.getAuthentication() instanceof JwtAuthenticationToken) || authorization == null || !authorization.startsWith("Basic ")){
+      throw new UnauthorizedAccessException("Access denied");
+    }
+
+    JwtAuthenticationToken token = ((JwtAuthenticationToken) AuthenticationHelper.getAuthentication());
+    //group membership has already been checked during authentication
+    RefreshToken refreshToken = refreshTokenService.issue(token.getName(), (groupId != null) ? groupId.toUpperCase() : null);
+    LOGGER.debug("Successfully logged in as user {}. Issued refresh token.", token.getName());
+    return new TokenResponse(token.getToken(), applicationProperties.getTokenLifetime(), refreshToken.getToken());
+  }
+
+  @Operation(summary = "Obtain a new access token using a refresh token.",
+          description = "The provided refresh token is exchanged for a new JSON Web Token and a new refresh token. "
+          + "Each refresh token can be used only once. Using a refresh token again revokes all refresh tokens obtained from the same login. "
+          + "The refresh token should be sent as form parameter (application/x-www-form-urlencoded) instead of a query parameter.")
+  @PostMapping("/api/v1/login/refresh")
+  public TokenResponse refresh(
+          @Parameter(description = "The refresh token.", required = true) @RequestParam(name = "refreshToken") String refreshToken){
+    RefreshToken next = refreshTokenService.rotate(refreshToken);
+    RepoUser user = userService.loadUserByUsername(next.getUsername());
+    long lifetime = applicationProperties.getTokenLifetime();
+    String accessToken = tokenMinter.mint(JwtTokenMinter.userClaims(user, next.getGroupId()), new Date(System.currentTimeMillis() + lifetime * 1000));
+    LOGGER.debug("Successfully refreshed token of user {}.", next.getUsername());
+    return new TokenResponse(accessToken, lifetime, next.getToken());
+  }
+
+  @Operation(summary = "Revoke refresh tokens.",
+          description = "Revoke the provided refresh token and all refresh tokens obtained from the same login. "
+          + "If no refresh token is provided, all refresh tokens of the authenticated caller are revoked. "
+          + "Already issued JSON Web Tokens remain valid until they expire.")
+  @PostMapping("/api/v1/login/revoke")
+  public ResponseEntity revoke(
+          @Parameter(description = "The refresh token to revoke.") @RequestParam(name = "refreshToken", required = false) String refreshToken){
+    if(refreshToken != null){
+      refreshTokenService.revoke(refreshToken);
+    } else{
+      if(!(AuthenticationHelper.getAuthentication() instanceof JwtAuthenticationToken)){
+        throw new UnauthorizedAccessException("Access denied");
+      }
+      String username = AuthenticationHelper.getAuthentication().getName();
+      LOGGER.debug("Revoked {} refresh token(s) of user {}.", refreshTokenService.revokeAll(username), username);
+    }
+    return ResponseEntity.noContent().build();
+  }
 }
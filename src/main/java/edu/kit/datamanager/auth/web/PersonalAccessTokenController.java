@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web;
+
+import edu.kit.datamanager.auth.domain.PersonalAccessToken;
+import edu.kit.datamanager.auth.service.IPersonalAccessTokenService;
+import edu.kit.datamanager.auth.service.ITokenRevocationService;
+import edu.kit.datamanager.auth.web.security.PersonalAccessTokenAuthenticationProvider;
+import edu.kit.datamanager.controller.hateoas.event.PaginatedResultsRetrievedEvent;
+import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.exceptions.AccessForbiddenException;
+import edu.kit.datamanager.util.AuthenticationHelper;
+import edu.kit.datamanager.util.ControllerUtils;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Management of personal access tokens. Personal access tokens are long-lived
+ * tokens, e.g. for scripts, which are used via the header 'Authorization: Token
+ * &lt;TOKEN&gt;'. Each token is limited to the scopes, i.e. roles, and the group
+ * provided on creation. Deleting a token revokes it and all JSON Web Tokens
+ * obtained using it immediately.
+ *
+ * @author jejkal
+ */
+@Schema(description = "Personal Access Token Management")
+@RestController
+public class PersonalAccessTokenController{
+
+  @Autowired
+  private Logger LOGGER;
+  @Autowired
+  private IPersonalAccessTokenService tokenService;
+  @Autowired
+  private ITokenRevocationService revocationService;
+  @Autowired
+  private ApplicationEventPublisher eventPublisher;
+
+  @Operation(summary = "Create a personal access token.",
+          description = "Creates a new personal access token for the caller. The token value is only contained in the response of this call and cannot be obtained later. "
+          + "The scopes of the token must not exceed the roles of the caller and default to ROLE_USER. "
+          + "If a groupId is provided, the caller must be an active member of this group. "
+          + "Personal access tokens cannot be created using a personal access token.")
+  @PostMapping("/api/v1/tokens/personal")
+  public ResponseEntity<PersonalAccessToken> create(@Parameter(description = "The token template containing name and optionally scopes, groupId and expiresAt.") @RequestBody PersonalAccessToken template,
+          final UriComponentsBuilder uriBuilder){
+    ControllerUtils.checkAnonymousAccess();
+    //otherwise, an expiring personal access token could be replaced by a token without expiration date
+    if(PersonalAccessTokenAuthenticationProvider.isPersonalAccessTokenAuthentication(AuthenticationHelper.getAuthentication())){
+      LOGGER.warn("Caller {} tried to create a personal access token using a personal access token. Throwing AccessForbiddenException.", AuthenticationHelper.getPrincipal());
+      throw new AccessForbiddenException("Personal access tokens cannot be created using a personal access token.");
+    }
+    PersonalAccessToken token = tokenService.create(template, (String) AuthenticationHelper.getPrincipal(), getCallerRoles());
+    URI location = uriBuilder.path("/api/v1/tokens/personal/{id}").buildAndExpand(token.getId()).toUri();
+    return ResponseEntity.created(location).body(token);
+  }
+
+  @Operation(summary = "List personal access tokens.",
+          description = "Lists the personal access tokens of the caller. Token values are not contained.")
+  @GetMapping("/api/v1/tokens/personal")
+  public ResponseEntity<List<PersonalAccessToken>> findAll(final Pageable pgbl,
+          final HttpServletResponse response,
+          final UriComponentsBuilder uriBuilder){
+    ControllerUtils.checkAnonymousAccess();
+    PageRequest request = ControllerUtils.checkPaginationInformation(pgbl);
+    Page<PersonalAccessToken> page = tokenService.findByUser((String) AuthenticationHelper.getPrincipal(), request);
+    eventPublisher.publishEvent(new PaginatedResultsRetrievedEvent<>(PersonalAccessToken.class, uriBuilder, response, page.getNumber(), page.getTotalPages(), request.getPageSize()));
+    return ResponseEntity.ok().body(page.getContent());
+  }
+
+  @Operation(summary = "Delete a personal access token.",
+          description = "Deletes and thereby revokes a personal access token. JSON Web Tokens obtained using the personal access token are revoked as well. "
+          + "Deleting tokens of other users requires ROLE_ADMINISTRATOR.")
+  @DeleteMapping("/api/v1/tokens/personal/{id}")
+  public ResponseEntity delete(@Parameter(description = "The numeric token id.") @PathVariable("id") final Long id){
+    ControllerUtils.checkAnonymousAccess();
+    PersonalAccessToken token = tokenService.findById(id);
+    if(!token.getUsername().equals(AuthenticationHelper.getPrincipal()) && !AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue())){
+      LOGGER.warn("Deletion of personal access token {} of user {} requested by principal {} w/o ADMINISTRATOR privileges. Throwing AccessForbiddenException.", id, token.getUsername(), AuthenticationHelper.getPrincipal());
+      throw new AccessForbiddenException("Deleting tokens of other users is only allowed for administrators.");
+    }
+    tokenService.delete(token);
+    //JSON Web Tokens already obtained using the personal access token would otherwise remain valid until they expire
+    revocationService.revokePersonalAccessToken(token);
+    return ResponseEntity.noContent().build();
+  }
+
+  private Collection<RepoUserRole> getCallerRoles(){
+    Collection<RepoUserRole> roles = new ArrayList<>();
+    for(GrantedAuthority authority : AuthenticationHelper.getAuthentication().getAuthorities()){
+      try{
+        roles.add(RepoUserRole.fromValue(authority.getAuthority()));
+      } catch(IllegalArgumentException ex){
+        //authorities not representing roles, e.g. group roles, are ignored
+      }
+    }
+    return roles;
+  }
+}
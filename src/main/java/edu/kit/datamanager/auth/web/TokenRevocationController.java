@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web;
+
+import edu.kit.datamanager.auth.service.ITokenRevocationService;
+import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.exceptions.AccessForbiddenException;
+import edu.kit.datamanager.exceptions.UnauthorizedAccessException;
+import edu.kit.datamanager.security.filter.JwtAuthenticationToken;
+import edu.kit.datamanager.util.AuthenticationHelper;
+import edu.kit.datamanager.util.ControllerUtils;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Schema;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Revocation of tokens before their expiration. Revoked tokens are rejected by
+ * this service immediately. Other services verifying tokens locally are not
+ * aware of revocations.
+ *
+ * @author jejkal
+ */
+@Schema(description = "Token Revocation")
+@RestController
+public class TokenRevocationController{
+
+  @Autowired
+  private Logger LOGGER;
+  @Autowired
+  private ITokenRevocationService revocationService;
+
+  @Operation(summary = "Revoke tokens.",
+          description = "Without parameter, the token used to authenticate this call is revoked. "
+          + "If a username is provided, all tokens, refresh tokens and personal access tokens issued to this user until now are revoked. "
+          + "Revoking the tokens of other users requires ROLE_ADMINISTRATOR.")
+  @PostMapping("/api/v1/tokens/revoke")
+  public ResponseEntity revoke(
+          @Parameter(description = "The user whose tokens will be revoked.") @RequestParam(name = "username", required = false) String username){
+    ControllerUtils.checkAnonymousAccess();
+    if(username == null){
+      if(!(AuthenticationHelper.getAuthentication() instanceof JwtAuthenticationToken)){
+        throw new UnauthorizedAccessException("Access denied");
+      }
+      revocationService.revokeToken(((JwtAuthenticationToken) AuthenticationHelper.getAuthentication()).getToken());
+      return ResponseEntity.noContent().build();
+    }
+
+    //usernames are stored in lowercase
+    username = username.toLowerCase();
+    if(!username.equals(AuthenticationHelper.getPrincipal()) && !AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue())){
+      LOGGER.warn("Revocation of tokens of user {} requested by principal {} w/o ADMINISTRATOR privileges. Throwing AccessForbiddenException.", username, AuthenticationHelper.getPrincipal());
+      throw new AccessForbiddenException("Revoking tokens of other users is only allowed for administrators.");
+    }
+    revocationService.revokeUser(username);
+    return ResponseEntity.noContent().build();
+  }
+}
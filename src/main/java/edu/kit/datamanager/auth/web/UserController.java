@@ -15,6 +15,7 @@
  */
 package edu.kit.datamanager.auth.web;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.fge.jsonpatch.JsonPatch;
 import com.monitorjbl.json.JsonResult;
 import com.monitorjbl.json.JsonView;
@@ -23,6 +24,7 @@ import edu.kit.datamanager.auth.domain.RepoUser;
 import edu.kit.datamanager.exceptions.AccessForbiddenException;
 import edu.kit.datamanager.exceptions.CustomInternalServerError;
 import edu.kit.datamanager.exceptions.UpdateForbiddenException;
+import edu.kit.datamanager.auth.service.IUserImportService;
 import edu.kit.datamanager.auth.service.IUserService;
 import edu.kit.datamanager.controller.hateoas.event.PaginatedResultsRetrievedEvent;
 import edu.kit.datamanager.controller.IGenericResourceController;
@@ -34,7 +36,11 @@ import edu.kit.datamanager.util.ControllerUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Schema;
 import java.time.Instant;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -42,7 +48,9 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.hateoas.server.mvc.WebMvcLinkBuilder;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -74,6 +82,12 @@ public class UserController implements IGenericResourceController<RepoUser>{
   @Autowired
   private final IUserService userService;
 
+  @Autowired
+  private IUserImportService userImportService;
+
+  @Autowired
+  private ObjectMapper mapper;
+
   public UserController(IUserService userService){
     super();
     this.userService = userService;
@@ -86,6 +100,36 @@ public class UserController implements IGenericResourceController<RepoUser>{
     return ResponseEntity.created(WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).create(newUser, request, response)).toUri()).eTag("\"" + user.getEtag() + "\"").body(filterRepoUser(newUser));
   }
 
+  @Operation(summary = "Import multiple users at once.",
+          description = "Imports users provided either as NDJSON (Content-Type application/x-ndjson, one user per line) or as CSV (Content-Type text/csv, "
+          + "header line with columns username,password,firstname,lastname,email,orcid,roles,passwordAlgorithm, multiple roles separated by ';'). "
+          + "The response is streamed as NDJSON containing one result per record in the order of the records. Records which cannot be imported, "
+          + "e.g. due to an existing username, are reported with status FAILED and do not affect other records. Importing users requires ROLE_ADMINISTRATOR.")
+  @RequestMapping(value = {"import"}, method = {RequestMethod.POST}, consumes = {"application/x-ndjson", "text/csv"})
+  public void importUsers(final HttpServletRequest request, final HttpServletResponse response) throws IOException{
+    ControllerUtils.checkAnonymousAccess();
+
+    if(!AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue())){
+      LOGGER.warn("Caller is not allowed to import users. ROLE_ADMINISTRATOR is required. Throwing AccessForbiddenException.");
+      throw new AccessForbiddenException("Insufficient role. ROLE_ADMINISTRATOR required.");
+    }
+
+    IUserImportService.Format format = request.getContentType().toLowerCase().startsWith("text/csv") ? IUserImportService.Format.CSV : IUserImportService.Format.NDJSON;
+    response.setStatus(HttpStatus.OK.value());
+    response.setContentType("application/x-ndjson");
+    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    Writer writer = response.getWriter();
+    userImportService.importUsers(request.getInputStream(), format, (result) -> {
+      try{
+        writer.write(mapper.writeValueAsString(result));
+        writer.write('\n');
+      } catch(IOException ex){
+        throw new CustomInternalServerError("Failed to write import result.");
+      }
+    });
+    writer.flush();
+  }
+
   @Operation(summary = "Obtain caller information for the currently authenticated user.",
           description = "This endpoints can be used to obtain user details for the currently logged in user. If the caller has authenticated as registered user, user details are returned. "
           + "If this endpoint is accessed anonymously, HTTP UNAUTHORIZED (401) is returned.")
@@ -104,7 +148,13 @@ public class UserController implements IGenericResourceController<RepoUser>{
       throw new CustomInternalServerError("Failed to obtain authenticated repository user '" + principal + "'.");
     }
 
-    return ResponseEntity.ok().eTag("\"" + me.getEtag() + "\"").body(filterRepoUser(me));
+    String etag = "\"" + me.getEtag() + "\"";
+    if(wr.checkNotModified(etag)){
+      LOGGER.trace("User {} not modified. Returning HTTP NOT_MODIFIED.", principal);
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+    }
+
+    return ResponseEntity.ok().eTag(etag).body(filterRepoUser(me));
   }
 
   @Override
@@ -122,7 +172,13 @@ public class UserController implements IGenericResourceController<RepoUser>{
       throw new AccessForbiddenException("Insufficient role. ROLE_ADMINISTRATOR required to read other users.");
     }
 
-    return ResponseEntity.ok().eTag("\"" + user.getEtag() + "\"").body(filterRepoUser(user));
+    String etag = "\"" + user.getEtag() + "\"";
+    if(request.checkNotModified(etag)){
+      LOGGER.trace("User with id {} not modified. Returning HTTP NOT_MODIFIED.", id);
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+    }
+
+    return ResponseEntity.ok().eTag(etag).body(filterRepoUser(user));
   }
 
   @Override
@@ -154,13 +210,57 @@ public class UserController implements IGenericResourceController<RepoUser>{
 
     PageRequest request = ControllerUtils.checkPaginationInformation(pgbl);
 
-    Page<RepoUser> page = userService.findAll(example, request);
+    Page<RepoUser> page = userService.findAll(example, lastUpdateFrom, lastUpdateUntil, request);
 
     eventPublisher.publishEvent(new PaginatedResultsRetrievedEvent<>(RepoUser.class, uriBuilder, response, page.getNumber(), page.getTotalPages(), request.getPageSize()));
 
     return ResponseEntity.ok().body(filterRepoUsers(page.getContent()));
   }
 
+  @Operation(summary = "List users using keyset pagination.",
+          description = "Opt-in alternative to offset-based pagination for large user lists. The first chunk is obtained by providing an empty 'after' parameter. "
+          + "If there are more users, the response contains a Link header with relation 'next', which has to be used to obtain the next chunk. "
+          + "The total number of users is not determined and the 'page' and 'sort' parameters are ignored. Listing users requires ROLE_ADMINISTRATOR.")
+  @RequestMapping(value = {"", "/"}, method = {RequestMethod.GET}, params = "after")
+  @ResponseBody
+  public ResponseEntity<List<RepoUser>> findAllAfter(
+          @RequestParam(name = "after") String after,
+          @RequestParam(name = "from", required = false) Instant lastUpdateFrom,
+          @RequestParam(name = "until", required = false) Instant lastUpdateUntil,
+          final Pageable pgbl,
+          final HttpServletResponse response){
+    return findByExampleAfter(null, after, lastUpdateFrom, lastUpdateUntil, pgbl, response);
+  }
+
+  @Operation(summary = "Find users by example using keyset pagination.",
+          description = "Keyset pagination variant of finding users by example. See listing users using keyset pagination for details.")
+  @RequestMapping(value = {"search"}, method = {RequestMethod.POST}, params = "after")
+  @ResponseBody
+  public ResponseEntity<List<RepoUser>> findByExampleAfter(
+          @RequestBody RepoUser example,
+          @RequestParam(name = "after") String after,
+          @RequestParam(name = "from", required = false) Instant lastUpdateFrom,
+          @RequestParam(name = "until", required = false) Instant lastUpdateUntil,
+          final Pageable pgbl,
+          final HttpServletResponse response){
+    ControllerUtils.checkAnonymousAccess();
+
+    if(!AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue())){
+      LOGGER.warn("Caller is not allowed to find users by example. ROLE_ADMINISTRATOR is required. Throwing AccessForbiddenException.");
+      throw new AccessForbiddenException("Insufficient role. ROLE_ADMINISTRATOR required.");
+    }
+
+    PageRequest request = ControllerUtils.checkPaginationInformation(pgbl);
+
+    Slice<RepoUser> slice = userService.findAllAfter(example, lastUpdateFrom, lastUpdateUntil, KeysetCursor.decode(after), request.getPageSize());
+    List<RepoUser> users = slice.getContent();
+    if(slice.hasNext()){
+      KeysetCursor.addNextLink(response, users.get(users.size() - 1).getId());
+    }
+
+    return ResponseEntity.ok().body(filterRepoUsers(users));
+  }
+
   @Override
   public ResponseEntity patch(
           @PathVariable(value = "id") String id,
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import java.util.UUID;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+/**
+ * Determination of the BCrypt work factor matching a target verification time
+ * on the current machine. As each increment of the work factor doubles the
+ * hashing time, the work factor is increased until the measured time exceeds
+ * the target.
+ *
+ * @author jejkal
+ */
+public final class BCryptStrengthCalibrator{
+
+  /**
+   * The highest work factor supported by BCrypt.
+   */
+  public static final int MAX_STRENGTH = 31;
+  private static final int MEASUREMENTS = 3;
+
+  private BCryptStrengthCalibrator(){
+  }
+
+  /**
+   * Determine the highest work factor whose hashing time does not exceed the
+   * provided target. The provided minimum is returned even if its hashing time
+   * exceeds the target.
+   *
+   * @param minStrength The min. work factor.
+   * @param targetMillis The target hashing time in milliseconds.
+   *
+   * @return The work factor.
+   */
+  public static int calibrate(int minStrength, long targetMillis){
+    int strength = minStrength;
+    while(strength < MAX_STRENGTH && measure(strength + 1) <= targetMillis){
+      strength++;
+    }
+    return strength;
+  }
+
+  /**
+   * Measure the time of hashing a random password using the provided work
+   * factor. The fastest of multiple measurements is returned in order to
+   * reduce the influence of warmup and concurrent load.
+   *
+   * @param strength The work factor.
+   *
+   * @return The hashing time in milliseconds.
+   */
+  public static long measure(int strength){
+    String password = UUID.randomUUID().toString();
+    long fastest = Long.MAX_VALUE;
+    for(int i = 0; i < MEASUREMENTS; i++){
+      long start = System.nanoTime();
+      BCrypt.hashpw(password, BCrypt.gensalt(strength));
+      fastest = Math.min(fastest, (System.nanoTime() - start) / 1000000);
+      if(fastest > 1000){
+        //slow work factors are measured once in order to limit the startup time
+        break;
+      }
+    }
+    return fastest;
+  }
+}
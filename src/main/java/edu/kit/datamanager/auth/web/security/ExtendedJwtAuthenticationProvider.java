@@ -15,32 +15,31 @@
  */
 package edu.kit.datamanager.auth.web.security;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import edu.kit.datamanager.auth.domain.RepoUser;
-import edu.kit.datamanager.auth.domain.RepoUserGroup;
 import edu.kit.datamanager.auth.service.IGroupService;
 import edu.kit.datamanager.auth.service.IUserService;
 import edu.kit.datamanager.exceptions.InvalidAuthenticationException;
 import edu.kit.datamanager.security.filter.JwtAuthenticationProvider;
 import edu.kit.datamanager.security.filter.JwtAuthenticationToken;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
-import io.jsonwebtoken.impl.DefaultClaims;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import java.io.IOException;
+import java.security.Key;
+import java.util.Base64;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import org.apache.commons.lang3.time.DateUtils;
 import org.slf4j.Logger;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
@@ -55,22 +54,95 @@ import org.springframework.web.context.request.ServletRequestAttributes;
  */
 public class ExtendedJwtAuthenticationProvider extends JwtAuthenticationProvider{
 
+  /**
+   * Number of failed login attempts after which a user is locked.
+   */
+  private static final int MAX_LOGIN_FAILURES = 3;
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
   private Logger LOGGER;
 
-  private final String secretKey;
   private final IUserService userService;
-  private final BCryptPasswordEncoder passwordEncoder;
+  private final PasswordVerifier passwordVerifier;
   private final IGroupService groupService;
+  private final JwtTokenMinter tokenMinter;
+  private final JwtKeySet keySet;
+  private long tokenLifetime = 3600;
+  private TokenRevocationList revocationList;
+  private ValidatedTokenCache tokenCache;
+  private PasswordUpgrader passwordUpgrader;
+  private LoginCoalescer loginCoalescer;
+
+  public ExtendedJwtAuthenticationProvider(String secretKey, IUserService userService, IGroupService groupService, PasswordVerifier passwordVerifier, JwtTokenMinter tokenMinter, Logger logger){
+    this(secretKey, userService, groupService, passwordVerifier, tokenMinter, JwtKeySet.empty(), logger);
+  }
 
-  public ExtendedJwtAuthenticationProvider(String secretKey, IUserService userService, IGroupService groupService, BCryptPasswordEncoder passwordEncoder, Logger logger){
+  /**
+   * Create a new provider also accepting tokens signed with one of the keys of
+   * the provided key set. Tokens signed using the shared secret are still
+   * accepted, e.g. tokens issued before switching to asymmetric signing.
+   */
+  public ExtendedJwtAuthenticationProvider(String secretKey, IUserService userService, IGroupService groupService, PasswordVerifier passwordVerifier, JwtTokenMinter tokenMinter, JwtKeySet keySet, Logger logger){
     super(secretKey, logger);
-    this.secretKey = secretKey;
     this.userService = userService;
     this.groupService = groupService;
-    this.passwordEncoder = passwordEncoder;
+    this.passwordVerifier = passwordVerifier;
+    this.tokenMinter = tokenMinter;
+    this.keySet = keySet;
     this.LOGGER = logger;
   }
 
+  /**
+   * Set the lifetime of tokens issued at login.
+   *
+   * @param tokenLifetime The token lifetime in seconds.
+   */
+  public void setTokenLifetime(long tokenLifetime){
+    this.tokenLifetime = tokenLifetime;
+  }
+
+  /**
+   * Set the list of revoked tokens checked after verifying a token.
+   *
+   * @param revocationList The revocation list or null to skip revocation
+   * checks.
+   */
+  public void setRevocationList(TokenRevocationList revocationList){
+    this.revocationList = revocationList;
+  }
+
+  /**
+   * Set the cache of verified tokens. If set, tokens are only parsed and
+   * verified once until they expire.
+   *
+   * @param tokenCache The token cache or null to verify tokens each time.
+   */
+  public void setTokenCache(ValidatedTokenCache tokenCache){
+    this.tokenCache = tokenCache;
+  }
+
+  /**
+   * Set the upgrader used to re-encode outdated passwords after successful
+   * logins.
+   *
+   * @param passwordUpgrader The password upgrader or null to keep passwords as
+   * they are.
+   */
+  public void setPasswordUpgrader(PasswordUpgrader passwordUpgrader){
+    this.passwordUpgrader = passwordUpgrader;
+  }
+
+  /**
+   * Set the coalescer used to share the verification of identical credentials
+   * between concurrent logins.
+   *
+   * @param loginCoalescer The login coalescer or null to verify each login
+   * separately.
+   */
+  public void setLoginCoalescer(LoginCoalescer loginCoalescer){
+    this.loginCoalescer = loginCoalescer;
+  }
+
   @Override
   public boolean supports(Class<?> authentication){
     return JwtAuthenticationToken.class.isAssignableFrom(authentication) || UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
@@ -78,9 +150,78 @@ public class ExtendedJwtAuthenticationProvider extends JwtAuthenticationProvider
 
   @Override
   public Authentication authenticate(Authentication authentication) throws AuthenticationException{
-    return authentication instanceof JwtAuthenticationToken
-            ? getJwtAuthentication(((JwtAuthenticationToken) authentication).getToken())
-            : getJwtAuthentication(getUser(authentication));
+    if(authentication instanceof JwtAuthenticationToken){
+      return authenticateToken(((JwtAuthenticationToken) authentication).getToken());
+    }
+    return getJwtAuthentication(getUser(authentication));
+  }
+
+  /**
+   * Authenticate using the provided raw token. The token is verified, checked
+   * against the revocation list and, if a token cache is set, cached until it
+   * expires.
+   *
+   * @param token The compact serialization of the token.
+   *
+   * @return The authentication created for the token.
+   *
+   * @throws AuthenticationException if the token is invalid, expired or has
+   * been revoked.
+   */
+  public Authentication authenticateToken(String token) throws AuthenticationException{
+    ValidatedTokenCache.Entry cached = (tokenCache != null) ? tokenCache.get(token) : null;
+    Authentication result;
+    TokenRevocationList.TokenInfo info = null;
+    if(cached != null){
+      result = cached.getAuthentication();
+      info = cached.getTokenInfo();
+    } else{
+      result = isSignedWithSecret(token) ? getJwtAuthentication(token) : getVerifiedJwtAuthentication(token);
+      if(tokenCache != null){
+        //the payload is parsed once and the claims are kept for revocation checks of subsequent requests
+        info = TokenRevocationList.TokenInfo.of(token);
+        tokenCache.put(token, result, info);
+      }
+    }
+    //revocations are checked for cached tokens as well
+    if(revocationList != null && ((info != null) ? revocationList.isRevoked(info) : revocationList.isRevoked(token))){
+      LOGGER.debug("Rejecting revoked JWToken.");
+      throw new InvalidAuthenticationException("Token has been revoked.");
+    }
+    return result;
+  }
+
+  private Authentication getVerifiedJwtAuthentication(String token) throws AuthenticationException{
+    try{
+      Jws<Claims> jws = Jwts.parser().setSigningKeyResolver(new SigningKeyResolverAdapter(){
+        @Override
+        public Key resolveSigningKey(JwsHeader header, Claims claims){
+          return keySet.getPublicKey(header.getKeyId());
+        }
+      }).parseClaimsJws(token);
+      return JwtAuthenticationToken.factoryToken(token, jws.getBody());
+    } catch(JwtException | IllegalArgumentException ex){
+      LOGGER.warn("Failed to verify JWToken signed with asymmetric key: {}", ex.getMessage());
+      throw new InvalidAuthenticationException("Invalid token.");
+    }
+  }
+
+  private boolean isSignedWithSecret(String token){
+    int headerEnd = (token != null) ? token.indexOf('.') : -1;
+    if(keySet.isEmpty() || headerEnd < 0){
+      return true;
+    }
+    try(JsonParser parser = JSON_FACTORY.createParser(Base64.getUrlDecoder().decode(token.substring(0, headerEnd)))){
+      while(parser.nextToken() != null){
+        if(parser.getCurrentToken() == JsonToken.FIELD_NAME && "alg".equals(parser.getCurrentName())){
+          String algorithm = parser.nextTextValue();
+          return algorithm == null || algorithm.startsWith("HS");
+        }
+      }
+    } catch(IOException | IllegalArgumentException ex){
+      //malformed header, let the default validation reject the token
+    }
+    return true;
   }
 
   private Authentication getJwtAuthentication(RepoUser user) throws AuthenticationException{
@@ -90,68 +231,59 @@ public class ExtendedJwtAuthenticationProvider extends JwtAuthenticationProvider
     if(groupId == null){
       groupId = "USERS";
     } else{
-      //check membership and group state
-      Page<RepoUserGroup> result = groupService.findAll(RepoUserGroup.createGroup(groupId), PageRequest.of(0, 1), true);
-      if(!result.hasContent()){
-        throw new InvalidAuthenticationException("Invalid group provided.");
-      } else{
-        RepoUserGroup group = result.getContent().get(0);
-        if(!group.getActive()){
-          throw new InvalidAuthenticationException("Group " + groupId + " is disabled.");
-        } else if(!group.isMember(user)){
-          throw new InvalidAuthenticationException("Caller " + user.getUsername() + " is no member of group " + groupId + ".");
-        }
-        //group is active and caller is member
+      //check membership and group state using a single query
+      groupId = groupId.toUpperCase();
+      if(!groupService.isActiveMember(groupId, user.getUsername())){
+        throw new InvalidAuthenticationException("Caller " + user.getUsername() + " is no member of group " + groupId + " or the group does not exist or is disabled.");
       }
     }
 
-    Claims claims = new DefaultClaims();
-    claims.put("username", user.getUsername());
-    claims.put("firstname", user.getFirstname());
-    claims.put("lastname", user.getLastname());
-    claims.put("email", user.getEmail());
-    claims.put("groupid", groupId);
-
-    Set<String> rolesAsString = new HashSet<>();
-    user.getRolesAsEnum().forEach((role) -> {
-      rolesAsString.add(role.toString());
-    });
-    try{
-      claims.put("roles", new ObjectMapper().writeValueAsString(rolesAsString.toArray(new String[]{})));
-    } catch(JsonProcessingException ex){
-      LOGGER.error("Failed to serialize roles " + rolesAsString + " to JSON.", ex);
-      throw new InvalidAuthenticationException("Failed to create JWToken.", ex);
-    }
-    Set<Map.Entry<String, Object>> claimEntries = claims.entrySet();
-    Map<String, Object> claimMap = new HashMap<>();
-    claimEntries.forEach((entry) -> {
-      claimMap.put(entry.getKey(), entry.getValue());
-    });
-
-    String token = Jwts.builder().setClaims(claims).setExpiration(DateUtils.addHours(new Date(), 1)).signWith(SignatureAlgorithm.HS512, secretKey).compact();
+    Map<String, Object> claimMap = JwtTokenMinter.userClaims(user, groupId);
+    String token = tokenMinter.mint(claimMap, new Date(System.currentTimeMillis() + tokenLifetime * 1000));
 
     return JwtAuthenticationToken.factoryToken(token, claimMap);
   }
 
   protected RepoUser getUser(Authentication authentication){
+    if(loginCoalescer == null){
+      return verifyUser(authentication);
+    }
+    return loginCoalescer.verify(authentication.getName(), (String) authentication.getCredentials(), () -> verifyUser(authentication));
+  }
+
+  private RepoUser verifyUser(Authentication authentication){
     RepoUser theUser = (RepoUser) userService.loadUserByUsername(authentication.getName());
     if(theUser == null || !theUser.isEnabled()){
+      if(authentication.getCredentials() != null){
+        //spend the same time as for a wrong password in order to not reveal whether the user exists
+        passwordVerifier.matchesDummy((String) authentication.getCredentials());
+      }
       LOGGER.warn("User " + authentication.getName() + " is disabled. Falling back to anonymous access.");
       throw new InvalidAuthenticationException("Access denied.");
     }
     String password = theUser.getPassword();
     String providedPassword = (String) authentication.getCredentials();
-    if(providedPassword == null || !passwordEncoder.matches(providedPassword, password)){
-      theUser.setLoginFailures(Math.min(3, theUser.getLoginFailures() + 1));
-      if(theUser.getLoginFailures() == 3){
-        theUser.setLocked(true);
-        theUser.setLockedUntil(DateUtils.addHours(new Date(), 1));
-        LOGGER.warn("Too many failed login attempts for user " + theUser.getUsername() + ". User will be locked until " + theUser.getLockedUntil() + ".");
+    if(providedPassword == null || !passwordVerifier.matches(providedPassword, password)){
+      //counting and locking is done atomically by the database, the loaded user may already be outdated
+      Date lockedUntil = DateUtils.addHours(new Date(), 1);
+      int attempt = userService.registerLoginFailure(theUser.getUsername(), MAX_LOGIN_FAILURES, lockedUntil);
+      if(attempt == 0){
+        LOGGER.warn("Wrong password provided for already locked user " + theUser.getUsername() + ".");
+      } else{
+        if(attempt >= MAX_LOGIN_FAILURES){
+          LOGGER.warn("Too many failed login attempts for user " + theUser.getUsername() + ". User will be locked until " + lockedUntil + ".");
+        }
+        LOGGER.warn("Wrong password provided for user " + theUser.getUsername() + " (Attempt: " + attempt + ")");
       }
-      userService.update(theUser);
-      LOGGER.warn("Wrong password provided for user " + theUser.getUsername() + " (Attempt: " + theUser.getLoginFailures() + ")");
       throw new InvalidAuthenticationException("Access denied");
     }
+    if(theUser.getLoginFailures() != null && theUser.getLoginFailures() > 0){
+      userService.resetLoginFailures(theUser.getUsername());
+      theUser.setLoginFailures(0);
+    }
+    if(passwordUpgrader != null){
+      passwordUpgrader.upgradeIfNeeded(theUser, providedPassword);
+    }
     LOGGER.debug("Successful login for user " + theUser.getUsername() + ".");
     return theUser;
   }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Periodic maintenance of the token signing keyring. If a rotation interval is
+ * configured, the signing key is rotated at a fixed rate. Independent from
+ * that, verification-only keys are removed once per minute after their
+ * retention time has elapsed.
+ *
+ * @author jejkal
+ */
+public class JwtKeyRotationScheduler{
+
+  private static final long RETIREMENT_CHECK_SECONDS = 60;
+
+  private final ScheduledExecutorService executor;
+
+  /**
+   * Create and start a new scheduler.
+   *
+   * @param keySet The keyring to maintain.
+   * @param rotationInterval The rotation interval in seconds. If smaller than
+   * 1, keys are only rotated on request.
+   * @param logger The logger.
+   */
+  public JwtKeyRotationScheduler(JwtKeySet keySet, long rotationInterval, Logger logger){
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("jwt-key-rotation-");
+    threadFactory.setDaemon(true);
+    executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    if(keySet.isEmpty()){
+      //nothing to maintain for tokens signed using the shared secret
+      return;
+    }
+    if(rotationInterval > 0){
+      executor.scheduleAtFixedRate(() -> {
+        try{
+          logger.info("Rotated token signing key. New key id is {}.", keySet.rotate().getKeyId());
+        } catch(RuntimeException ex){
+          logger.error("Failed to rotate token signing key.", ex);
+        }
+      }, rotationInterval, rotationInterval, TimeUnit.SECONDS);
+    }
+    executor.scheduleWithFixedDelay(() -> {
+      try{
+        int removed = keySet.retireExpiredKeys();
+        if(removed > 0){
+          logger.info("Retired {} token verification key(s).", removed);
+        }
+      } catch(RuntimeException ex){
+        logger.error("Failed to retire token verification keys.", ex);
+      }
+    }, RETIREMENT_CHECK_SECONDS, RETIREMENT_CHECK_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stop the scheduler. Called by the container on context shutdown.
+   */
+  public void shutdown(){
+    executor.shutdownNow();
+  }
+}
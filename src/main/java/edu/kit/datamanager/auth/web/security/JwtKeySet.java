@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keyring of asymmetric keys used for token signing and verification. The
+ * keyring consists of:
+ * <ul>
+ * <li>The signing key used to sign new tokens.</li>
+ * <li>The next signing key, which is published in advance, such that verifiers
+ * caching the JSON Web Key Set already know it when it becomes the signing
+ * key.</li>
+ * <li>Verification-only keys, i.e. former signing keys, which are kept until
+ * all tokens signed with them have expired.</li>
+ * </ul>
+ * Keys are selected by their key id using a map lookup. All state is kept in an
+ * immutable snapshot which is replaced on rotation, thus, lookups are lock-free.
+ * The keyring is empty if tokens are signed using the shared HMAC secret.
+ *
+ * Keys are held in memory only. After a restart, the keyring starts again with
+ * the configured or a newly generated key.
+ *
+ * @author jejkal
+ */
+public class JwtKeySet{
+
+  private final long retentionMillis;
+  private volatile Snapshot snapshot;
+
+  /**
+   * Create a new keyring.
+   *
+   * @param signingKey The signing key or null for an empty keyring.
+   * @param nextKey The next signing key or null if the next key should be
+   * generated at rotation time.
+   * @param retentionMillis The time in milliseconds a former signing key is
+   * kept for verification after rotation, which should be at least the max.
+   * token lifetime.
+   */
+  public JwtKeySet(JwtSigningKey signingKey, JwtSigningKey nextKey, long retentionMillis){
+    this.retentionMillis = retentionMillis;
+    Map<String, Long> retireAt = new LinkedHashMap<>();
+    Map<String, JwtSigningKey> keys = new LinkedHashMap<>();
+    if(signingKey != null){
+      keys.put(signingKey.getKeyId(), signingKey);
+      retireAt.put(signingKey.getKeyId(), Long.MAX_VALUE);
+      if(nextKey != null){
+        keys.put(nextKey.getKeyId(), nextKey);
+        retireAt.put(nextKey.getKeyId(), Long.MAX_VALUE);
+      }
+    }
+    this.snapshot = new Snapshot(signingKey, (signingKey != null) ? nextKey : null, keys, retireAt);
+  }
+
+  /**
+   * Create an empty keyring.
+   *
+   * @return The empty keyring.
+   */
+  public static JwtKeySet empty(){
+    return new JwtKeySet(null, null, 0);
+  }
+
+  /**
+   * Get the public key with the provided key id.
+   *
+   * @param keyId The key id from the token header.
+   *
+   * @return The public key or null if no key with the provided id exists or if
+   * the key has been retired.
+   */
+  public PublicKey getPublicKey(String keyId){
+    if(keyId == null){
+      return null;
+    }
+    Snapshot current = snapshot;
+    JwtSigningKey key = current.keys.get(keyId);
+    if(key == null || current.retireAt.get(keyId) <= System.currentTimeMillis()){
+      return null;
+    }
+    return key.getPublicKey();
+  }
+
+  /**
+   * Get the key used to sign new tokens.
+   *
+   * @return The signing key or null if the keyring is empty.
+   */
+  public JwtSigningKey getSigningKey(){
+    return snapshot.signingKey;
+  }
+
+  public boolean isEmpty(){
+    return snapshot.signingKey == null;
+  }
+
+  /**
+   * Rotate the signing key. The next key becomes the signing key, a new next
+   * key is generated and the former signing key is kept for verification until
+   * the retention time has elapsed. Keys whose retention time has elapsed are
+   * removed.
+   *
+   * @return The new signing key.
+   *
+   * @throws IllegalStateException if the keyring is empty, i.e. if tokens are
+   * signed using the shared secret.
+   */
+  public synchronized JwtSigningKey rotate(){
+    Snapshot current = snapshot;
+    if(current.signingKey == null){
+      throw new IllegalStateException("Key rotation is only supported for asymmetric signing keys.");
+    }
+    long now = System.currentTimeMillis();
+    JwtSigningKey newSigningKey = (current.nextKey != null) ? current.nextKey : JwtSigningKey.generate(current.signingKey.getAlgorithm());
+    JwtSigningKey newNextKey = JwtSigningKey.generate(current.signingKey.getAlgorithm());
+
+    Map<String, JwtSigningKey> keys = new LinkedHashMap<>();
+    Map<String, Long> retireAt = new HashMap<>();
+    keys.put(newSigningKey.getKeyId(), newSigningKey);
+    retireAt.put(newSigningKey.getKeyId(), Long.MAX_VALUE);
+    keys.put(newNextKey.getKeyId(), newNextKey);
+    retireAt.put(newNextKey.getKeyId(), Long.MAX_VALUE);
+    current.keys.forEach((keyId, key) -> {
+      if(!keys.containsKey(keyId)){
+        //former signing key or verification-only key
+        long retirement = (key == current.signingKey) ? now + retentionMillis : current.retireAt.get(keyId);
+        if(retirement > now){
+          keys.put(keyId, key);
+          retireAt.put(keyId, retirement);
+        }
+      }
+    });
+    snapshot = new Snapshot(newSigningKey, newNextKey, keys, retireAt);
+    return newSigningKey;
+  }
+
+  /**
+   * Remove all verification-only keys whose retention time has elapsed.
+   *
+   * @return The number of removed keys.
+   */
+  public synchronized int retireExpiredKeys(){
+    Snapshot current = snapshot;
+    long now = System.currentTimeMillis();
+    Map<String, JwtSigningKey> keys = new LinkedHashMap<>();
+    Map<String, Long> retireAt = new HashMap<>();
+    current.keys.forEach((keyId, key) -> {
+      if(current.retireAt.get(keyId) > now){
+        keys.put(keyId, key);
+        retireAt.put(keyId, current.retireAt.get(keyId));
+      }
+    });
+    int removed = current.keys.size() - keys.size();
+    if(removed > 0){
+      snapshot = new Snapshot(current.signingKey, current.nextKey, keys, retireAt);
+    }
+    return removed;
+  }
+
+  /**
+   * Get all keys of the keyring as JSON Web Key Set, i.e. a map with a single
+   * entry 'keys'.
+   *
+   * @return The JWKS as unmodifiable map.
+   */
+  public Map<String, Object> toJwks(){
+    return snapshot.jwks;
+  }
+
+  /**
+   * Get an entity tag identifying the current content of the keyring.
+   *
+   * @return The entity tag without quotes.
+   */
+  public String getEtag(){
+    return snapshot.etag;
+  }
+
+  private static final class Snapshot{
+
+    private final JwtSigningKey signingKey;
+    private final JwtSigningKey nextKey;
+    private final Map<String, JwtSigningKey> keys;
+    private final Map<String, Long> retireAt;
+    private final Map<String, Object> jwks;
+    private final String etag;
+
+    Snapshot(JwtSigningKey signingKey, JwtSigningKey nextKey, Map<String, JwtSigningKey> keys, Map<String, Long> retireAt){
+      this.signingKey = signingKey;
+      this.nextKey = nextKey;
+      this.keys = keys;
+      this.retireAt = retireAt;
+      List<Map<String, Object>> jwkList = new ArrayList<>();
+      StringBuilder keyIds = new StringBuilder();
+      for(JwtSigningKey key : keys.values()){
+        jwkList.add(key.toJwk());
+        keyIds.append(key.getKeyId()).append(';');
+      }
+      Map<String, Object> set = new LinkedHashMap<>();
+      set.put("keys", Collections.unmodifiableList(jwkList));
+      this.jwks = Collections.unmodifiableMap(set);
+      //keys are immutable, thus, the list of key ids identifies the content of the keyring
+      this.etag = Integer.toHexString(keyIds.toString().hashCode());
+    }
+  }
+}
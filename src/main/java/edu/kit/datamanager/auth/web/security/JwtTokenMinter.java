@@ -0,0 +1,335 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.exceptions.InvalidAuthenticationException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.TextCodec;
+import io.jsonwebtoken.impl.crypto.EllipticCurveProvider;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Minting engine for JSON Web Tokens issued at login time. In contrast to
+ * building tokens via Jwts.builder(), all per-key work is done once per
+ * signing key: the HMAC key is derived from the shared secret exactly
+ * the way jjwt derives it in JwtAuthenticationProvider, the encoded header
+ * segment is cached and each thread keeps its own initialized Mac instance.
+ * Claims are written directly to the payload using a shared JsonFactory
+ * without building intermediate claim maps or ObjectMapper instances.
+ *
+ * Tokens created using a shared secret are equivalent to tokens created by
+ * Jwts.builder().setClaims(claims).signWith(HS512, secret).compact() and can
+ * therefore be validated by all existing services. Alternatively, tokens can be
+ * signed using a JwtSigningKey. In that case, the header contains the key id
+ * ('kid') and tokens can be verified by everyone using the public keys
+ * published at /.well-known/jwks.json. If the signing key of the key set is
+ * rotated, the minter switches to the new key with the next token.
+ *
+ * @author jejkal
+ */
+public class JwtTokenMinter{
+
+  private static final SignatureAlgorithm HMAC_ALGORITHM = SignatureAlgorithm.HS512;
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+
+  private final JwtKeySet keySet;
+  private volatile Signer signer;
+
+  /**
+   * Create a new token minter.
+   *
+   * @param secretKey The shared secret as used by JwtAuthenticationProvider,
+   * i.e. a Base64 encoded key.
+   */
+  public JwtTokenMinter(String secretKey){
+    if(secretKey == null || secretKey.isEmpty()){
+      throw new IllegalArgumentException("Argument 'secretKey' must not be null or empty.");
+    }
+    this.keySet = null;
+    this.signer = new HmacSigner(new SecretKeySpec(TextCodec.BASE64.decode(secretKey), HMAC_ALGORITHM.getJcaName()));
+  }
+
+  /**
+   * Create a new token minter signing tokens with an asymmetric key.
+   *
+   * @param signingKey The key used for signing.
+   */
+  public JwtTokenMinter(JwtSigningKey signingKey){
+    this(new JwtKeySet(signingKey, null, 0));
+  }
+
+  /**
+   * Create a new token minter signing tokens with the current signing key of
+   * the provided key set. After a key rotation, new tokens are signed with the
+   * new signing key.
+   *
+   * @param keySet The key set, which must not be empty.
+   */
+  public JwtTokenMinter(JwtKeySet keySet){
+    if(keySet == null || keySet.isEmpty()){
+      throw new IllegalArgumentException("Argument 'keySet' must not be null or empty.");
+    }
+    this.keySet = keySet;
+    this.signer = new KeySigner(keySet.getSigningKey());
+  }
+
+  /**
+   * Mint a new signed token containing the provided claims and the provided
+   * expiration date. Claim values are expected to be Strings, Numbers or
+   * Booleans. Other values are written using their string representation. Null
+   * values are omitted.
+   *
+   * @param claims The claims to include in the token payload.
+   * @param expiration The expiration date written as 'exp' claim.
+   *
+   * @return The compact serialization of the signed token.
+   */
+  public String mint(Map<String, Object> claims, Date expiration){
+    ByteArrayBuilder payload = new ByteArrayBuilder(256);
+    try(JsonGenerator generator = JSON_FACTORY.createGenerator(payload)){
+      generator.writeStartObject();
+      for(Map.Entry<String, Object> claim : claims.entrySet()){
+        writeClaim(generator, claim.getKey(), claim.getValue());
+      }
+      if(expiration != null){
+        generator.writeNumberField("exp", expiration.getTime() / 1000);
+      }
+      generator.writeEndObject();
+    } catch(IOException ex){
+      throw new InvalidAuthenticationException("Failed to create JWToken.", ex);
+    }
+
+    Signer current = currentSigner();
+    byte[] headerSegment = current.headerSegment;
+    byte[] payloadSegment = BASE64URL.encode(payload.toByteArray());
+    byte[] signingInput = new byte[headerSegment.length + 1 + payloadSegment.length];
+    System.arraycopy(headerSegment, 0, signingInput, 0, headerSegment.length);
+    signingInput[headerSegment.length] = '.';
+    System.arraycopy(payloadSegment, 0, signingInput, headerSegment.length + 1, payloadSegment.length);
+
+    byte[] signature = current.sign(signingInput);
+
+    return new StringBuilder(signingInput.length + 1 + 88).
+            append(new String(signingInput, StandardCharsets.US_ASCII)).
+            append('.').
+            append(BASE64URL.encodeToString(signature)).toString();
+  }
+
+  /**
+   * Get the algorithm used to sign tokens.
+   *
+   * @return The signature algorithm.
+   */
+  public SignatureAlgorithm getAlgorithm(){
+    return currentSigner().algorithm;
+  }
+
+  /**
+   * Get the key id written to the token header.
+   *
+   * @return The key id or null if tokens are signed using the shared secret.
+   */
+  public String getKeyId(){
+    JwtSigningKey key = currentSigner().key;
+    return (key != null) ? key.getKeyId() : null;
+  }
+
+  /**
+   * Build the claims of a token issued to the provided user for the provided
+   * group. Each token gets a unique token id ('jti') and the issue date ('iat'),
+   * which allow to revoke single tokens or all tokens of a user issued before a
+   * certain date. Claims with null values are omitted, as done by jjwt.
+   *
+   * @param user The user the token is issued to.
+   * @param groupId The id of the group the token is associated with.
+   *
+   * @return The claim map.
+   */
+  public static Map<String, Object> userClaims(RepoUser user, String groupId){
+    Map<String, Object> claims = new HashMap<>();
+    claims.put("jti", UUID.randomUUID().toString());
+    claims.put("iat", System.currentTimeMillis() / 1000);
+    putClaim(claims, "username", user.getUsername());
+    putClaim(claims, "firstname", user.getFirstname());
+    putClaim(claims, "lastname", user.getLastname());
+    putClaim(claims, "email", user.getEmail());
+    putClaim(claims, "groupid", groupId);
+    putClaim(claims, "roles", rolesClaim(user.getRolesAsEnum()));
+    return claims;
+  }
+
+  private static void putClaim(Map<String, Object> claims, String key, Object value){
+    if(value != null){
+      claims.put(key, value);
+    }
+  }
+
+  /**
+   * Render the provided roles as JSON array string as expected in the 'roles'
+   * claim of a user token. Duplicate roles are removed.
+   *
+   * @param roles The roles to render.
+   *
+   * @return The JSON array, e.g. ["ROLE_USER","ROLE_ADMINISTRATOR"].
+   */
+  public static String rolesClaim(Collection<RepoUserRole> roles){
+    StringWriter writer = new StringWriter(64);
+    try(JsonGenerator generator = JSON_FACTORY.createGenerator(writer)){
+      generator.writeStartArray();
+      if(roles != null && !roles.isEmpty()){
+        for(RepoUserRole role : EnumSet.copyOf(roles)){
+          generator.writeString(role.toString());
+        }
+      }
+      generator.writeEndArray();
+    } catch(IOException ex){
+      throw new InvalidAuthenticationException("Failed to serialize roles " + roles + " to JSON.", ex);
+    }
+    return writer.toString();
+  }
+
+  private void writeClaim(JsonGenerator generator, String key, Object value) throws IOException{
+    if(value == null){
+      return;
+    }
+    if(value instanceof String){
+      generator.writeStringField(key, (String) value);
+    } else if(value instanceof Integer || value instanceof Long){
+      generator.writeNumberField(key, ((Number) value).longValue());
+    } else if(value instanceof Number){
+      generator.writeFieldName(key);
+      generator.writeNumber(value.toString());
+    } else if(value instanceof Boolean){
+      generator.writeBooleanField(key, (Boolean) value);
+    } else{
+      generator.writeStringField(key, value.toString());
+    }
+  }
+
+  private Signer currentSigner(){
+    Signer current = signer;
+    if(keySet != null){
+      JwtSigningKey signingKey = keySet.getSigningKey();
+      if(current.key != signingKey){
+        //signing key has been rotated, per-key work is done once for the new key
+        current = new KeySigner(signingKey);
+        signer = current;
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Per-key signing state, i.e. the encoded header segment and one initialized
+   * signature engine per thread.
+   */
+  private abstract static class Signer{
+
+    final SignatureAlgorithm algorithm;
+    final JwtSigningKey key;
+    final byte[] headerSegment;
+
+    Signer(SignatureAlgorithm algorithm, JwtSigningKey key){
+      this.algorithm = algorithm;
+      this.key = key;
+      String header = "{\"alg\":\"" + algorithm.getValue() + "\"" + ((key != null) ? ",\"kid\":\"" + key.getKeyId() + "\"" : "") + "}";
+      this.headerSegment = BASE64URL.encode(header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    abstract byte[] sign(byte[] signingInput);
+  }
+
+  private static final class HmacSigner extends Signer{
+
+    private final ThreadLocal<Mac> macs;
+
+    HmacSigner(SecretKeySpec secretKey){
+      super(HMAC_ALGORITHM, null);
+      this.macs = ThreadLocal.withInitial(() -> {
+        try{
+          Mac mac = Mac.getInstance(algorithm.getJcaName());
+          mac.init(secretKey);
+          return mac;
+        } catch(GeneralSecurityException ex){
+          throw new IllegalStateException("Unable to initialize " + algorithm.getJcaName() + " for token signing.", ex);
+        }
+      });
+      //fail early if the key cannot be used for signing
+      macs.get();
+    }
+
+    @Override
+    byte[] sign(byte[] signingInput){
+      return macs.get().doFinal(signingInput);
+    }
+  }
+
+  private static final class KeySigner extends Signer{
+
+    private final ThreadLocal<Signature> signatures;
+
+    KeySigner(JwtSigningKey key){
+      super(key.getAlgorithm(), key);
+      this.signatures = ThreadLocal.withInitial(() -> {
+        try{
+          Signature signature = Signature.getInstance(algorithm.getJcaName());
+          signature.initSign(key.getPrivateKey());
+          return signature;
+        } catch(GeneralSecurityException ex){
+          throw new IllegalStateException("Unable to initialize " + algorithm.getJcaName() + " for token signing.", ex);
+        }
+      });
+      //fail early if the key cannot be used for signing
+      signatures.get();
+    }
+
+    @Override
+    byte[] sign(byte[] signingInput){
+      try{
+        Signature signature = signatures.get();
+        signature.update(signingInput);
+        byte[] result = signature.sign();
+        if(algorithm.isEllipticCurve()){
+          //JWS uses the concatenation of R and S instead of the DER encoding returned by the JCA
+          result = EllipticCurveProvider.transcodeSignatureToConcat(result, EllipticCurveProvider.getSignatureByteArrayLength(algorithm));
+        }
+        return result;
+      } catch(GeneralSecurityException | JwtException ex){
+        throw new InvalidAuthenticationException("Failed to sign JWToken.", ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import edu.kit.datamanager.auth.exceptions.LoginCapacityExceededException;
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Filter translating LoginCapacityExceededExceptions thrown during
+ * authentication into HTTP SERVICE_UNAVAILABLE (503) responses carrying a
+ * Retry-After header. The filter has to be placed in front of the
+ * BasicAuthenticationFilter, as exceptions thrown by the filter chain are not
+ * handled by the controller advice.
+ *
+ * @author jejkal
+ */
+public class LoginCapacityFilter extends OncePerRequestFilter{
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException{
+    try{
+      chain.doFilter(request, response);
+    } catch(LoginCapacityExceededException ex){
+      SecurityContextHolder.clearContext();
+      if(!response.isCommitted()){
+        response.setHeader(HttpHeaders.RETRY_AFTER, Integer.toString(ex.getRetryAfter()));
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+      }
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import edu.kit.datamanager.auth.domain.RepoUser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Coalescing of concurrent logins using identical credentials. If many clients,
+ * e.g. CI jobs sharing a service account, login at the same time, only the
+ * first login loads the user and verifies the password. All concurrent logins
+ * with the same username and password wait for this verification and receive
+ * its result, i.e. a copy of the authenticated user or the same exception.
+ * Logins with different passwords are never coalesced, as passwords are
+ * distinguished by their HMAC using a random key generated at startup. Raw
+ * passwords are not retained.
+ *
+ * The following metrics are published:
+ * <ul>
+ * <li>auth.login.verifications - Number of logins, tagged by result (verified,
+ * coalesced).</li>
+ * <li>auth.login.inflight - Number of verifications currently in
+ * progress.</li>
+ * </ul>
+ *
+ * @author jejkal
+ */
+public class LoginCoalescer{
+
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+  private final ConcurrentHashMap<String, CompletableFuture<RepoUser>> inFlight = new ConcurrentHashMap<>();
+  private final SecretKeySpec fingerprintKey;
+  private final Counter verified;
+  private final Counter coalesced;
+
+  /**
+   * Create a new login coalescer.
+   *
+   * @param meterRegistry The registry used to publish metrics.
+   */
+  public LoginCoalescer(MeterRegistry meterRegistry){
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+    fingerprintKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+    verified = Counter.builder("auth.login.verifications").tag("result", "verified").description("Number of logins.").register(meterRegistry);
+    coalesced = Counter.builder("auth.login.verifications").tag("result", "coalesced").description("Number of logins.").register(meterRegistry);
+    Gauge.builder("auth.login.inflight", inFlight, ConcurrentHashMap::size).description("Number of login verifications in progress.").register(meterRegistry);
+  }
+
+  /**
+   * Verify the provided credentials using the provided verification or join a
+   * verification of identical credentials already in progress.
+   *
+   * @param username The username.
+   * @param password The raw password.
+   * @param verification The verification returning the authenticated user or
+   * throwing an exception if the credentials are invalid.
+   *
+   * @return The authenticated user. Each caller receives its own copy.
+   */
+  public RepoUser verify(String username, String password, Supplier<RepoUser> verification){
+    if(username == null || password == null){
+      return verification.get();
+    }
+    String key = username + ":" + fingerprint(password);
+    CompletableFuture<RepoUser> own = new CompletableFuture<>();
+    CompletableFuture<RepoUser> existing = inFlight.putIfAbsent(key, own);
+    if(existing == null){
+      verified.increment();
+      try{
+        RepoUser user = verification.get();
+        //waiters obtain copies of a snapshot, which is not affected by modifications of the returned user
+        own.complete((user != null) ? user.copy() : null);
+        return user;
+      } catch(Throwable ex){
+        //errors have to be shared as well, otherwise waiters would block forever
+        own.completeExceptionally(ex);
+        throw ex;
+      } finally{
+        inFlight.remove(key, own);
+      }
+    }
+
+    coalesced.increment();
+    try{
+      RepoUser user = existing.join();
+      return (user != null) ? user.copy() : null;
+    } catch(CompletionException ex){
+      if(ex.getCause() instanceof RuntimeException){
+        throw (RuntimeException) ex.getCause();
+      }
+      if(ex.getCause() instanceof Error){
+        throw (Error) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private String fingerprint(String password){
+    try{
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(fingerprintKey);
+      return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+    } catch(GeneralSecurityException ex){
+      throw new IllegalStateException(HMAC_ALGORITHM + " not supported.", ex);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Filter throttling requests carrying HTTP Basic credentials before they reach
+ * the authentication manager, i.e. before any database lookup or password
+ * verification. Throttled requests are answered with HTTP TOO_MANY_REQUESTS
+ * (429) and a Retry-After header. Requests without Basic credentials are not
+ * affected. Two limits apply:
+ * <ul>
+ * <li>All requests with Basic credentials are limited per client
+ * address.</li>
+ * <li>Failed authentications, i.e. requests answered with HTTP UNAUTHORIZED
+ * (401), are limited per username and client address. Successful logins are
+ * not counted, e.g. many CI jobs sharing a service account are not throttled.
+ * As the limit includes the client address, sending wrong passwords for a known
+ * username only throttles the sender instead of locking out the user
+ * everywhere. In turn, guessing passwords of one user from many addresses is
+ * only limited by the address limit and the locking of users after repeated
+ * login failures.</li>
+ * </ul>
+ * The client address is obtained from the request, i.e. if the service is
+ * running behind a reverse proxy, forwarded headers have to be enabled in
+ * order to distinguish clients.
+ *
+ * The following metrics are published:
+ * <ul>
+ * <li>auth.login.throttled - Number of throttled requests, tagged by key
+ * (address, username for failed authentications per username and
+ * address).</li>
+ * </ul>
+ *
+ * @author jejkal
+ */
+public class LoginThrottleFilter extends OncePerRequestFilter{
+
+  private static final String BASIC_PREFIX = "Basic ";
+
+  private final ShardedRateLimiter addressLimiter;
+  private final ShardedRateLimiter usernameLimiter;
+  private final Counter addressThrottled;
+  private final Counter usernameThrottled;
+
+  /**
+   * Create a new login throttle filter.
+   *
+   * @param addressLimiter The limiter for client addresses or null to not
+   * throttle by address.
+   * @param usernameLimiter The limiter for failed authentications per username
+   * and client address or null to not throttle failed authentications.
+   * @param meterRegistry The registry used to publish metrics.
+   */
+  public LoginThrottleFilter(ShardedRateLimiter addressLimiter, ShardedRateLimiter usernameLimiter, MeterRegistry meterRegistry){
+    this.addressLimiter = addressLimiter;
+    this.usernameLimiter = usernameLimiter;
+    addressThrottled = Counter.builder("auth.login.throttled").tag("key", "address").description("Number of throttled login attempts.").register(meterRegistry);
+    usernameThrottled = Counter.builder("auth.login.throttled").tag("key", "username").description("Number of throttled login attempts.").register(meterRegistry);
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException{
+    String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+    if(header == null || !header.regionMatches(true, 0, BASIC_PREFIX, 0, BASIC_PREFIX.length())){
+      chain.doFilter(request, response);
+      return;
+    }
+
+    String address = request.getRemoteAddr();
+    if(addressLimiter != null){
+      long wait = addressLimiter.tryAcquire(address);
+      if(wait > 0){
+        addressThrottled.increment();
+        reject(response, wait);
+        return;
+      }
+    }
+    String username = (usernameLimiter != null) ? getUsername(header) : null;
+    if(username == null){
+      chain.doFilter(request, response);
+      return;
+    }
+    String key = username.toLowerCase() + "@" + address;
+    long wait = usernameLimiter.getWait(key);
+    if(wait > 0){
+      usernameThrottled.increment();
+      reject(response, wait);
+      return;
+    }
+    chain.doFilter(request, response);
+    //only failed authentications are counted
+    if(response.getStatus() == HttpStatus.UNAUTHORIZED.value()){
+      usernameLimiter.tryAcquire(key);
+    }
+  }
+
+  private void reject(HttpServletResponse response, long waitNanos){
+    long retryAfter = Math.max(1, (TimeUnit.NANOSECONDS.toMillis(waitNanos) + 999) / 1000);
+    response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+    response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+  }
+
+  private String getUsername(String header){
+    try{
+      String credentials = new String(Base64.getDecoder().decode(header.substring(BASIC_PREFIX.length()).trim()), StandardCharsets.UTF_8);
+      int delimiter = credentials.indexOf(':');
+      return (delimiter < 0) ? null : credentials.substring(0, delimiter);
+    } catch(IllegalArgumentException ex){
+      //malformed credentials are rejected by the BasicAuthenticationFilter
+      return null;
+    }
+  }
+}
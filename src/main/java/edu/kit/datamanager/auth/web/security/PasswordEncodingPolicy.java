@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import edu.kit.datamanager.auth.domain.RepoUser;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+
+/**
+ * Policy selecting the password hashing algorithm per account. Encoded
+ * passwords are prefixed by the id of their algorithm, e.g. '{bcrypt}' or
+ * '{pbkdf2}', which allows to verify passwords of all supported algorithms
+ * independent of the algorithm currently selected for an account. Passwords
+ * stored before prefixes have been introduced are BCrypt hashes and are
+ * verified as such.
+ *
+ * The algorithm of an account is selected by its 'passwordAlgorithm'
+ * attribute. If not set, the default algorithm is used. PBKDF2 allows cheap
+ * verifications, e.g. for service accounts authenticating very frequently,
+ * whereas BCrypt should be used for human users.
+ *
+ * @author jejkal
+ */
+public class PasswordEncodingPolicy{
+
+  /**
+   * Id of the BCrypt algorithm.
+   */
+  public static final String BCRYPT = "bcrypt";
+  /**
+   * Id of the PBKDF2 algorithm using HMAC-SHA256.
+   */
+  public static final String PBKDF2 = "pbkdf2";
+
+  private final String defaultAlgorithm;
+  private final Map<String, PasswordEncoder> encoders;
+
+  /**
+   * Create a new policy.
+   *
+   * @param defaultAlgorithm The id of the algorithm used for accounts without
+   * algorithm.
+   * @param bcryptEncoder The encoder used for algorithm 'bcrypt'.
+   * @param pbkdf2Iterations The number of iterations used for algorithm
+   * 'pbkdf2'.
+   */
+  public PasswordEncodingPolicy(String defaultAlgorithm, BCryptPasswordEncoder bcryptEncoder, int pbkdf2Iterations){
+    Map<String, PasswordEncoder> delegates = new HashMap<>();
+    delegates.put(BCRYPT, bcryptEncoder);
+    Pbkdf2PasswordEncoder pbkdf2Encoder = new Pbkdf2PasswordEncoder("", pbkdf2Iterations, 256);
+    pbkdf2Encoder.setAlgorithm(Pbkdf2PasswordEncoder.SecretKeyFactoryAlgorithm.PBKDF2WithHmacSHA256);
+    delegates.put(PBKDF2, pbkdf2Encoder);
+
+    if(!delegates.containsKey(defaultAlgorithm)){
+      throw new IllegalArgumentException("Unsupported password algorithm '" + defaultAlgorithm + "'. Supported algorithms are " + delegates.keySet() + ".");
+    }
+    this.defaultAlgorithm = defaultAlgorithm;
+    encoders = new HashMap<>();
+    for(String id : delegates.keySet()){
+      DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder(id, delegates);
+      //unprefixed passwords have been encoded using BCrypt
+      encoder.setDefaultPasswordEncoderForMatches(bcryptEncoder);
+      encoders.put(id, encoder);
+    }
+  }
+
+  /**
+   * Get the encoder for the provided algorithm. The returned encoder encodes
+   * using the provided algorithm, verifies passwords of all supported
+   * algorithms and reports passwords of other algorithms as to be upgraded.
+   *
+   * @param algorithm The algorithm id or null for the default algorithm.
+   *
+   * @return The encoder.
+   *
+   * @throws IllegalArgumentException if the algorithm is not supported.
+   */
+  public PasswordEncoder forAlgorithm(String algorithm){
+    PasswordEncoder encoder = encoders.get((algorithm != null) ? algorithm : defaultAlgorithm);
+    if(encoder == null){
+      throw new IllegalArgumentException("Unsupported password algorithm '" + algorithm + "'. Supported algorithms are " + encoders.keySet() + ".");
+    }
+    return encoder;
+  }
+
+  /**
+   * Get the encoder for the provided user.
+   *
+   * @param user The user.
+   *
+   * @return The encoder for the algorithm of the user.
+   *
+   * @throws IllegalArgumentException if the algorithm of the user is not
+   * supported.
+   */
+  public PasswordEncoder forUser(RepoUser user){
+    return forAlgorithm(user.getPasswordAlgorithm());
+  }
+
+  /**
+   * Get the encoder for the default algorithm, which may also be used to
+   * verify passwords of any supported algorithm.
+   *
+   * @return The default encoder.
+   */
+  public PasswordEncoder getDefaultEncoder(){
+    return encoders.get(defaultAlgorithm);
+  }
+
+  /**
+   * Get the ids of all supported algorithms.
+   *
+   * @return The algorithm ids.
+   */
+  public Set<String> getAlgorithms(){
+    return Collections.unmodifiableSet(encoders.keySet());
+  }
+}
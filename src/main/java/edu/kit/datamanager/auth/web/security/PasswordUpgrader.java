@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.service.IUserService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * Re-encoding of passwords stored with an outdated configuration, e.g. a lower
+ * BCrypt work factor or another algorithm than selected for the particular
+ * user by the password encoding policy. As the raw password is only known during login, the
+ * password is re-encoded after a successful login. Re-encoding is done by a
+ * single background thread, such that logins are not delayed. If the queue of
+ * pending re-encodings is full, the re-encoding is skipped and performed at one
+ * of the next logins.
+ *
+ * The following metrics are published:
+ * <ul>
+ * <li>auth.password.upgrades - Number of re-encoded passwords, tagged by result
+ * (upgraded, skipped, failed).</li>
+ * </ul>
+ *
+ * @author jejkal
+ */
+public class PasswordUpgrader{
+
+  private final PasswordEncodingPolicy passwordEncodingPolicy;
+  private final IUserService userService;
+  private final Logger logger;
+  private final ThreadPoolExecutor executor;
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private final Counter upgraded;
+  private final Counter skipped;
+  private final Counter failed;
+
+  /**
+   * Create a new password upgrader.
+   *
+   * @param passwordEncodingPolicy The policy selecting the encoder per user.
+   * @param userService The service used to store re-encoded passwords.
+   * @param queueCapacity The max. number of pending re-encodings.
+   * @param meterRegistry The registry used to publish metrics.
+   * @param logger The logger.
+   */
+  public PasswordUpgrader(PasswordEncodingPolicy passwordEncodingPolicy, IUserService userService, int queueCapacity, MeterRegistry meterRegistry, Logger logger){
+    this.passwordEncodingPolicy = passwordEncodingPolicy;
+    this.userService = userService;
+    this.logger = logger;
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("password-upgrade-");
+    threadFactory.setDaemon(true);
+    //re-encoding is optional, thus, a busy upgrader rejects further work instead of consuming more hashing capacity
+    executor = new ThreadPoolExecutor(1, 1, 0l, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    upgraded = Counter.builder("auth.password.upgrades").tag("result", "upgraded").description("Number of re-encoded passwords.").register(meterRegistry);
+    skipped = Counter.builder("auth.password.upgrades").tag("result", "skipped").description("Number of re-encoded passwords.").register(meterRegistry);
+    failed = Counter.builder("auth.password.upgrades").tag("result", "failed").description("Number of re-encoded passwords.").register(meterRegistry);
+  }
+
+  /**
+   * Check whether the password of the provided user has to be re-encoded and,
+   * if so, schedule its re-encoding. This method returns immediately.
+   *
+   * @param user The user with the currently stored, encoded password.
+   * @param rawPassword The verified raw password.
+   *
+   * @return TRUE if a re-encoding has been scheduled, FALSE otherwise.
+   */
+  public boolean upgradeIfNeeded(RepoUser user, String rawPassword){
+    PasswordEncoder encoder;
+    try{
+      encoder = passwordEncodingPolicy.forUser(user);
+    } catch(IllegalArgumentException ex){
+      logger.warn("Not re-encoding password of user {}. {}", user.getUsername(), ex.getMessage());
+      return false;
+    }
+    String username = user.getUsername();
+    String encodedPassword = user.getPassword();
+    if(!encoder.upgradeEncoding(encodedPassword) || !pending.add(username)){
+      return false;
+    }
+    try{
+      executor.execute(() -> upgrade(username, encoder, rawPassword, encodedPassword));
+      return true;
+    } catch(RejectedExecutionException ex){
+      pending.remove(username);
+      skipped.increment();
+      return false;
+    }
+  }
+
+  private void upgrade(String username, PasswordEncoder encoder, String rawPassword, String encodedPassword){
+    try{
+      if(userService.upgradePassword(username, encodedPassword, encoder.encode(rawPassword))){
+        logger.debug("Re-encoded password of user {}.", username);
+        upgraded.increment();
+      } else{
+        //the password has been changed in the meantime
+        skipped.increment();
+      }
+    } catch(RuntimeException ex){
+      logger.warn("Failed to re-encode password of user " + username + ".", ex);
+      failed.increment();
+    } finally{
+      pending.remove(username);
+    }
+  }
+
+  /**
+   * Shutdown the re-encoding thread. Called by the container on context
+   * shutdown.
+   */
+  public void shutdown(){
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import edu.kit.datamanager.auth.exceptions.LoginCapacityExceededException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * Password verification using a dedicated, size-limited thread pool. Password
+ * hashing is intentionally expensive. Running it on the request threads allows
+ * a login storm to occupy all request threads, which starves all other
+ * endpoints. Therefore, verifications are executed by a fixed number of hashing
+ * threads with a bounded queue. If the queue is full or if a verification could
+ * not be completed within the configured maximum wait time, a
+ * LoginCapacityExceededException is thrown, which is translated to HTTP
+ * SERVICE_UNAVAILABLE (503) by the LoginCapacityFilter.
+ *
+ * The following metrics are published:
+ * <ul>
+ * <li>auth.password.verification.queue - Number of waiting
+ * verifications.</li>
+ * <li>auth.password.verification.active - Number of running
+ * verifications.</li>
+ * <li>auth.password.verification.wait - Time between submission and start of a
+ * verification.</li>
+ * <li>auth.password.verification.rejected - Number of rejected verifications,
+ * tagged by reason (queue_full, timeout).</li>
+ * </ul>
+ *
+ * @author jejkal
+ */
+public class PasswordVerifier{
+
+  private final PasswordEncoder passwordEncoder;
+  private final ThreadPoolExecutor executor;
+  private final long maxWaitMillis;
+  private final int retryAfter;
+  private final Timer waitTimer;
+  private final Counter queueFullRejections;
+  private final Counter timeoutRejections;
+  private volatile String dummyPassword;
+
+  /**
+   * Create a new password verifier.
+   *
+   * @param passwordEncoder The encoder used to check passwords.
+   * @param threads The number of hashing threads. If smaller than 1, the number
+   * of available processors is used.
+   * @param queueCapacity The max. number of verifications waiting for a hashing
+   * thread.
+   * @param maxWaitMillis The max. time in milliseconds a caller waits for the
+   * verification result.
+   * @param retryAfter The number of seconds returned to rejected callers as
+   * Retry-After value.
+   * @param meterRegistry The registry used to publish metrics.
+   */
+  public PasswordVerifier(PasswordEncoder passwordEncoder, int threads, int queueCapacity, long maxWaitMillis, int retryAfter, MeterRegistry meterRegistry){
+    this.passwordEncoder = passwordEncoder;
+    this.maxWaitMillis = maxWaitMillis;
+    this.retryAfter = retryAfter;
+    int poolSize = (threads < 1) ? Runtime.getRuntime().availableProcessors() : threads;
+    BlockingQueue<Runnable> queue = (queueCapacity < 1) ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueCapacity);
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("password-verification-");
+    threadFactory.setDaemon(true);
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0l, TimeUnit.MILLISECONDS, queue, threadFactory, new ThreadPoolExecutor.AbortPolicy());
+
+    Gauge.builder("auth.password.verification.queue", executor, (e) -> e.getQueue().size()).description("Number of password verifications waiting for a hashing thread.").register(meterRegistry);
+    Gauge.builder("auth.password.verification.active", executor, ThreadPoolExecutor::getActiveCount).description("Number of running password verifications.").register(meterRegistry);
+    waitTimer = Timer.builder("auth.password.verification.wait").description("Time password verifications are waiting for a hashing thread.").register(meterRegistry);
+    queueFullRejections = Counter.builder("auth.password.verification.rejected").tag("reason", "queue_full").description("Number of rejected password verifications.").register(meterRegistry);
+    timeoutRejections = Counter.builder("auth.password.verification.rejected").tag("reason", "timeout").description("Number of rejected password verifications.").register(meterRegistry);
+  }
+
+  /**
+   * Check whether the provided raw password matches the encoded password. The
+   * check is performed by the hashing pool while the caller is waiting for the
+   * result.
+   *
+   * @param rawPassword The password provided by the caller.
+   * @param encodedPassword The stored, encoded password.
+   *
+   * @return TRUE if both passwords match, FALSE otherwise.
+   *
+   * @throws LoginCapacityExceededException if the verification was rejected or
+   * did not finish in time.
+   */
+  public boolean matches(String rawPassword, String encodedPassword){
+    final long submitted = System.nanoTime();
+    Future<Boolean> result;
+    try{
+      result = executor.submit(() -> {
+        waitTimer.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+        return passwordEncoder.matches(rawPassword, encodedPassword);
+      });
+    } catch(RejectedExecutionException ex){
+      queueFullRejections.increment();
+      throw new LoginCapacityExceededException("Too many concurrent login attempts.", retryAfter);
+    }
+
+    try{
+      return result.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+    } catch(TimeoutException ex){
+      result.cancel(true);
+      timeoutRejections.increment();
+      throw new LoginCapacityExceededException("Password verification timed out.", retryAfter);
+    } catch(InterruptedException ex){
+      result.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new LoginCapacityExceededException("Password verification has been interrupted.", retryAfter);
+    } catch(ExecutionException ex){
+      Throwable cause = ex.getCause();
+      if(cause instanceof RuntimeException){
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Password verification failed.", cause);
+    }
+  }
+
+  /**
+   * Perform a verification of the provided raw password against a dummy hash,
+   * which never matches. This is used for unknown or disabled users in order to
+   * spend the same time for the login attempt as for existing users and to not
+   * reveal the existence of a user by the response time.
+   *
+   * @param rawPassword The password provided by the caller.
+   *
+   * @throws LoginCapacityExceededException if the verification was rejected or
+   * did not finish in time.
+   */
+  public void matchesDummy(String rawPassword){
+    matches(rawPassword, getDummyPassword());
+  }
+
+  private String getDummyPassword(){
+    String result = dummyPassword;
+    if(result == null){
+      //hashed with the default encoder in order to have the same cost as for newly created users
+      result = passwordEncoder.encode(UUID.randomUUID().toString());
+      dummyPassword = result;
+    }
+    return result;
+  }
+
+  /**
+   * Get the encoder used for password verification.
+   *
+   * @return The password encoder.
+   */
+  public PasswordEncoder getPasswordEncoder(){
+    return passwordEncoder;
+  }
+
+  /**
+   * Shutdown the hashing pool. Called by the container on context shutdown.
+   */
+  public void shutdown(){
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+
+/**
+ * Unauthenticated request to authenticate using a personal access token.
+ *
+ * @author jejkal
+ */
+public class PersonalAccessTokenAuthentication extends AbstractAuthenticationToken{
+
+  private final String token;
+
+  public PersonalAccessTokenAuthentication(String token){
+    super(null);
+    this.token = token;
+    setAuthenticated(false);
+  }
+
+  @Override
+  public Object getCredentials(){
+    return token;
+  }
+
+  @Override
+  public Object getPrincipal(){
+    return null;
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import edu.kit.datamanager.auth.domain.PersonalAccessToken;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.service.IGroupService;
+import edu.kit.datamanager.auth.service.IPersonalAccessTokenService;
+import edu.kit.datamanager.auth.service.IUserService;
+import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.security.filter.JwtAuthenticationToken;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Authentication provider for personal access tokens. A verified personal
+ * access token is converted into a short-lived JSON Web Token associated with
+ * the group of the personal access token and carrying the current roles of the
+ * user limited to the scopes of the personal access token. Thus, personal
+ * access tokens are handled like any other token by all endpoints and can also
+ * be used at /api/v1/login in order to obtain a JSON Web Token for other
+ * services. Minted tokens carry the prefix of the personal access token as
+ * claim 'pat'. Such tokens can neither be exchanged for tokens of other groups
+ * nor be used to create further personal access tokens, as both would allow to
+ * exceed the scopes or the expiration date of the personal access token.
+ *
+ * @author jejkal
+ */
+public class PersonalAccessTokenAuthenticationProvider implements AuthenticationProvider{
+
+  /**
+   * Claim holding the prefix of the personal access token a JSON Web Token has
+   * been minted for.
+   */
+  public static final String PAT_CLAIM = "pat";
+  private static final String USERS_GROUP = "USERS";
+
+  private final IPersonalAccessTokenService tokenService;
+  private final IUserService userService;
+  private final IGroupService groupService;
+  private final JwtTokenMinter tokenMinter;
+  private final long tokenLifetime;
+  private final Logger logger;
+
+  /**
+   * Create a new provider.
+   *
+   * @param tokenService The service used to verify personal access tokens.
+   * @param userService The service used to load users.
+   * @param groupService The service used to check group memberships.
+   * @param tokenMinter The minter of JSON Web Tokens.
+   * @param tokenLifetime The max. lifetime of minted JSON Web Tokens in seconds.
+   * @param logger The logger.
+   */
+  public PersonalAccessTokenAuthenticationProvider(IPersonalAccessTokenService tokenService, IUserService userService, IGroupService groupService, JwtTokenMinter tokenMinter, long tokenLifetime, Logger logger){
+    this.tokenService = tokenService;
+    this.userService = userService;
+    this.groupService = groupService;
+    this.tokenMinter = tokenMinter;
+    this.tokenLifetime = tokenLifetime;
+    this.logger = logger;
+  }
+
+  @Override
+  public boolean supports(Class<?> authentication){
+    return PersonalAccessTokenAuthentication.class.isAssignableFrom(authentication);
+  }
+
+  @Override
+  public Authentication authenticate(Authentication authentication) throws AuthenticationException{
+    PersonalAccessToken pat = tokenService.verify((String) authentication.getCredentials());
+    if(pat == null){
+      throw new BadCredentialsException("Invalid personal access token.");
+    }
+    RepoUser user = userService.loadUserByUsername(pat.getUsername());
+    if(user == null || !user.isEnabled()){
+      logger.warn("Personal access token {} belongs to disabled user {}.", pat.getPrefix(), pat.getUsername());
+      throw new BadCredentialsException("Invalid personal access token.");
+    }
+    if(!USERS_GROUP.equals(pat.getGroupId()) && !groupService.isActiveMember(pat.getGroupId(), pat.getUsername())){
+      logger.warn("User {} is no longer active member of group {} of personal access token {}.", pat.getUsername(), pat.getGroupId(), pat.getPrefix());
+      throw new BadCredentialsException("Invalid personal access token.");
+    }
+    //the loaded user is a copy and can be modified safely
+    Collection<RepoUserRole> roles = new ArrayList<>(user.getRolesAsEnum());
+    roles.retainAll(pat.getScopes());
+    user.setRolesAsEnum(roles);
+
+    long expiresAt = System.currentTimeMillis() + tokenLifetime * 1000;
+    if(pat.getExpiresAt() != null){
+      expiresAt = Math.min(expiresAt, pat.getExpiresAt().getTime());
+    }
+    Map<String, Object> claims = JwtTokenMinter.userClaims(user, pat.getGroupId());
+    claims.put(PAT_CLAIM, pat.getPrefix());
+    logger.debug("Successful authentication of user {} using personal access token {}.", pat.getUsername(), pat.getPrefix());
+    return JwtAuthenticationToken.factoryToken(tokenMinter.mint(claims, new Date(expiresAt)), claims);
+  }
+
+  /**
+   * Check whether the provided authentication has been obtained using a
+   * personal access token, either directly or by presenting a JSON Web Token
+   * minted for a personal access token.
+   *
+   * @param authentication The authentication.
+   *
+   * @return TRUE if the authentication is derived from a personal access token.
+   */
+  public static boolean isPersonalAccessTokenAuthentication(Authentication authentication){
+    if(!(authentication instanceof JwtAuthenticationToken)){
+      return false;
+    }
+    return TokenRevocationList.TokenInfo.of(((JwtAuthenticationToken) authentication).getToken()).getPersonalAccessToken() != null;
+  }
+}
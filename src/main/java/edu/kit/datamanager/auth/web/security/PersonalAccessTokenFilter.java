@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Filter authenticating requests carrying a personal access token in the
+ * header 'Authorization: Token &lt;TOKEN&gt;'. Requests with an invalid token
+ * are rejected with HTTP UNAUTHORIZED (401). Requests without such header are
+ * passed on unchanged.
+ *
+ * @author jejkal
+ */
+public class PersonalAccessTokenFilter extends OncePerRequestFilter{
+
+  private static final String SCHEME = "Token ";
+
+  private final AuthenticationManager authenticationManager;
+
+  public PersonalAccessTokenFilter(AuthenticationManager authenticationManager){
+    this.authenticationManager = authenticationManager;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException{
+    String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+    if(header == null || !header.regionMatches(true, 0, SCHEME, 0, SCHEME.length())){
+      chain.doFilter(request, response);
+      return;
+    }
+    try{
+      SecurityContextHolder.getContext().setAuthentication(authenticationManager.authenticate(new PersonalAccessTokenAuthentication(header.substring(SCHEME.length()).trim())));
+    } catch(AuthenticationException ex){
+      SecurityContextHolder.clearContext();
+      response.setStatus(HttpStatus.UNAUTHORIZED.value());
+      return;
+    }
+    chain.doFilter(request, response);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free rate limiter with bounded memory. Keys are hashed onto a fixed
+ * number of buckets, each behaving like a token bucket with the configured
+ * rate and burst size. The state of a bucket is a single timestamp, the time
+ * at which the bucket will be full again (generic cell rate algorithm), which
+ * is updated via compare-and-set. Therefore, memory consumption only depends on
+ * the number of buckets. Keys sharing a bucket share their limit, i.e. hash
+ * collisions may only make the limit stricter.
+ *
+ * @author jejkal
+ */
+public class ShardedRateLimiter{
+
+  private final AtomicLongArray buckets;
+  private final int mask;
+  private final long interval;
+  private final long tolerance;
+  private final long origin = System.nanoTime();
+
+  /**
+   * Create a new rate limiter.
+   *
+   * @param requestsPerMinute The number of permits per key and minute.
+   * @param burst The number of permits a key may obtain at once.
+   * @param buckets The number of buckets, rounded up to the next power of two.
+   */
+  public ShardedRateLimiter(int requestsPerMinute, int burst, int buckets){
+    if(requestsPerMinute < 1 || burst < 1 || buckets < 1){
+      throw new IllegalArgumentException("Rate, burst and number of buckets must be positive.");
+    }
+    int capped = Math.min(buckets, 1 << 30);
+    int size = Integer.highestOneBit(capped);
+    size = (size < capped) ? size << 1 : size;
+    this.buckets = new AtomicLongArray(size);
+    this.mask = size - 1;
+    this.interval = TimeUnit.MINUTES.toNanos(1) / requestsPerMinute;
+    this.tolerance = interval * (burst - 1);
+  }
+
+  /**
+   * Try to obtain a permit for the provided key.
+   *
+   * @param key The key, e.g. a client address or username.
+   *
+   * @return 0 if a permit has been obtained, otherwise the number of
+   * nanoseconds until the next permit will be available.
+   */
+  public long tryAcquire(String key){
+    int index = spread(key.hashCode()) & mask;
+    long now = System.nanoTime() - origin;
+    while(true){
+      long full = buckets.get(index);
+      long start = Math.max(full, now);
+      long wait = start - now - tolerance;
+      if(wait > 0){
+        return wait;
+      }
+      if(buckets.compareAndSet(index, full, start + interval)){
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Get the time until a permit will be available for the provided key without
+   * obtaining a permit.
+   *
+   * @param key The key, e.g. a client address or username.
+   *
+   * @return 0 if a permit is available, otherwise the number of nanoseconds
+   * until the next permit will be available.
+   */
+  public long getWait(String key){
+    long now = System.nanoTime() - origin;
+    long start = Math.max(buckets.get(spread(key.hashCode()) & mask), now);
+    return Math.max(0, start - now - tolerance);
+  }
+
+  private static int spread(int hash){
+    //murmur3 finalizer, distributes similar keys, e.g. addresses of one subnet, across buckets
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token introspection in the style of RFC 7662 for clients which cannot
+ * verify tokens themselves. Tokens are verified by the
+ * ExtendedJwtAuthenticationProvider exactly as during authentication. The
+ * result of an active token contains 'active': true and all claims of the
+ * token, the result of an invalid, expired or revoked token only contains
+ * 'active': false.
+ *
+ * Results are cached by the SHA-256 hash of the token. Positive results are
+ * cached until the token expires and are checked against the revocation list
+ * on each hit. Negative results are cached for a fixed time, as a token which
+ * could not be verified, e.g. as it has been signed by a key not known yet,
+ * may become valid later. Hit, miss and eviction statistics are published as
+ * 'cache.*' metrics with tag cache=introspection.
+ *
+ * @author jejkal
+ */
+public class TokenIntrospector{
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final Map<String, Object> INACTIVE = Collections.singletonMap("active", Boolean.FALSE);
+
+  private final ExtendedJwtAuthenticationProvider provider;
+  private final TokenRevocationList revocationList;
+  private final Cache<String, Result> cache;
+
+  /**
+   * Create a new introspector.
+   *
+   * @param provider The provider used to verify tokens.
+   * @param revocationList The list of revoked tokens.
+   * @param maximumSize The max. number of cached results.
+   * @param negativeTtl The number of seconds negative results are cached.
+   * @param meterRegistry The registry used to publish metrics.
+   */
+  public TokenIntrospector(ExtendedJwtAuthenticationProvider provider, TokenRevocationList revocationList, long maximumSize, long negativeTtl, MeterRegistry meterRegistry){
+    this.provider = provider;
+    this.revocationList = revocationList;
+    final long negativeTtlMillis = TimeUnit.SECONDS.toMillis(negativeTtl);
+    cache = Caffeine.newBuilder().
+            maximumSize(maximumSize).
+            expireAfter(new Expiry<String, Result>(){
+              @Override
+              public long expireAfterCreate(String key, Result value, long currentTime){
+                long millis = value.isActive() ? value.expiresAt - System.currentTimeMillis() : negativeTtlMillis;
+                return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+              }
+
+              @Override
+              public long expireAfterUpdate(String key, Result value, long currentTime, long currentDuration){
+                return expireAfterCreate(key, value, currentTime);
+              }
+
+              @Override
+              public long expireAfterRead(String key, Result value, long currentTime, long currentDuration){
+                return currentDuration;
+              }
+            }).
+            recordStats().
+            build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "introspection");
+  }
+
+  /**
+   * Introspect the provided token.
+   *
+   * @param token The compact serialization of the token.
+   *
+   * @return The introspection result.
+   */
+  public Map<String, Object> introspect(String token){
+    if(token == null || token.isEmpty()){
+      return INACTIVE;
+    }
+    String key = ValidatedTokenCache.toKey(token);
+    Result result = cache.getIfPresent(key);
+    if(result != null && result.isActive()){
+      //tokens may have been revoked or may have expired since caching the result
+      if(result.expiresAt <= System.currentTimeMillis() || (revocationList != null && revocationList.isRevoked(token))){
+        result = Result.inactive();
+        cache.put(key, result);
+      }
+    }
+    if(result == null){
+      result = verify(token);
+      if(!result.isActive() || result.expiresAt > System.currentTimeMillis()){
+        cache.put(key, result);
+      }
+    }
+    return result.response;
+  }
+
+  /**
+   * Introspect all provided tokens.
+   *
+   * @param tokens The tokens.
+   *
+   * @return The introspection results in the order of the provided tokens.
+   */
+  public List<Map<String, Object>> introspect(List<String> tokens){
+    List<Map<String, Object>> results = new ArrayList<>(tokens.size());
+    for(String token : tokens){
+      results.add(introspect(token));
+    }
+    return results;
+  }
+
+  private Result verify(String token){
+    try{
+      provider.authenticateToken(token);
+    } catch(RuntimeException ex){
+      //invalid, expired or revoked
+      return Result.inactive();
+    }
+    Map<String, Object> claims;
+    try{
+      int start = token.indexOf('.');
+      byte[] payload = Base64.getUrlDecoder().decode(token.substring(start + 1, token.indexOf('.', start + 1)).getBytes(StandardCharsets.US_ASCII));
+      claims = MAPPER.readValue(payload, new TypeReference<LinkedHashMap<String, Object>>(){
+      });
+    } catch(IOException | RuntimeException ex){
+      return Result.inactive();
+    }
+    Object exp = claims.get("exp");
+    if(!(exp instanceof Number)){
+      //tokens without expiration are reported, but not cached
+      return new Result(active(claims), 0);
+    }
+    return new Result(active(claims), ((Number) exp).longValue() * 1000);
+  }
+
+  private Map<String, Object> active(Map<String, Object> claims){
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("active", Boolean.TRUE);
+    response.put("token_type", "Bearer");
+    response.putAll(claims);
+    return Collections.unmodifiableMap(response);
+  }
+
+  private static final class Result{
+
+    private final Map<String, Object> response;
+    private final long expiresAt;
+
+    Result(Map<String, Object> response, long expiresAt){
+      this.response = response;
+      this.expiresAt = expiresAt;
+    }
+
+    static Result inactive(){
+      return new Result(INACTIVE, 0);
+    }
+
+    boolean isActive(){
+      return response != INACTIVE;
+    }
+  }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory list of revoked tokens consulted for each token authentication
+ * without accessing the database. Tokens can be revoked either by their id
+ * ('jti' claim) or for an entire user by a not-before date, which revokes all
+ * tokens of the user issued ('iat' claim) before this date. Tokens minted for
+ * a personal access token ('pat' claim) are revoked by revoking the id returned
+ * by getPersonalAccessTokenId(). Entries are only kept until all affected
+ * tokens have expired.
+ *
+ * Revoked token ids are held in an exact set and in a Bloom filter. As nearly
+ * all checked tokens are not revoked, the Bloom filter answers almost all
+ * checks without hashing into the exact set. Only if the filter reports a
+ * potential match, the exact set is consulted. As Bloom filters do not support
+ * removal, the filter is rebuilt from the exact set after expired entries have
+ * been purged. If no token is revoked at all, checks return immediately
+ * without even decoding the token.
+ *
+ * The following metrics are published:
+ * <ul>
+ * <li>auth.token.revocation.checks - Number of revocation checks of tokens
+ * with token id.</li>
+ * <li>auth.token.revocation.bloom.positives - Number of checks the Bloom filter
+ * reported a potential match for.</li>
+ * <li>auth.token.revocation.bloom.false_positives - Number of potential matches
+ * not contained in the exact set.</li>
+ * <li>auth.token.revocation.bloom.false_positive_rate - Observed false positive
+ * rate, i.e. false positives divided by checks of tokens not revoked.</li>
+ * <li>auth.token.revocation.bloom.expected_false_positive_rate - False positive
+ * rate expected for the current fill of the Bloom filter.</li>
+ * <li>auth.token.revocation.entries - Number of revoked token ids and
+ * users.</li>
+ * </ul>
+ *
+ * @author jejkal
+ */
+public class TokenRevocationList{
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final String PAT_ID_PREFIX = "pat:";
+
+  private final int expectedRevocations;
+  private final double falsePositiveRate;
+  private final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+  private final Map<String, long[]> revokedUsers = new ConcurrentHashMap<>();
+  private volatile BloomFilter filter;
+  private final Counter checks;
+  private final Counter positives;
+  private final Counter falsePositives;
+
+  /**
+   * Create a new revocation list.
+   *
+   * @param expectedRevocations The number of revoked token ids the Bloom filter
+   * is sized for. If more ids are revoked, the false positive rate increases
+   * until the filter is rebuilt.
+   * @param falsePositiveRate The targeted false positive rate of the Bloom
+   * filter, e.g. 0.01.
+   * @param meterRegistry The registry used to publish metrics.
+   */
+  public TokenRevocationList(int expectedRevocations, double falsePositiveRate, MeterRegistry meterRegistry){
+    this.expectedRevocations = Math.max(expectedRevocations, 1);
+    this.falsePositiveRate = falsePositiveRate;
+    this.filter = new BloomFilter(this.expectedRevocations, falsePositiveRate);
+    checks = Counter.builder("auth.token.revocation.checks").description("Number of token revocation checks.").register(meterRegistry);
+    positives = Counter.builder("auth.token.revocation.bloom.positives").description("Number of potentially revoked tokens reported by the Bloom filter.").register(meterRegistry);
+    falsePositives = Counter.builder("auth.token.revocation.bloom.false_positives").description("Number of potentially revoked tokens which are not revoked.").register(meterRegistry);
+    Gauge.builder("auth.token.revocation.bloom.false_positive_rate", this, TokenRevocationList::getObservedFalsePositiveRate).description("Observed false positive rate of the Bloom filter.").register(meterRegistry);
+    Gauge.builder("auth.token.revocation.bloom.expected_false_positive_rate", this, (l) -> l.filter.expectedFalsePositiveRate()).description("Expected false positive rate of the Bloom filter.").register(meterRegistry);
+    Gauge.builder("auth.token.revocation.entries", this, (l) -> l.revokedTokens.size() + l.revokedUsers.size()).description("Number of revoked token ids and users.").register(meterRegistry);
+  }
+
+  /**
+   * Revoke the token with the provided id.
+   *
+   * @param tokenId The token id ('jti' claim).
+   * @param expiresAt The expiration time of the token in milliseconds. The
+   * entry is removed after this time.
+   */
+  public void revokeToken(String tokenId, long expiresAt){
+    if(revokedTokens.put(tokenId, expiresAt) == null){
+      filter.put(tokenId);
+    }
+  }
+
+  /**
+   * Get the id to revoke in order to revoke all tokens minted for the personal
+   * access token with the provided prefix.
+   *
+   * @param prefix The prefix of the personal access token.
+   *
+   * @return The id to revoke via revokeToken().
+   */
+  public static String getPersonalAccessTokenId(String prefix){
+    return PAT_ID_PREFIX + prefix;
+  }
+
+  /**
+   * Revoke all tokens of the provided user issued before the provided date.
+   *
+   * @param username The username.
+   * @param notBefore The date in milliseconds before which all tokens are
+   * revoked. Tokens issued at this date are revoked as well.
+   * @param expiresAt The time in milliseconds after which all tokens issued
+   * before notBefore have expired. The entry is removed after this time.
+   */
+  public void revokeUser(String username, long notBefore, long expiresAt){
+    revokedUsers.merge(username.toLowerCase(), new long[]{notBefore, expiresAt},
+            (a, b) -> new long[]{Math.max(a[0], b[0]), Math.max(a[1], b[1])});
+  }
+
+  /**
+   * Check whether the provided token has been revoked. The token is expected
+   * to be verified before.
+   *
+   * @param token The compact serialization of the token.
+   *
+   * @return TRUE if the token has been revoked, FALSE otherwise.
+   */
+  public boolean isRevoked(String token){
+    if(isEmpty()){
+      return false;
+    }
+    return isRevoked(TokenInfo.of(token));
+  }
+
+  /**
+   * Check whether the token described by the provided information has been
+   * revoked.
+   *
+   * @param info The token information.
+   *
+   * @return TRUE if the token has been revoked, FALSE otherwise.
+   */
+  public boolean isRevoked(TokenInfo info){
+    if(info.getUsername() != null && !revokedUsers.isEmpty()){
+      long[] entry = revokedUsers.get(info.getUsername().toLowerCase());
+      //tokens without issue date are treated as issued before the revocation, issue dates are truncated to seconds,
+      //therefore, tokens issued within the second of the revocation are revoked as well
+      if(entry != null && (info.getIssuedAt() == null || info.getIssuedAt() <= entry[0])){
+        return true;
+      }
+    }
+    if(revokedTokens.isEmpty()){
+      return false;
+    }
+    if(info.getPersonalAccessToken() != null && isIdRevoked(getPersonalAccessTokenId(info.getPersonalAccessToken()))){
+      return true;
+    }
+    return info.getTokenId() != null && isIdRevoked(info.getTokenId());
+  }
+
+  private boolean isIdRevoked(String id){
+    checks.increment();
+    if(!filter.mightContain(id)){
+      return false;
+    }
+    positives.increment();
+    if(revokedTokens.containsKey(id)){
+      return true;
+    }
+    falsePositives.increment();
+    return false;
+  }
+
+  /**
+   * Check whether no tokens are revoked.
+   *
+   * @return TRUE if no token and no user is revoked.
+   */
+  public boolean isEmpty(){
+    return revokedTokens.isEmpty() && revokedUsers.isEmpty();
+  }
+
+  /**
+   * Remove all entries whose tokens have expired and rebuild the Bloom filter
+   * if token ids have been removed or if more token ids than expected are
+   * revoked.
+   *
+   * @return The number of removed entries.
+   */
+  public synchronized int purgeExpired(){
+    long now = System.currentTimeMillis();
+    int removed = 0;
+    for(Iterator<Map.Entry<String, Long>> it = revokedTokens.entrySet().iterator(); it.hasNext();){
+      if(it.next().getValue() < now){
+        it.remove();
+        removed++;
+      }
+    }
+    boolean rebuild = removed > 0 || revokedTokens.size() > filter.capacity;
+    for(Iterator<Map.Entry<String, long[]>> it = revokedUsers.entrySet().iterator(); it.hasNext();){
+      if(it.next().getValue()[1] < now){
+        it.remove();
+        removed++;
+      }
+    }
+    if(rebuild){
+      BloomFilter rebuilt = new BloomFilter(Math.max(expectedRevocations, revokedTokens.size() * 2), falsePositiveRate);
+      revokedTokens.keySet().forEach(rebuilt::put);
+      filter = rebuilt;
+      //ids revoked while rebuilding may be missing in the new filter
+      revokedTokens.keySet().forEach(rebuilt::put);
+    }
+    return removed;
+  }
+
+  private double getObservedFalsePositiveRate(){
+    double negatives = checks.count() - (positives.count() - falsePositives.count());
+    return (negatives > 0) ? falsePositives.count() / negatives : 0.0;
+  }
+
+  /**
+   * Revocation-relevant claims of a token, which are read from the token
+   * payload without verifying the signature, and the personal access token the
+   * token has been minted for, if any.
+   */
+  public static final class TokenInfo{
+
+    private String tokenId;
+    private String username;
+    private Long issuedAt;
+    private Long expiresAt;
+    private String personalAccessToken;
+
+    /**
+     * Read the revocation-relevant claims of the provided token. Missing or
+     * unreadable claims are null.
+     *
+     * @param token The compact serialization of the token.
+     *
+     * @return The token information.
+     */
+    public static TokenInfo of(String token){
+      TokenInfo info = new TokenInfo();
+      int start = (token != null) ? token.indexOf('.') : -1;
+      int end = (start >= 0) ? token.indexOf('.', start + 1) : -1;
+      if(end < 0){
+        return info;
+      }
+      byte[] payload;
+      try{
+        payload = Base64.getUrlDecoder().decode(token.substring(start + 1, end).getBytes(StandardCharsets.US_ASCII));
+      } catch(IllegalArgumentException ex){
+        return info;
+      }
+      try(JsonParser parser = JSON_FACTORY.createParser(payload)){
+        if(parser.nextToken() != JsonToken.START_OBJECT){
+          return info;
+        }
+        while(parser.nextToken() == JsonToken.FIELD_NAME){
+          String name = parser.getCurrentName();
+          JsonToken value = parser.nextToken();
+          if("jti".equals(name) && value == JsonToken.VALUE_STRING){
+            info.tokenId = parser.getText();
+          } else if("username".equals(name) && value == JsonToken.VALUE_STRING){
+            info.username = parser.getText();
+          } else if("iat".equals(name) && value == JsonToken.VALUE_NUMBER_INT){
+            info.issuedAt = parser.getLongValue() * 1000;
+          } else if("exp".equals(name) && value == JsonToken.VALUE_NUMBER_INT){
+            info.expiresAt = parser.getLongValue() * 1000;
+          } else if(PersonalAccessTokenAuthenticationProvider.PAT_CLAIM.equals(name) && value == JsonToken.VALUE_STRING){
+            info.personalAccessToken = parser.getText();
+          } else{
+            parser.skipChildren();
+          }
+        }
+      } catch(IOException ex){
+        //malformed payload, return what has been read so far
+      }
+      return info;
+    }
+
+    /**
+     * @return The token id ('jti' claim).
+     */
+    public String getTokenId(){
+      return tokenId;
+    }
+
+    /**
+     * @return The username ('username' claim).
+     */
+    public String getUsername(){
+      return username;
+    }
+
+    /**
+     * @return The issue date in milliseconds ('iat' claim).
+     */
+    public Long getIssuedAt(){
+      return issuedAt;
+    }
+
+    /**
+     * @return The expiration date in milliseconds ('exp' claim).
+     */
+    public Long getExpiresAt(){
+      return expiresAt;
+    }
+
+    /**
+     * @return The prefix of the personal access token the token has been
+     * minted for ('pat' claim) or null if the token has been obtained
+     * otherwise.
+     */
+    public String getPersonalAccessToken(){
+      return personalAccessToken;
+    }
+  }
+
+  /**
+   * Thread-safe Bloom filter for strings using double hashing of a 64 bit
+   * FNV-1a hash.
+   */
+  static final class BloomFilter{
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final int capacity;
+
+    BloomFilter(int capacity, double falsePositiveRate){
+      this.capacity = capacity;
+      long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+      int words = (int) Math.max(1, (m + 63) / 64);
+      this.bits = new AtomicLongArray(words);
+      this.bitCount = words * 64l;
+      this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+    }
+
+    void put(String value){
+      long hash = hash(value);
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      for(int i = 1; i <= hashCount; i++){
+        long index = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+        long mask = 1l << index;
+        int word = (int) (index >>> 6);
+        long current;
+        do{
+          current = bits.get(word);
+        } while((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask));
+      }
+    }
+
+    boolean mightContain(String value){
+      long hash = hash(value);
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      for(int i = 1; i <= hashCount; i++){
+        long index = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+        if((bits.get((int) (index >>> 6)) & (1l << index)) == 0){
+          return false;
+        }
+      }
+      return true;
+    }
+
+    double expectedFalsePositiveRate(){
+      long set = 0;
+      for(int i = 0; i < bits.length(); i++){
+        set += Long.bitCount(bits.get(i));
+      }
+      return Math.pow((double) set / bitCount, hashCount);
+    }
+
+    private static long hash(String value){
+      long hash = 0xcbf29ce484222325l;
+      for(int i = 0; i < value.length(); i++){
+        hash ^= value.charAt(i);
+        hash *= 0x100000001b3l;
+      }
+      //final avalanche, FNV-1a alone spreads similar ids poorly in the upper bits
+      hash ^= hash >>> 33;
+      hash *= 0xff51afd7ed558ccdl;
+      hash ^= hash >>> 33;
+      return hash;
+    }
+  }
+}
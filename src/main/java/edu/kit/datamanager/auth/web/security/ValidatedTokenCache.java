@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Bounded cache of successfully verified tokens. Entries are keyed by the
+ * SHA-256 hash of the raw token, such that cached tokens are not kept in
+ * memory, and hold the authentication created while verifying the token as
+ * well as the revocation-relevant claims of the token, such that cache hits do
+ * not have to parse the token again. Each entry expires at the expiration date
+ * ('exp' claim) of its token, tokens without expiration date are not cached.
+ * Only positive results are cached, revocations have to be checked in addition
+ * using the cached token information. Hit, miss and eviction
+ * statistics are published as 'cache.*' metrics with tag cache=tokens.
+ *
+ * @author jejkal
+ */
+public class ValidatedTokenCache{
+
+  private static final Base64.Encoder BASE64 = Base64.getEncoder().withoutPadding();
+  private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+    try{
+      return MessageDigest.getInstance("SHA-256");
+    } catch(NoSuchAlgorithmException ex){
+      throw new IllegalStateException("SHA-256 not supported.", ex);
+    }
+  });
+
+  private final Cache<String, Entry> cache;
+
+  /**
+   * Create a new cache.
+   *
+   * @param maximumSize The max. number of cached tokens.
+   * @param meterRegistry The registry used to publish metrics.
+   */
+  public ValidatedTokenCache(long maximumSize, MeterRegistry meterRegistry){
+    cache = Caffeine.newBuilder().
+            maximumSize(maximumSize).
+            expireAfter(new Expiry<String, Entry>(){
+              @Override
+              public long expireAfterCreate(String key, Entry value, long currentTime){
+                return TimeUnit.MILLISECONDS.toNanos(Math.max(0, value.expiresAt - System.currentTimeMillis()));
+              }
+
+              @Override
+              public long expireAfterUpdate(String key, Entry value, long currentTime, long currentDuration){
+                return expireAfterCreate(key, value, currentTime);
+              }
+
+              @Override
+              public long expireAfterRead(String key, Entry value, long currentTime, long currentDuration){
+                return currentDuration;
+              }
+            }).
+            recordStats().
+            build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "tokens");
+  }
+
+  /**
+   * Get the cache entry of the provided token if the token has been verified
+   * before and has not expired yet.
+   *
+   * @param token The raw token.
+   *
+   * @return The cache entry or null.
+   */
+  public Entry get(String token){
+    Entry entry = cache.getIfPresent(toKey(token));
+    //the entry may not have been evicted yet
+    return (entry != null && entry.expiresAt > System.currentTimeMillis()) ? entry : null;
+  }
+
+  /**
+   * Add the authentication of a successfully verified token.
+   *
+   * @param token The raw token.
+   * @param authentication The authentication created for the token.
+   * @param tokenInfo The revocation-relevant claims of the token. If the token
+   * has no expiration date, it is not cached.
+   */
+  public void put(String token, Authentication authentication, TokenRevocationList.TokenInfo tokenInfo){
+    Long expiresAt = tokenInfo.getExpiresAt();
+    if(expiresAt != null && expiresAt > System.currentTimeMillis()){
+      cache.put(toKey(token), new Entry(authentication, tokenInfo, expiresAt));
+    }
+  }
+
+  /**
+   * Remove all cached tokens.
+   */
+  public void invalidateAll(){
+    cache.invalidateAll();
+  }
+
+  /**
+   * Create the cache key of the provided token.
+   *
+   * @param token The raw token.
+   *
+   * @return The Base64 encoded SHA-256 hash of the token.
+   */
+  static String toKey(String token){
+    return BASE64.encodeToString(DIGESTS.get().digest(token.getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  /**
+   * Cached result of a token verification.
+   */
+  public static final class Entry{
+
+    private final Authentication authentication;
+    private final TokenRevocationList.TokenInfo tokenInfo;
+    private final long expiresAt;
+
+    Entry(Authentication authentication, TokenRevocationList.TokenInfo tokenInfo, long expiresAt){
+      this.authentication = authentication;
+      this.tokenInfo = tokenInfo;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return The authentication created for the token.
+     */
+    public Authentication getAuthentication(){
+      return authentication;
+    }
+
+    /**
+     * @return The revocation-relevant claims of the token.
+     */
+    public TokenRevocationList.TokenInfo getTokenInfo(){
+      return tokenInfo;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.kit.datamanager.auth.dao.IGroupDao;
+import edu.kit.datamanager.auth.dao.IUserDao;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.domain.RepoUserGroup;
+import edu.kit.datamanager.entities.RepoUserRole;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.test.context.support.WithSecurityContextTestExecutionListener;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.test.context.web.ServletTestExecutionListener;
+import org.springframework.test.web.servlet.MockMvc;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import org.springframework.util.Base64Utils;
+
+/**
+ *
+ * @author jejkal
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+@TestExecutionListeners(listeners = {ServletTestExecutionListener.class,
+  DependencyInjectionTestExecutionListener.class,
+  DirtiesContextTestExecutionListener.class,
+  TransactionalTestExecutionListener.class,
+  WithSecurityContextTestExecutionListener.class})
+@ActiveProfiles("test")
+public class DirectoryExportControllerTest{
+
+  @Autowired
+  private MockMvc mockMvc;
+  @Autowired
+  private IUserDao userDao;
+  @Autowired
+  private IGroupDao groupDao;
+  @Autowired
+  private BCryptPasswordEncoder passwordEncoder;
+
+  @Before
+  public void setUp(){
+    //clean database
+    groupDao.deleteAll();
+    userDao.deleteAll();
+
+    //add admin
+    RepoUser admin = new RepoUser();
+    admin.setUsername("admin");
+    admin.setActive(true);
+    admin.setLocked(false);
+    admin.setPassword(passwordEncoder.encode("admin"));
+    admin.setRolesAsEnum(Arrays.asList(RepoUserRole.ADMINISTRATOR));
+    admin.setEmail("test@mail.org");
+    admin = userDao.saveAndFlush(admin);
+
+    //add defaultUser
+    RepoUser user = new RepoUser();
+    user.setUsername("user");
+    user.setActive(true);
+    user.setLocked(false);
+    user.setPassword(passwordEncoder.encode("user"));
+    user.setRolesAsEnum(Arrays.asList(RepoUserRole.USER));
+    user.setEmail("test@mail.org");
+    user = userDao.saveAndFlush(user);
+
+    //add other user
+    RepoUser other = new RepoUser();
+    other.setUsername("other");
+    other.setActive(true);
+    other.setLocked(false);
+    other.setPassword(passwordEncoder.encode("other"));
+    other.setRolesAsEnum(Arrays.asList(RepoUserRole.USER));
+    other.setEmail("test@mail.org");
+    other = userDao.saveAndFlush(other);
+
+    //add groups
+    RepoUserGroup group = new RepoUserGroup();
+    group.setActive(Boolean.TRUE);
+    group.setGroupId("DEFAULT GROUP");
+    group.setGroupname("Default Group");
+    group.addOrUpdateMembership(admin, RepoUserGroup.GroupRole.GROUP_MANAGER);
+    group.addOrUpdateMembership(user, RepoUserGroup.GroupRole.GROUP_MEMBER);
+    groupDao.saveAndFlush(group);
+
+    RepoUserGroup group2 = new RepoUserGroup();
+    group2.setActive(Boolean.TRUE);
+    group2.setGroupId("OTHER GROUP");
+    group2.setGroupname("Other Group");
+    group2.addOrUpdateMembership(other, RepoUserGroup.GroupRole.GROUP_MANAGER);
+    groupDao.saveAndFlush(group2);
+  }
+
+  @Test
+  public void testExportAsAdmin() throws Exception{
+    String result = this.mockMvc.perform(get("/api/v1/export").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    ObjectMapper mapper = new ObjectMapper();
+    int users = 0;
+    int groups = 0;
+    int memberships = 0;
+    for(String line : result.split("\n")){
+      ObjectNode node = (ObjectNode) mapper.readTree(line);
+      Assert.assertFalse(node.has("password"));
+      switch(node.get("type").asText()){
+        case "user":
+          users++;
+          break;
+        case "group":
+          groups++;
+          break;
+        case "membership":
+          memberships++;
+          break;
+        default:
+          Assert.fail("Unexpected type " + node.get("type"));
+      }
+    }
+    Assert.assertEquals(3, users);
+    Assert.assertEquals(2, groups);
+    Assert.assertEquals(3, memberships);
+  }
+
+  @Test
+  public void testExportAsUser() throws Exception{
+    this.mockMvc.perform(get("/api/v1/export").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andDo(print()).andExpect(status().isForbidden());
+  }
+}
@@ -16,11 +16,7 @@
 package edu.kit.datamanager.auth.test;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.github.fge.jackson.jsonpointer.JsonPointer;
-import com.github.fge.jsonpatch.AddOperation;
-import com.github.fge.jsonpatch.JsonPatch;
-import com.github.fge.jsonpatch.JsonPatchOperation;
-import com.github.fge.jsonpatch.RemoveOperation;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import edu.kit.datamanager.auth.dao.IGroupDao;
 import edu.kit.datamanager.auth.dao.IUserDao;
 import edu.kit.datamanager.auth.domain.GroupMembership;
@@ -285,6 +281,21 @@ public class GroupControllerTest{
 
   }
 
+  @Test
+  public void testGetGroupNotModified() throws Exception{
+    String etag = this.mockMvc.perform(get("/api/v1/groups/" + otherGroup.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getHeader("ETag");
+    this.mockMvc.perform(get("/api/v1/groups/" + otherGroup.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).header(HttpHeaders.IF_NONE_MATCH, etag)).andDo(print()).andExpect(status().isNotModified()).andExpect(header().string("ETag", etag));
+
+    String patch = "[{\"op\": \"replace\",\"path\": \"/groupname\",\"value\": \"test1\"}]";
+    this.mockMvc.perform(patch("/api/v1/groups/" + otherGroup.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).header("If-Match", etag).contentType("application/json-patch+json").content(patch)).andDo(print()).andExpect(status().isNoContent());
+
+    this.mockMvc.perform(get("/api/v1/groups/" + otherGroup.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).header(HttpHeaders.IF_NONE_MATCH, etag)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.groupname").value("test1"));
+  }
+
   @Test
   public void testPatchForbiddenField() throws Exception{
     String etag = this.mockMvc.perform(get("/api/v1/groups/" + otherGroup.getId()).header(HttpHeaders.AUTHORIZATION,
@@ -308,6 +319,22 @@ public class GroupControllerTest{
             "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.groupname").value("changedName")).andExpect(header().exists("ETag"));
   }
 
+  @Test
+  public void testPatchKeepsMembers() throws Exception{
+    String etag = this.mockMvc.perform(get("/api/v1/groups/" + otherGroup.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getHeader("ETag");
+
+    String patch = "[{\"op\": \"replace\",\"path\": \"/groupname\",\"value\": \"changedName\"}]";
+    this.mockMvc.perform(patch("/api/v1/groups/" + otherGroup.getId()).contentType("application/json-patch+json").content(patch).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).header("If-Match", etag)).andExpect(status().isNoContent());
+
+    //memberships are not part of the patched representation and must not be removed
+    this.mockMvc.perform(get("/api/v1/groups/" + otherGroup.getId() + "/members").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(2))).andExpect(MockMvcResultMatchers.jsonPath("$[*].user.username", Matchers.containsInAnyOrder("user", "other")));
+    this.mockMvc.perform(get("/api/v1/groups/" + otherGroup.getId() + "/members").param("role", "GROUP_MANAGER").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1))).andExpect(MockMvcResultMatchers.jsonPath("$[0].user.username").value("user"));
+  }
+
   @Test
   public void testApplyInvalidPatchAsAdmin() throws Exception{
     String etag = this.mockMvc.perform(get("/api/v1/groups/" + otherGroup.getId()).header(HttpHeaders.AUTHORIZATION,
@@ -389,34 +416,43 @@ public class GroupControllerTest{
     String etag = this.mockMvc.perform(get("/api/v1/groups/" + groupId).header(HttpHeaders.AUTHORIZATION,
             "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.groupname").value("newGroup")).andExpect(MockMvcResultMatchers.jsonPath("$.groupId").value("newGroup".toUpperCase())).andReturn().getResponse().getHeader("ETag");
 
-    //Create new memberships entity
+    //add new member
     GroupMembership newMembership = new GroupMembership(otherUser, RepoUserGroup.GroupRole.GROUP_MEMBER);
-    //build patch operation
-    JsonPatchOperation op = new AddOperation(JsonPointer.of("memberships", "0"), mapper.readTree(mapper.writeValueAsString(newMembership)));
-    JsonPatch patch_add = new JsonPatch(Arrays.asList(op));
+    this.mockMvc.perform(post("/api/v1/groups/" + groupId + "/members").contentType("application/json").content(mapper.writeValueAsString(newMembership)).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.user.username").value("other")).andExpect(MockMvcResultMatchers.jsonPath("$.user.password").doesNotExist());
 
-    //call patch
-    this.mockMvc.perform(patch("/api/v1/groups/" + groupId).contentType("application/json-patch+json").content(mapper.writeValueAsString(patch_add)).header(HttpHeaders.AUTHORIZATION,
-            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).header("If-Match", etag)).andExpect(status().isNoContent());
+    //check for added membership, group version must have changed
+    String newEtag = this.mockMvc.perform(get("/api/v1/groups/" + groupId).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.memberCount").value(2)).andExpect(MockMvcResultMatchers.jsonPath("$.memberships").doesNotExist()).andReturn().getResponse().getHeader("ETag");
+    Assert.assertNotEquals(etag, newEtag);
+    this.mockMvc.perform(get("/api/v1/groups/" + groupId + "/members").param("page", "0").param("size", "1").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1)));
+    this.mockMvc.perform(get("/api/v1/groups/" + groupId + "/members").param("role", "GROUP_MEMBER").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("other:other".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1))).andExpect(MockMvcResultMatchers.jsonPath("$[0].user.username").value("other"));
 
-    //check for added membership
-    this.mockMvc.perform(get("/api/v1/groups/" + groupId).header(HttpHeaders.AUTHORIZATION,
-            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.memberships", Matchers.hasSize(2)));
-    //update etag
-    etag = this.mockMvc.perform(get("/api/v1/groups/" + groupId).header(HttpHeaders.AUTHORIZATION,
-            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getHeader("ETag");
+    //members cannot change memberships
+    this.mockMvc.perform(delete("/api/v1/groups/" + groupId + "/members/" + adminUser.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("other:other".getBytes()))).andExpect(status().isForbidden());
 
-    //try patch
-    op = new RemoveOperation(JsonPointer.of("memberships", "0"));
-    JsonPatch patch_remove = new JsonPatch(Arrays.asList(op));
+    //remove member
+    this.mockMvc.perform(delete("/api/v1/groups/" + groupId + "/members/" + otherUser.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andExpect(status().isNoContent());
 
-    //call patch
-    this.mockMvc.perform(patch("/api/v1/groups/" + Long.toString(groupId)).contentType("application/json-patch+json").content(mapper.writeValueAsString(patch_remove)).header(HttpHeaders.AUTHORIZATION,
-            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).header("If-Match", etag)).andExpect(status().isNoContent());
+    //check for removed membership
+    this.mockMvc.perform(get("/api/v1/groups/" + groupId + "/members").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1))).andExpect(MockMvcResultMatchers.jsonPath("$[0].user.username").value("admin"));
+    this.mockMvc.perform(get("/api/v1/groups/" + groupId + "/members").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("other:other".getBytes()))).andExpect(status().isForbidden());
+  }
 
-    //check for added membership
-    this.mockMvc.perform(get("/api/v1/groups/" + Long.toString(groupId)).header(HttpHeaders.AUTHORIZATION,
-            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.memberships", Matchers.hasSize(1)));
+  @Test
+  public void testAddMemberWithInvalidUser() throws Exception{
+    ObjectMapper mapper = new ObjectMapper();
+    RepoUser unknown = new RepoUser();
+    unknown.setId(Long.MAX_VALUE);
+    GroupMembership newMembership = new GroupMembership(unknown, RepoUserGroup.GroupRole.GROUP_MEMBER);
+    this.mockMvc.perform(post("/api/v1/groups/" + defaultGroup.getId() + "/members").contentType("application/json").content(mapper.writeValueAsString(newMembership)).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andExpect(status().isBadRequest());
   }
 
   @Test
@@ -486,8 +522,11 @@ public class GroupControllerTest{
     created.setGroupname(idName);
     created.addOrUpdateMembership(otherUser, RepoUserGroup.GroupRole.GROUP_MEMBER);
     ObjectMapper mapper = new ObjectMapper();
+    //memberships are write-only and have to be added to the request body explicitly
+    ObjectNode body = mapper.valueToTree(created);
+    body.set("memberships", mapper.valueToTree(created.getMemberships()));
 
-    String location = this.mockMvc.perform(post("/api/v1/groups/").contentType("application/json-patch+json").content(mapper.writeValueAsString(created)).header(HttpHeaders.AUTHORIZATION,
+    String location = this.mockMvc.perform(post("/api/v1/groups/").contentType("application/json-patch+json").content(mapper.writeValueAsString(body)).header(HttpHeaders.AUTHORIZATION,
             "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andExpect(status().isCreated()).andReturn().getResponse().getHeader("Location");
 
     Assert.assertNotNull(location);
@@ -506,5 +545,4 @@ public class GroupControllerTest{
     this.mockMvc.perform(delete("/api/v1/groups/0").header(HttpHeaders.AUTHORIZATION,
             "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andExpect(status().isNoContent());
   }
-
 }
@@ -16,10 +16,15 @@
 package edu.kit.datamanager.auth.test;
 
 import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import com.jayway.jsonpath.JsonPath;
 import edu.kit.datamanager.auth.dao.IGroupDao;
+import edu.kit.datamanager.auth.dao.IRefreshTokenDao;
+import edu.kit.datamanager.auth.dao.ITokenRevocationDao;
 import edu.kit.datamanager.auth.dao.IUserDao;
 import edu.kit.datamanager.auth.domain.RepoUser;
 import edu.kit.datamanager.auth.domain.RepoUserGroup;
+import edu.kit.datamanager.auth.domain.TokenRevocation;
+import edu.kit.datamanager.auth.service.ITokenRevocationService;
 import edu.kit.datamanager.entities.RepoUserRole;
 import edu.kit.datamanager.exceptions.UnauthorizedAccessException;
 import io.jsonwebtoken.Claims;
@@ -30,6 +35,7 @@ import io.jsonwebtoken.impl.DefaultClaims;
 import java.util.Arrays;
 import java.util.Date;
 import org.apache.commons.lang3.time.DateUtils;
+import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -38,6 +44,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.test.context.support.WithSecurityContextTestExecutionListener;
 import org.springframework.test.context.ActiveProfiles;
@@ -79,6 +86,12 @@ public class LoginControllerTest{
   @Autowired
   private IGroupDao groupDao;
   @Autowired
+  private IRefreshTokenDao refreshTokenDao;
+  @Autowired
+  private ITokenRevocationDao tokenRevocationDao;
+  @Autowired
+  private ITokenRevocationService tokenRevocationService;
+  @Autowired
   private BCryptPasswordEncoder passwordEncoder;
 
   @Autowired
@@ -94,6 +107,8 @@ public class LoginControllerTest{
   @Before
   public void setUp(){
     //clean database
+    refreshTokenDao.deleteAll();
+    tokenRevocationDao.deleteAll();
     groupDao.deleteAll();
     userDao.deleteAll();
 
@@ -197,6 +212,27 @@ public class LoginControllerTest{
             "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andDo(print()).andExpect(status().isUnauthorized());
   }
 
+  @Test
+  public void testResetFailedLoginsAfterSuccessfulLogin() throws Exception{
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:wrongPassword".getBytes()))).andDo(print()).andExpect(status().isUnauthorized());
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:wrongPassword".getBytes()))).andDo(print()).andExpect(status().isUnauthorized());
+    Assert.assertEquals(Integer.valueOf(2), userDao.findByUsername("user").get().getLoginFailures());
+
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andDo(print()).andExpect(status().isOk());
+    Assert.assertEquals(Integer.valueOf(0), userDao.findByUsername("user").get().getLoginFailures());
+
+    //counter starts from zero again, so two more failures must not lock the user
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:wrongPassword".getBytes()))).andDo(print()).andExpect(status().isUnauthorized());
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:wrongPassword".getBytes()))).andDo(print()).andExpect(status().isUnauthorized());
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andDo(print()).andExpect(status().isOk());
+  }
+
   @Test
   public void testLoginWithGroup() throws Exception{
     //authenticate and login
@@ -213,6 +249,224 @@ public class LoginControllerTest{
             "Bearer " + jwt)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.username").value("admin"));
   }
 
+  @Test
+  public void testLoginWithGroupAsMember() throws Exception{
+    //group ids are case insensitive
+    MvcResult result = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).param("groupId", "some")).andDo(print()).andExpect(status().isOk()).andReturn();
+    String jwt = result.getResponse().getContentAsString();
+
+    Jws<Claims> claimsJws = Jwts.parser().setSigningKey(applicationProperties.getJwtSecret()).parseClaimsJws(jwt);
+    Assert.assertEquals(defaultUser.getUsername(), claimsJws.getBody().get("username", String.class));
+    Assert.assertEquals(someGroup.getGroupId(), claimsJws.getBody().get("groupid", String.class));
+  }
+
+  @Test
+  public void testExchangeToken() throws Exception{
+    String jwt = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    Jws<Claims> original = Jwts.parser().setSigningKey(applicationProperties.getJwtSecret()).parseClaimsJws(jwt);
+
+    String exchanged = this.mockMvc.perform(post("/api/v1/login/exchange").param("groupId", "some").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + jwt)).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    Jws<Claims> claimsJws = Jwts.parser().setSigningKey(applicationProperties.getJwtSecret()).parseClaimsJws(exchanged);
+    Assert.assertEquals(defaultUser.getUsername(), claimsJws.getBody().get("username", String.class));
+    Assert.assertEquals(someGroup.getGroupId(), claimsJws.getBody().get("groupid", String.class));
+    Assert.assertFalse(claimsJws.getBody().getExpiration().after(original.getBody().getExpiration()));
+
+    //switch back to the default group
+    exchanged = this.mockMvc.perform(post("/api/v1/login/exchange").param("groupId", "USERS").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + exchanged)).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    claimsJws = Jwts.parser().setSigningKey(applicationProperties.getJwtSecret()).parseClaimsJws(exchanged);
+    Assert.assertEquals("USERS", claimsJws.getBody().get("groupid", String.class));
+  }
+
+  @Test
+  public void testExchangeTokenWithoutGroupMembership() throws Exception{
+    String jwt = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    this.mockMvc.perform(post("/api/v1/login/exchange").param("groupId", "PRIVILEGED").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + jwt)).andDo(print()).andExpect(status().isForbidden());
+    this.mockMvc.perform(post("/api/v1/login/exchange").param("groupId", "INACTIVE").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + jwt)).andDo(print()).andExpect(status().isForbidden());
+    this.mockMvc.perform(post("/api/v1/login/exchange").param("groupId", "SOME")).andDo(print()).andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testRefreshToken() throws Exception{
+    String response = this.mockMvc.perform(post("/api/v1/login/token").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).param("groupId", "some")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$.tokenType").value("Bearer")).
+            andExpect(MockMvcResultMatchers.jsonPath("$.expiresIn").value(3600)).
+            andReturn().getResponse().getContentAsString();
+    String refreshToken = JsonPath.read(response, "$.refreshToken");
+
+    //obtain new access token without password
+    response = this.mockMvc.perform(post("/api/v1/login/refresh").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("refreshToken=" + refreshToken)).andDo(print()).andExpect(status().isOk()).
+            andReturn().getResponse().getContentAsString();
+    String jwt = JsonPath.read(response, "$.accessToken");
+    Jws<Claims> claimsJws = Jwts.parser().setSigningKey(applicationProperties.getJwtSecret()).parseClaimsJws(jwt);
+    Assert.assertEquals(defaultUser.getUsername(), claimsJws.getBody().get("username", String.class));
+    Assert.assertEquals(someGroup.getGroupId(), claimsJws.getBody().get("groupid", String.class));
+    Assert.assertNotEquals(refreshToken, JsonPath.read(response, "$.refreshToken"));
+
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + jwt)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.username").value("user"));
+  }
+
+  @Test
+  public void testRefreshTokenReuse() throws Exception{
+    String response = this.mockMvc.perform(post("/api/v1/login/token").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    String refreshToken = JsonPath.read(response, "$.refreshToken");
+    response = this.mockMvc.perform(post("/api/v1/login/refresh").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("refreshToken=" + refreshToken)).andDo(print()).andExpect(status().isOk()).
+            andReturn().getResponse().getContentAsString();
+    String nextRefreshToken = JsonPath.read(response, "$.refreshToken");
+
+    //using a token twice revokes the entire family
+    this.mockMvc.perform(post("/api/v1/login/refresh").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("refreshToken=" + refreshToken)).andDo(print()).andExpect(status().isUnauthorized());
+    this.mockMvc.perform(post("/api/v1/login/refresh").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("refreshToken=" + nextRefreshToken)).andDo(print()).andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testRevokeRefreshToken() throws Exception{
+    String response = this.mockMvc.perform(post("/api/v1/login/token").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    String refreshToken = JsonPath.read(response, "$.refreshToken");
+    this.mockMvc.perform(post("/api/v1/login/revoke").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("refreshToken=" + refreshToken)).andDo(print()).andExpect(status().isNoContent());
+    this.mockMvc.perform(post("/api/v1/login/refresh").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("refreshToken=" + refreshToken)).andDo(print()).andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testRefreshTokenOfDisabledUser() throws Exception{
+    String response = this.mockMvc.perform(post("/api/v1/login/token").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    String refreshToken = JsonPath.read(response, "$.refreshToken");
+    RepoUser user = userDao.findByUsername("user").get();
+    user.setActive(false);
+    userDao.saveAndFlush(user);
+    this.mockMvc.perform(post("/api/v1/login/refresh").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("refreshToken=" + refreshToken)).andDo(print()).andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testRefreshTokenWithBearerToken() throws Exception{
+    String jwt = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    //refresh tokens are only issued for password logins
+    this.mockMvc.perform(post("/api/v1/login/token").header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isUnauthorized());
+    this.mockMvc.perform(post("/api/v1/login/refresh").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("refreshToken=invalid")).andDo(print()).andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testRevokeToken() throws Exception{
+    String jwt = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    String otherJwt = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+
+    this.mockMvc.perform(post("/api/v1/tokens/revoke").header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isNoContent());
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isUnauthorized());
+    //other tokens of the same user remain valid
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION, "Bearer " + otherJwt)).andDo(print()).andExpect(status().isOk());
+  }
+
+  @Test
+  public void testRevokeUserTokens() throws Exception{
+    String jwt = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    //revoking tokens of others requires ROLE_ADMINISTRATOR
+    this.mockMvc.perform(post("/api/v1/tokens/revoke").param("username", "admin").header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isForbidden());
+    this.mockMvc.perform(post("/api/v1/tokens/revoke").param("username", "user").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isNoContent());
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isUnauthorized());
+
+    //login still works
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andDo(print()).andExpect(status().isOk());
+  }
+
+  @Test
+  public void testRevokeUserTokensIgnoresCase() throws Exception{
+    //revocations are kept in memory, thus, use a separate user in order to not affect other tests
+    RepoUser revoked = new RepoUser();
+    revoked.setUsername("revoked");
+    revoked.setActive(true);
+    revoked.setLocked(false);
+    revoked.setPassword(passwordEncoder.encode("revoked"));
+    revoked.setRolesAsEnum(Arrays.asList(RepoUserRole.USER));
+    userDao.saveAndFlush(revoked);
+
+    String response = this.mockMvc.perform(post("/api/v1/login/token").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("revoked:revoked".getBytes()))).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    String jwt = JsonPath.read(response, "$.accessToken");
+    String refreshToken = JsonPath.read(response, "$.refreshToken");
+
+    //users may revoke their own tokens independent from the case of the username
+    this.mockMvc.perform(post("/api/v1/tokens/revoke").param("username", "Revoked").header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isNoContent());
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isUnauthorized());
+    this.mockMvc.perform(post("/api/v1/login/refresh").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("refreshToken=" + refreshToken)).andDo(print()).andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testSynchronizeLoadsLateCommittedRevocations() throws Exception{
+    String jwt = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    String tokenId = Jwts.parser().setSigningKey(applicationProperties.getJwtSecret()).parseClaimsJws(jwt).getBody().getId();
+    tokenRevocationService.synchronize();
+
+    //revocation of another instance, created before but committed after the last synchronization
+    TokenRevocation revocation = new TokenRevocation();
+    revocation.setTokenId(tokenId);
+    revocation.setUsername("user");
+    revocation.setCreatedAt(DateUtils.addSeconds(new Date(), -30));
+    revocation.setExpiresAt(DateUtils.addHours(new Date(), 1));
+    tokenRevocationDao.saveAndFlush(revocation);
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isOk());
+
+    tokenRevocationService.synchronize();
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testIntrospect() throws Exception{
+    String jwt = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+
+    this.mockMvc.perform(post("/api/v1/introspect").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("token=" + jwt).header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$.active").value(true)).
+            andExpect(MockMvcResultMatchers.jsonPath("$.username").value("user"));
+    this.mockMvc.perform(post("/api/v1/introspect").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("token=invalid").header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$.active").value(false)).
+            andExpect(MockMvcResultMatchers.jsonPath("$.username").doesNotExist());
+    this.mockMvc.perform(post("/api/v1/introspect/batch").contentType("application/json").content("[\"" + jwt + "\", \"invalid\"]").
+            header(HttpHeaders.AUTHORIZATION, "Bearer " + jwt)).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(2))).
+            andExpect(MockMvcResultMatchers.jsonPath("$[0].active").value(true)).
+            andExpect(MockMvcResultMatchers.jsonPath("$[1].active").value(false));
+  }
+
+  @Test
+  public void testIntrospectAnonymous() throws Exception{
+    this.mockMvc.perform(post("/api/v1/introspect").contentType(MediaType.APPLICATION_FORM_URLENCODED).content("token=invalid")).andDo(print()).andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testGetJwks() throws Exception{
+    //tokens are signed using the shared secret in the test profile, thus, there are no keys to publish
+    String etag = this.mockMvc.perform(get("/.well-known/jwks.json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$.keys", Matchers.hasSize(0))).
+            andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CACHE_CONTROL, "max-age=3600, public")).
+            andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    Assert.assertNotNull(etag);
+    this.mockMvc.perform(get("/.well-known/jwks.json").header(HttpHeaders.IF_NONE_MATCH, etag)).andExpect(status().isNotModified());
+  }
+
+  @Test
+  public void testRotateKeysAsUser() throws Exception{
+    this.mockMvc.perform(post("/api/v1/keys/rotate").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andDo(print()).andExpect(status().isForbidden());
+  }
+
   @Test
   public void testLoginWithInactiveGroup() throws Exception{
     //login should not work
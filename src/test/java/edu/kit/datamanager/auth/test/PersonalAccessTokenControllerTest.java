@@ -0,0 +1,270 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.test;
+
+import com.jayway.jsonpath.JsonPath;
+import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import edu.kit.datamanager.auth.dao.IGroupDao;
+import edu.kit.datamanager.auth.dao.IPersonalAccessTokenDao;
+import edu.kit.datamanager.auth.dao.IUserDao;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.domain.RepoUserGroup;
+import edu.kit.datamanager.entities.RepoUserRole;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.test.context.support.WithSecurityContextTestExecutionListener;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.test.context.web.ServletTestExecutionListener;
+import org.springframework.test.web.servlet.MockMvc;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import org.springframework.util.Base64Utils;
+
+/**
+ *
+ * @author jejkal
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+@TestExecutionListeners(listeners = {ServletTestExecutionListener.class,
+  DependencyInjectionTestExecutionListener.class,
+  DirtiesContextTestExecutionListener.class,
+  TransactionalTestExecutionListener.class,
+  WithSecurityContextTestExecutionListener.class})
+@ActiveProfiles("test")
+public class PersonalAccessTokenControllerTest{
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private IUserDao userDao;
+  @Autowired
+  private IGroupDao groupDao;
+  @Autowired
+  private IPersonalAccessTokenDao personalAccessTokenDao;
+  @Autowired
+  private BCryptPasswordEncoder passwordEncoder;
+
+  @Autowired
+  private ApplicationProperties applicationProperties;
+
+  @Before
+  public void setUp(){
+    //clean database
+    personalAccessTokenDao.deleteAll();
+    groupDao.deleteAll();
+    userDao.deleteAll();
+
+    //add admin
+    RepoUser admin = new RepoUser();
+    admin.setUsername("admin");
+    admin.setActive(true);
+    admin.setLocked(false);
+    admin.setPassword(passwordEncoder.encode("admin"));
+    admin.setRolesAsEnum(Arrays.asList(RepoUserRole.ADMINISTRATOR, RepoUserRole.USER));
+    admin.setEmail("test@mail.org");
+    userDao.saveAndFlush(admin);
+
+    //add defaultUser
+    RepoUser user = new RepoUser();
+    user.setUsername("user");
+    user.setActive(true);
+    user.setLocked(false);
+    user.setPassword(passwordEncoder.encode("user"));
+    user.setRolesAsEnum(Arrays.asList(RepoUserRole.USER));
+    user.setEmail("test@mail.org");
+    userDao.saveAndFlush(user);
+
+    //add someGroup
+    RepoUserGroup group = new RepoUserGroup();
+    group.setGroupId("SOME");
+    group.setGroupname("Some Group");
+    group.addOrUpdateMembership(admin, RepoUserGroup.GroupRole.GROUP_MANAGER);
+    group.addOrUpdateMembership(user, RepoUserGroup.GroupRole.GROUP_MEMBER);
+    groupDao.save(group);
+  }
+
+  @Test
+  public void testCreateAndUseToken() throws Exception{
+    String response = this.mockMvc.perform(post("/api/v1/tokens/personal").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"script\",\"groupId\":\"SOME\"}")).
+            andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getContentAsString();
+    String token = JsonPath.read(response, "$.token");
+    Assert.assertTrue(token.startsWith("kitdm_"));
+
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.username").value("user"));
+
+    //the token can be exchanged for a JSON Web Token associated with the group of the personal access token
+    String jwt = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token)).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    Claims claims = Jwts.parser().setSigningKey(applicationProperties.getJwtSecret()).parseClaimsJws(jwt).getBody();
+    Assert.assertEquals("user", claims.get("username", String.class));
+    Assert.assertEquals("SOME", claims.get("groupid", String.class));
+
+    //the token value is never returned again
+    this.mockMvc.perform(get("/api/v1/tokens/personal").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token)).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("0.name").value("script")).
+            andExpect(MockMvcResultMatchers.jsonPath("0.token").doesNotExist());
+  }
+
+  @Test
+  public void testInvalidToken() throws Exception{
+    String response = this.mockMvc.perform(post("/api/v1/tokens/personal").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"script\"}")).
+            andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getContentAsString();
+    String token = JsonPath.read(response, "$.token");
+
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token.substring(0, token.length() - 1) + "x")).andDo(print()).andExpect(status().isUnauthorized());
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Token kitdm_0000000000000000_invalid")).andDo(print()).andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testScopeExceedingCallerRoles() throws Exception{
+    this.mockMvc.perform(post("/api/v1/tokens/personal").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"script\",\"scopes\":[\"ROLE_ADMINISTRATOR\"]}")).
+            andDo(print()).andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void testScopeLimitsRoles() throws Exception{
+    String response = this.mockMvc.perform(post("/api/v1/tokens/personal").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"script\",\"scopes\":[\"ROLE_USER\"]}")).
+            andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getContentAsString();
+    String token = JsonPath.read(response, "$.token");
+
+    //listing users requires ROLE_ADMINISTRATOR, which is not granted by the token
+    this.mockMvc.perform(get("/api/v1/users/").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token)).andDo(print()).andExpect(status().isForbidden());
+  }
+
+  @Test
+  public void testExchangeOfScopedTokenIsRejected() throws Exception{
+    String response = this.mockMvc.perform(post("/api/v1/tokens/personal").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"script\",\"scopes\":[\"ROLE_USER\"]}")).
+            andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getContentAsString();
+    String token = JsonPath.read(response, "$.token");
+
+    //exchanging would mint a token carrying ROLE_ADMINISTRATOR
+    this.mockMvc.perform(post("/api/v1/login/exchange").param("groupId", "SOME").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token)).andDo(print()).andExpect(status().isForbidden());
+
+    //the same applies to JSON Web Tokens obtained using the personal access token
+    String jwt = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token)).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    Claims claims = Jwts.parser().setSigningKey(applicationProperties.getJwtSecret()).parseClaimsJws(jwt).getBody();
+    Assert.assertNotNull(claims.get("pat", String.class));
+    this.mockMvc.perform(post("/api/v1/login/exchange").param("groupId", "SOME").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + jwt)).andDo(print()).andExpect(status().isForbidden());
+  }
+
+  @Test
+  public void testCreateTokenUsingTokenIsRejected() throws Exception{
+    String response = this.mockMvc.perform(post("/api/v1/tokens/personal").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"script\",\"expiresAt\":4070908800000}")).
+            andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getContentAsString();
+    String token = JsonPath.read(response, "$.token");
+
+    //a token without expiration date would extend the access of the expiring token
+    this.mockMvc.perform(post("/api/v1/tokens/personal").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token).contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"forever\"}")).
+            andDo(print()).andExpect(status().isForbidden());
+  }
+
+  @Test
+  public void testDeleteRevokesToken() throws Exception{
+    String response = this.mockMvc.perform(post("/api/v1/tokens/personal").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"script\"}")).
+            andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getContentAsString();
+    String token = JsonPath.read(response, "$.token");
+    Integer id = JsonPath.read(response, "$.id");
+    String jwt = this.mockMvc.perform(post("/api/v1/login/").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token)).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + jwt)).andDo(print()).andExpect(status().isOk());
+
+    this.mockMvc.perform(delete("/api/v1/tokens/personal/" + id).header(HttpHeaders.AUTHORIZATION,
+            "Token " + token)).andDo(print()).andExpect(status().isNoContent());
+
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token)).andDo(print()).andExpect(status().isUnauthorized());
+    //tokens obtained using the personal access token are revoked as well
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + jwt)).andDo(print()).andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testRevokeUserRevokesTokens() throws Exception{
+    //revocations are kept in memory, thus, use a separate user in order to not affect other tests
+    RepoUser revoked = new RepoUser();
+    revoked.setUsername("revoked");
+    revoked.setActive(true);
+    revoked.setLocked(false);
+    revoked.setPassword(passwordEncoder.encode("revoked"));
+    revoked.setRolesAsEnum(Arrays.asList(RepoUserRole.USER));
+    userDao.saveAndFlush(revoked);
+
+    String response = this.mockMvc.perform(post("/api/v1/tokens/personal").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("revoked:revoked".getBytes())).contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"script\"}")).
+            andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getContentAsString();
+    String token = JsonPath.read(response, "$.token");
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token)).andDo(print()).andExpect(status().isOk());
+
+    this.mockMvc.perform(post("/api/v1/tokens/revoke").param("username", "revoked").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isNoContent());
+
+    //otherwise, each request would obtain a newly issued token not affected by the revocation
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Token " + token)).andDo(print()).andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testDeleteTokenOfOtherUser() throws Exception{
+    String response = this.mockMvc.perform(post("/api/v1/tokens/personal").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"script\"}")).
+            andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getContentAsString();
+    Integer id = JsonPath.read(response, "$.id");
+
+    this.mockMvc.perform(delete("/api/v1/tokens/personal/" + id).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andDo(print()).andExpect(status().isForbidden());
+  }
+}
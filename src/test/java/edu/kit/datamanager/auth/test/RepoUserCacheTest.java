@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.test;
+
+import edu.kit.datamanager.auth.configuration.ApplicationProperties;
+import edu.kit.datamanager.auth.domain.RepoUser;
+import edu.kit.datamanager.auth.service.impl.RepoUserCache;
+import edu.kit.datamanager.entities.RepoUserRole;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author jejkal
+ */
+public class RepoUserCacheTest{
+
+  private RepoUserCache cache;
+  private AtomicInteger loads;
+
+  @Before
+  public void setUp(){
+    ApplicationProperties properties = new ApplicationProperties();
+    properties.setUserCacheSize(10);
+    properties.setUserCacheTtl(60);
+    cache = new RepoUserCache(properties, new SimpleMeterRegistry());
+    loads = new AtomicInteger(0);
+  }
+
+  @Test
+  public void testUserIsLoadedOnce(){
+    Assert.assertEquals("test", cache.get("test", this::load).getUsername());
+    Assert.assertEquals("test", cache.get("TEST", this::load).getUsername());
+    Assert.assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void testModificationsDoNotLeakIntoCache(){
+    RepoUser user = cache.get("test", this::load);
+    user.setRolesAsEnum(Arrays.asList(RepoUserRole.INACTIVE));
+    user.setPassword(null);
+
+    RepoUser cached = cache.get("test", this::load);
+    Assert.assertEquals("secret", cached.getPassword());
+    Assert.assertTrue(cached.getRolesAsEnum().contains(RepoUserRole.USER));
+    Assert.assertFalse(cached.getRolesAsEnum().contains(RepoUserRole.INACTIVE));
+  }
+
+  @Test
+  public void testInvalidate(){
+    cache.get("test", this::load);
+    cache.invalidate("Test");
+    cache.get("test", this::load);
+    Assert.assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testUnknownUserIsNotCached(){
+    Assert.assertNull(cache.get("unknown", (username) -> {
+      loads.incrementAndGet();
+      return null;
+    }));
+    Assert.assertNull(cache.get("unknown", (username) -> {
+      loads.incrementAndGet();
+      return null;
+    }));
+    Assert.assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testUnknownUserIsCachedIfEnabled(){
+    ApplicationProperties properties = new ApplicationProperties();
+    properties.setUserCacheSize(10);
+    properties.setUserCacheTtl(60);
+    properties.setUserCacheNegativeSize(10);
+    properties.setUserCacheNegativeTtl(60);
+    RepoUserCache negativeCache = new RepoUserCache(properties, new SimpleMeterRegistry());
+    Assert.assertNull(negativeCache.get("unknown", (username) -> {
+      loads.incrementAndGet();
+      return null;
+    }));
+    Assert.assertNull(negativeCache.get("Unknown", this::load));
+    Assert.assertEquals(1, loads.get());
+
+    //e.g. after the user has been created
+    negativeCache.invalidate("unknown");
+    Assert.assertEquals("unknown", negativeCache.get("unknown", this::load).getUsername());
+    Assert.assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testUnknownUserIsNotCachedIfInvalidatedDuringLookup() throws Exception{
+    ApplicationProperties properties = new ApplicationProperties();
+    properties.setUserCacheSize(10);
+    properties.setUserCacheTtl(60);
+    properties.setUserCacheNegativeSize(10);
+    properties.setUserCacheNegativeTtl(60);
+    RepoUserCache negativeCache = new RepoUserCache(properties, new SimpleMeterRegistry());
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread lookup = new Thread(() -> negativeCache.get("new", (username) -> {
+      loading.countDown();
+      try{
+        release.await(10, TimeUnit.SECONDS);
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+      }
+      //the user has not been visible yet
+      return null;
+    }));
+    lookup.start();
+    Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+    //the user is created while the lookup is running, the invalidation may wait for the lookup
+    Thread creation = new Thread(() -> negativeCache.invalidate("new"));
+    creation.start();
+    while(creation.getState() == Thread.State.NEW || creation.getState() == Thread.State.RUNNABLE){
+      Thread.sleep(10);
+    }
+    release.countDown();
+    lookup.join(5000);
+    creation.join(5000);
+
+    RepoUser created = negativeCache.get("new", this::load);
+    Assert.assertNotNull(created);
+    Assert.assertEquals("new", created.getUsername());
+  }
+
+  private RepoUser load(String username){
+    loads.incrementAndGet();
+    RepoUser user = RepoUser.createUser();
+    user.setId(1l);
+    user.setUsername(username);
+    user.setPassword("secret");
+    user.setActive(Boolean.TRUE);
+    user.setLocked(Boolean.FALSE);
+    return user;
+  }
+}
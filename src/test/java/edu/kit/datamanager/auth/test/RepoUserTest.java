@@ -18,6 +18,8 @@ package edu.kit.datamanager.auth.test;
 import edu.kit.datamanager.auth.domain.RepoUser;
 import edu.kit.datamanager.entities.RepoUserRole;
 import edu.kit.datamanager.exceptions.CustomInternalServerError;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import org.apache.commons.lang3.time.DateUtils;
@@ -72,6 +74,44 @@ public class RepoUserTest{
     Assert.assertEquals(2, user.getRolesAsEnum().size());
   }
 
+  @Test
+  public void testRoleMask(){
+    user = RepoUser.createUser();
+    user.setUsername("test");
+    user.setRolesAsEnum(new ArrayList<>(Arrays.asList(RepoUserRole.GUEST, RepoUserRole.ADMINISTRATOR)));
+    user.convertEnumToRoles();
+    Assert.assertEquals(Integer.valueOf(RepoUser.toRoleMask(Arrays.asList(RepoUserRole.GUEST, RepoUserRole.ADMINISTRATOR))), user.getRoleMask());
+
+    //roles are hydrated from the mask, the JSON representation is not parsed
+    user.setRoles("[\"ROLE_SOME_INVALID_ROLE\"]");
+    user.hydrateRoles();
+    Assert.assertEquals(2, user.getRolesAsEnum().size());
+    Assert.assertTrue(user.getRolesAsEnum().contains(RepoUserRole.GUEST) && user.getRolesAsEnum().contains(RepoUserRole.ADMINISTRATOR));
+    user.addRole(RepoUserRole.USER);
+    Assert.assertEquals(3, user.getRolesAsEnum().size());
+  }
+
+  @Test
+  public void testRoleMaskBitsAreStable(){
+    //persisted masks must not depend on the order of RepoUserRole
+    Assert.assertEquals(1 << 1, RepoUser.toRoleMask(Arrays.asList(RepoUserRole.GUEST)));
+    Assert.assertEquals(1 << 2, RepoUser.toRoleMask(Arrays.asList(RepoUserRole.USER)));
+    Assert.assertEquals(1 << 3, RepoUser.toRoleMask(Arrays.asList(RepoUserRole.ADMINISTRATOR)));
+    Assert.assertEquals(1 << 4, RepoUser.toRoleMask(Arrays.asList(RepoUserRole.INACTIVE)));
+    Assert.assertEquals(Arrays.asList(RepoUserRole.USER), RepoUser.toRoles(1 << 2));
+  }
+
+  @Test
+  public void testLegacyRolesMigration(){
+    user = RepoUser.createUser();
+    user.setUsername("test");
+    user.setRoles("[\"ROLE_USER\", \"ROLE_GUEST\"]");
+    user.setRoleMask(null);
+    user.hydrateRoles();
+    Assert.assertTrue(user.getRolesAsEnum().contains(RepoUserRole.USER) && user.getRolesAsEnum().contains(RepoUserRole.GUEST));
+    Assert.assertEquals(Integer.valueOf(RepoUser.toRoleMask(Arrays.asList(RepoUserRole.USER, RepoUserRole.GUEST))), user.getRoleMask());
+  }
+
   @Test
   public void testEqualsAndHashCode(){
     Date expire = new Date();
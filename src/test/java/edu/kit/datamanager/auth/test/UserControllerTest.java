@@ -20,10 +20,13 @@ import edu.kit.datamanager.auth.dao.IGroupDao;
 import edu.kit.datamanager.auth.dao.IUserDao;
 import edu.kit.datamanager.auth.domain.RepoUser;
 import edu.kit.datamanager.entities.RepoUserRole;
+import java.net.URI;
+import java.time.Instant;
 import java.util.Arrays;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -46,6 +49,7 @@ import org.springframework.test.web.servlet.MvcResult;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import org.springframework.util.Base64Utils;
@@ -132,6 +136,54 @@ public class UserControllerTest{
             "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$[0].username").value("admin")).andExpect(header().exists("Link"));
   }
 
+  @Test
+  public void testGetUserListWithCursorAsAdmin() throws Exception{
+    String link = this.mockMvc.perform(get("/api/v1/users/").param("after", "").param("size", "10").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$[0].username").value("admin")).andExpect(MockMvcResultMatchers.jsonPath("$[9]").exists()).andExpect(MockMvcResultMatchers.jsonPath("$[10]").doesNotExist()).andReturn().getResponse().getHeader(HttpHeaders.LINK);
+    Assert.assertNotNull(link);
+    Assert.assertTrue(link.endsWith("; rel=\"next\""));
+    URI next = URI.create(link.substring(1, link.indexOf('>')));
+
+    this.mockMvc.perform(get(next).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$[2]").exists()).andExpect(MockMvcResultMatchers.jsonPath("$[3]").doesNotExist()).andExpect(header().doesNotExist(HttpHeaders.LINK));
+  }
+
+  @Test
+  public void testGetUserListModifiedSince() throws Exception{
+    //make sure all users have been modified before 'from'
+    Thread.sleep(20);
+    Instant from = Instant.now();
+    Thread.sleep(20);
+
+    this.mockMvc.perform(get("/api/v1/users/").param("from", from.toString()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$[0]").doesNotExist());
+
+    String etag = this.mockMvc.perform(get("/api/v1/users/" + defaultUser.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getHeader("ETag");
+    String patch = "[{\"op\": \"replace\",\"path\": \"/firstname\",\"value\": \"changed\"}]";
+    this.mockMvc.perform(patch("/api/v1/users/" + defaultUser.getId()).contentType("application/json-patch+json").content(patch).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).header("If-Match", etag)).andDo(print()).andExpect(status().isNoContent());
+
+    this.mockMvc.perform(get("/api/v1/users/").param("from", from.toString()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$[0].username").value("user")).andExpect(MockMvcResultMatchers.jsonPath("$[1]").doesNotExist());
+    this.mockMvc.perform(get("/api/v1/users/").param("after", "").param("from", from.toString()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$[0].username").value("user")).andExpect(MockMvcResultMatchers.jsonPath("$[1]").doesNotExist());
+    this.mockMvc.perform(get("/api/v1/users/").param("until", from.toString()).param("size", "100").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$[11]").exists()).andExpect(MockMvcResultMatchers.jsonPath("$[12]").doesNotExist());
+  }
+
+  @Test
+  public void testGetUserListWithInvalidCursor() throws Exception{
+    this.mockMvc.perform(get("/api/v1/users/").param("after", "invalid").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void testGetUserListWithCursorAsUser() throws Exception{
+    this.mockMvc.perform(get("/api/v1/users/").param("after", "").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes()))).andDo(print()).andExpect(status().isForbidden());
+  }
+
   @Test
   public void testGetUserListByExampleAsAdmin() throws Exception{
     RepoUser example = new RepoUser();
@@ -191,6 +243,23 @@ public class UserControllerTest{
             "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.password").doesNotExist());
   }
 
+  @Test
+  public void testGetUserNotModified() throws Exception{
+    String etag = this.mockMvc.perform(get("/api/v1/users/" + defaultUser.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes()))).andExpect(status().isOk()).andReturn().getResponse().getHeader("ETag");
+    this.mockMvc.perform(get("/api/v1/users/" + defaultUser.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).header(HttpHeaders.IF_NONE_MATCH, etag)).andDo(print()).andExpect(status().isNotModified()).andExpect(content().string(""));
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).header(HttpHeaders.IF_NONE_MATCH, etag)).andDo(print()).andExpect(status().isNotModified());
+
+    //modify user, old etag must no longer match
+    String patch = "[{\"op\": \"replace\",\"path\": \"/firstname\",\"value\": \"changed\"}]";
+    this.mockMvc.perform(patch("/api/v1/users/" + defaultUser.getId()).contentType("application/json-patch+json").content(patch).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).header("If-Match", etag)).andDo(print()).andExpect(status().isNoContent());
+    this.mockMvc.perform(get("/api/v1/users/" + defaultUser.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).header(HttpHeaders.IF_NONE_MATCH, etag)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.firstname").value("changed"));
+  }
+
   @Test
   public void testGetInvalidUserByAdmin() throws Exception{
     this.mockMvc.perform(get("/api/v1/users/0").header(HttpHeaders.AUTHORIZATION,
@@ -432,4 +501,73 @@ public class UserControllerTest{
     this.mockMvc.perform(post("/api/v1/users/").header(HttpHeaders.AUTHORIZATION,
             "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(created))).andDo(print()).andExpect(status().isCreated());
   }
+
+  @Test
+  public void testImportUsersAsNdjson() throws Exception{
+    String body = "{\"username\":\"imported1\",\"password\":\"secret\",\"email\":\"imported@mail.org\"}\n"
+            + "{\"username\":\"imported2\"}\n"
+            + "{\"username\":\"user\",\"password\":\"secret\"}\n"
+            + "not json\n"
+            + "{\"username\":\"imported1\",\"password\":\"secret\"}\n";
+    String result = this.mockMvc.perform(post("/api/v1/users/import").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).contentType("application/x-ndjson").content(body)).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    String[] lines = result.split("\n");
+    Assert.assertEquals(5, lines.length);
+    Assert.assertTrue(lines[0].contains("\"status\":\"CREATED\""));
+    for(int i = 1; i < lines.length; i++){
+      Assert.assertTrue(lines[i].contains("\"line\":" + (i + 1)));
+      Assert.assertTrue(lines[i].contains("\"status\":\"FAILED\""));
+    }
+
+    //imported users can login
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("imported1:secret".getBytes()))).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.email").value("imported@mail.org"));
+  }
+
+  @Test
+  public void testImportUsersAsCsv() throws Exception{
+    String body = "username,password,firstname,lastname,email,roles\n"
+            + "imported1,secret,\"Doe, Jane\",Doe,imported@mail.org,ROLE_USER\n"
+            + "imported2,secret,,,,ROLE_USER;ROLE_ADMINISTRATOR\n";
+    String result = this.mockMvc.perform(post("/api/v1/users/import").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).contentType("text/csv").content(body)).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    Assert.assertFalse(result.contains("FAILED"));
+    Assert.assertEquals("Doe, Jane", userDao.findByUsername("imported1").get().getFirstname());
+    Assert.assertTrue(userDao.findByUsername("imported2").get().getRolesAsEnum().contains(RepoUserRole.ADMINISTRATOR));
+
+    //imported administrators may list users
+    this.mockMvc.perform(get("/api/v1/users/").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("imported2:secret".getBytes()))).andDo(print()).andExpect(status().isOk());
+  }
+
+  @Test
+  public void testImportUsersAsUser() throws Exception{
+    this.mockMvc.perform(post("/api/v1/users/import").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("user:user".getBytes())).contentType("application/x-ndjson").content("{\"username\":\"imported1\",\"password\":\"secret\"}\n")).andDo(print()).andExpect(status().isForbidden());
+  }
+
+  @Test
+  public void testRegisterUserWithPasswordAlgorithmAsAdministrator() throws Exception{
+    RepoUser created = new RepoUser();
+    created.setUsername("service");
+    created.setPassword("service");
+    created.setPasswordAlgorithm("pbkdf2");
+    ObjectMapper mapper = new ObjectMapper();
+    this.mockMvc.perform(post("/api/v1/users/").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("admin:admin".getBytes())).contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(created))).andDo(print()).andExpect(status().isCreated());
+    Assert.assertTrue(userDao.findByUsername("service").get().getPassword().startsWith("{pbkdf2}"));
+
+    this.mockMvc.perform(get("/api/v1/users/me").header(HttpHeaders.AUTHORIZATION,
+            "Basic " + Base64Utils.encodeToString("service:service".getBytes()))).andDo(print()).andExpect(status().isOk());
+  }
+
+  @Test
+  public void testRegisterUserWithPasswordAlgorithm() throws Exception{
+    RepoUser created = new RepoUser();
+    created.setUsername("service");
+    created.setPassword("service");
+    created.setPasswordAlgorithm("pbkdf2");
+    ObjectMapper mapper = new ObjectMapper();
+    this.mockMvc.perform(post("/api/v1/users/").contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(created))).andDo(print()).andExpect(status().isBadRequest());
+  }
 }
@@ -168,17 +168,23 @@ public class AuthServiceDocumentationTest{
     user2 = mapper.readValue(user2Document, RepoUser.class);
     Assert.assertNotNull(user2);
 
-    patch = "[{\"op\": \"add\",\"path\": \"/memberships/1\",\"value\": {\"user\":{\"id\":" + user2.getId() + "}, \"role\":\"GROUP_MEMBER\"}}]";
-    this.mockMvc.perform(patch("/api/v1/groups/" + group.getId()).contentType("application/json-patch+json").content(patch).header(HttpHeaders.AUTHORIZATION,
-            "Bearer " + jwt).header("If-Match", etag)).
-            andExpect(status().isNoContent()).
-            andDo(document("patch-group", preprocessRequest(prettyPrint()), preprocessResponse(prettyPrint()))).
+    String membership = "{\"user\":{\"id\":" + user2.getId() + "}, \"role\":\"GROUP_MEMBER\"}";
+    this.mockMvc.perform(post("/api/v1/groups/" + group.getId() + "/members").contentType("application/json").content(membership).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + jwt)).
+            andExpect(status().isOk()).
+            andDo(document("add-group-member", preprocessRequest(prettyPrint()), preprocessResponse(prettyPrint()))).
+            andReturn();
+
+    this.mockMvc.perform(get("/api/v1/groups/" + group.getId() + "/members").param("page", "0").param("size", "10").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + jwt)).
+            andExpect(status().isOk()).
+            andDo(document("get-group-members", preprocessRequest(prettyPrint()), preprocessResponse(prettyPrint()))).
             andReturn();
 
+    //adding a member changes the version of the group, thus, obtain the current ETag
     etag = this.mockMvc.perform(get("/api/v1/groups/" + group.getId()).contentType("application/json").header(HttpHeaders.AUTHORIZATION,
             "Bearer " + jwt)).
             andExpect(status().isOk()).
-            andDo(document("get-patched-group", preprocessRequest(prettyPrint()), preprocessResponse(prettyPrint()))).
             andReturn().getResponse().getHeader("ETag");
 
     this.mockMvc.perform(delete("/api/v1/groups/" + group.getId()).contentType("application/json").header(HttpHeaders.AUTHORIZATION,
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author jejkal
+ */
+public class BCryptStrengthCalibratorTest{
+
+  @Test
+  public void testMinStrengthIfTargetIsNotReachable(){
+    Assert.assertEquals(6, BCryptStrengthCalibrator.calibrate(6, 0));
+  }
+
+  @Test
+  public void testCalibratedStrengthMeetsTarget(){
+    //strength 11 takes far more than 20 ms on any current machine
+    int strength = BCryptStrengthCalibrator.calibrate(4, 20);
+    Assert.assertTrue(strength >= 4);
+    Assert.assertTrue(strength < 11);
+  }
+}
@@ -26,9 +26,16 @@ import edu.kit.datamanager.exceptions.PatchApplicationException;
 import edu.kit.datamanager.exceptions.ResourceNotFoundException;
 import edu.kit.datamanager.exceptions.UpdateForbiddenException;
 import edu.kit.datamanager.security.filter.JwtAuthenticationToken;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.collections4.CollectionUtils;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -38,6 +45,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -55,6 +63,8 @@ public class ExtendedJwtAuthenticationProviderTest{
   private final static String USER_PASSWORD = "test";
   private final static RepoUser USER = new RepoUser();
   private final static BCryptPasswordEncoder ENCODER = new BCryptPasswordEncoder();
+  private final static JwtTokenMinter MINTER = new JwtTokenMinter("test123");
+  private final static PasswordVerifier VERIFIER = new PasswordVerifier(ENCODER, 1, 10, 5000, 5, new SimpleMeterRegistry());
 
   private final static IUserService USER_SERVICE = new IUserService(){
     @Override
@@ -80,6 +90,36 @@ public class ExtendedJwtAuthenticationProviderTest{
       USER.setLoginFailures(entity.getLoginFailures());
     }
 
+    @Override
+    public int registerLoginFailure(String username, int maxFailures, Date lockedUntil){
+      if(!"test".equals(username) || Boolean.TRUE.equals(USER.getLocked())){
+        return 0;
+      }
+      int failures = Math.min(maxFailures, ((USER.getLoginFailures() != null) ? USER.getLoginFailures() : 0) + 1);
+      USER.setLoginFailures(failures);
+      if(failures >= maxFailures){
+        USER.setLocked(Boolean.TRUE);
+        USER.setLockedUntil(lockedUntil);
+      }
+      return failures;
+    }
+
+    @Override
+    public void resetLoginFailures(String username){
+      if("test".equals(username)){
+        USER.setLoginFailures(0);
+      }
+    }
+
+    @Override
+    public boolean upgradePassword(String username, String currentPassword, String newPassword){
+      if(!"test".equals(username) || !currentPassword.equals(USER.getPassword())){
+        return false;
+      }
+      USER.setPassword(newPassword);
+      return true;
+    }
+
     @Override
     public void patch(RepoUser entity, JsonPatch patch, Collection<? extends GrantedAuthority> userGrants){
       throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
@@ -113,6 +153,11 @@ public class ExtendedJwtAuthenticationProviderTest{
       throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    @Override
+    public Slice<RepoUser> findAllAfter(RepoUser example, Instant lastUpdateFrom, Instant lastUpdateUntil, Long afterId, int size){
+      throw new UnsupportedOperationException("Not supported yet.");
+    }
+
   };
 
   @Autowired
@@ -139,7 +184,7 @@ public class ExtendedJwtAuthenticationProviderTest{
 
   @Test
   public void testSuccessfulAuthentication(){
-    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, ENCODER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
+    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, VERIFIER, MINTER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
     Authentication auth = getAuthentication(USER);
 
     RepoUser authUser = provider.getUser(auth);
@@ -148,9 +193,32 @@ public class ExtendedJwtAuthenticationProviderTest{
     Assert.assertEquals(USER, authUser);
   }
 
+  @Test
+  public void testPasswordUpgrade() throws Exception{
+    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, VERIFIER, MINTER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
+    //passwords of USER are encoded with the default strength 10 and without algorithm prefix
+    PasswordEncodingPolicy policy = new PasswordEncodingPolicy(PasswordEncodingPolicy.BCRYPT, new BCryptPasswordEncoder(11), 1000);
+    PasswordUpgrader upgrader = new PasswordUpgrader(policy, USER_SERVICE, 1, new SimpleMeterRegistry(), LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
+    provider.setPasswordUpgrader(upgrader);
+    String password = USER.getPassword();
+    try{
+      Assert.assertNotNull(provider.getUser(getAuthentication(USER)));
+      for(int i = 0; i < 100 && password.equals(USER.getPassword()); i++){
+        Thread.sleep(50);
+      }
+      Assert.assertTrue(USER.getPassword().startsWith("{bcrypt}$2a$11$"));
+      Assert.assertTrue(policy.getDefaultEncoder().matches(USER_PASSWORD, USER.getPassword()));
+      //upgraded passwords are kept
+      Assert.assertFalse(upgrader.upgradeIfNeeded(USER, USER_PASSWORD));
+    } finally{
+      upgrader.shutdown();
+      USER.setPassword(password);
+    }
+  }
+
   @Test(expected = InvalidAuthenticationException.class)
   public void testInvalidPassword(){
-    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, ENCODER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
+    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, VERIFIER, MINTER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
     Authentication auth = getAuthentication(USER, "invalid");
 
     RepoUser authUser = provider.getUser(auth);
@@ -161,7 +229,7 @@ public class ExtendedJwtAuthenticationProviderTest{
 
   @Test(expected = InvalidAuthenticationException.class)
   public void testInactiveUser(){
-    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, ENCODER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
+    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, VERIFIER, MINTER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
     USER.setActive(false);
     Authentication auth = getAuthentication(USER);
     try{
@@ -174,7 +242,7 @@ public class ExtendedJwtAuthenticationProviderTest{
 
   @Test(expected = InvalidAuthenticationException.class)
   public void testLockedUser(){
-    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, ENCODER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
+    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, VERIFIER, MINTER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
     USER.setLocked(true);
     Authentication auth = getAuthentication(USER);
     try{
@@ -187,7 +255,7 @@ public class ExtendedJwtAuthenticationProviderTest{
 
   @Test
   public void testLocking(){
-    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, ENCODER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
+    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, VERIFIER, MINTER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
     Assert.assertFalse(USER.getLocked());
     Authentication auth = getAuthentication(USER, null);
     try{
@@ -207,9 +275,82 @@ public class ExtendedJwtAuthenticationProviderTest{
     }
   }
 
+  @Test
+  public void testAsymmetricTokenAuthentication(){
+    JwtSigningKey key = JwtSigningKey.generate(SignatureAlgorithm.ES256);
+    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, VERIFIER, new JwtTokenMinter(key), new JwtKeySet(key, null, 0), LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
+    Map<String, Object> claims = new HashMap<>();
+    claims.put("username", "test");
+    claims.put("groupid", "USERS");
+    claims.put("roles", JwtTokenMinter.rolesClaim(Arrays.asList(RepoUserRole.USER)));
+    String token = new JwtTokenMinter(key).mint(claims, DateUtils.addHours(new Date(), 1));
+
+    Authentication result = provider.authenticate(JwtAuthenticationToken.factoryToken(token, claims));
+    Assert.assertTrue(result instanceof JwtAuthenticationToken);
+    Assert.assertEquals(token, ((JwtAuthenticationToken) result).getToken());
+
+    //token signed with a key not contained in the key set
+    String foreignToken = new JwtTokenMinter(JwtSigningKey.generate(SignatureAlgorithm.ES256)).mint(claims, DateUtils.addHours(new Date(), 1));
+    try{
+      provider.authenticate(JwtAuthenticationToken.factoryToken(foreignToken, claims));
+      Assert.fail("Token signed with unknown key should have been rejected.");
+    } catch(InvalidAuthenticationException ex){
+      //expected
+    }
+  }
+
+  @Test
+  public void testTokenCache(){
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    TokenRevocationList revocationList = new TokenRevocationList(100, 0.01, registry);
+    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, VERIFIER, MINTER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
+    provider.setTokenCache(new ValidatedTokenCache(100, registry));
+    provider.setRevocationList(revocationList);
+    Map<String, Object> claims = new HashMap<>();
+    claims.put("jti", "id1");
+    claims.put("username", "test");
+    claims.put("groupid", "USERS");
+    claims.put("roles", JwtTokenMinter.rolesClaim(Arrays.asList(RepoUserRole.USER)));
+    String token = MINTER.mint(claims, DateUtils.addHours(new Date(), 1));
+
+    Authentication first = provider.authenticate(JwtAuthenticationToken.factoryToken(token, claims));
+    Authentication second = provider.authenticate(JwtAuthenticationToken.factoryToken(token, claims));
+    Assert.assertSame(first, second);
+    Assert.assertEquals(1.0, registry.get("cache.gets").tag("cache", "tokens").tag("result", "hit").functionCounter().count(), 0.0);
+
+    //cached tokens are rejected as soon as they are revoked
+    revocationList.revokeToken("id1", System.currentTimeMillis() + 60000);
+    try{
+      provider.authenticate(JwtAuthenticationToken.factoryToken(token, claims));
+      Assert.fail("Revoked token should have been rejected.");
+    } catch(InvalidAuthenticationException ex){
+      //expected
+    }
+  }
+
+  @Test
+  public void testExpiredTokenIsNotCached(){
+    ValidatedTokenCache cache = new ValidatedTokenCache(100, new SimpleMeterRegistry());
+    Authentication authentication = getAuthentication(USER);
+    Map<String, Object> claims = new HashMap<>();
+    claims.put("jti", "id1");
+    claims.put("username", "test");
+    String expired = MINTER.mint(claims, DateUtils.addMinutes(new Date(), -1));
+    String unlimited = MINTER.mint(claims, null);
+    String valid = MINTER.mint(claims, DateUtils.addMinutes(new Date(), 1));
+    cache.put(expired, authentication, TokenRevocationList.TokenInfo.of(expired));
+    cache.put(unlimited, authentication, TokenRevocationList.TokenInfo.of(unlimited));
+    cache.put(valid, authentication, TokenRevocationList.TokenInfo.of(valid));
+    Assert.assertNull(cache.get(expired));
+    Assert.assertNull(cache.get(unlimited));
+    Assert.assertSame(authentication, cache.get(valid).getAuthentication());
+    //the claims are kept for revocation checks
+    Assert.assertEquals("id1", cache.get(valid).getTokenInfo().getTokenId());
+  }
+
   @Test
   public void testSupports(){
-    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, ENCODER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
+    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", USER_SERVICE, userGroupService, VERIFIER, MINTER, LoggerFactory.getLogger(ExtendedJwtAuthenticationProviderTest.class));
     Assert.assertTrue(provider.supports(JwtAuthenticationToken.class));
     Assert.assertTrue(provider.supports(UsernamePasswordAuthenticationToken.class));
     Assert.assertFalse(provider.supports(AnonymousAuthenticationToken.class));
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author jejkal
+ */
+public class JwtKeySetTest{
+
+  @Test
+  public void testNextKeyIsPublished(){
+    JwtSigningKey signingKey = JwtSigningKey.generate(SignatureAlgorithm.ES256);
+    JwtSigningKey nextKey = JwtSigningKey.generate(SignatureAlgorithm.ES256);
+    JwtKeySet keySet = new JwtKeySet(signingKey, nextKey, 60000);
+
+    Assert.assertEquals(signingKey, keySet.getSigningKey());
+    Assert.assertEquals(2, ((List) keySet.toJwks().get("keys")).size());
+    Assert.assertEquals(nextKey.getPublicKey(), keySet.getPublicKey(nextKey.getKeyId()));
+    Assert.assertNull(keySet.getPublicKey("unknown"));
+  }
+
+  @Test
+  public void testRotation(){
+    JwtSigningKey signingKey = JwtSigningKey.generate(SignatureAlgorithm.ES256);
+    JwtSigningKey nextKey = JwtSigningKey.generate(SignatureAlgorithm.ES256);
+    JwtKeySet keySet = new JwtKeySet(signingKey, nextKey, 60000);
+    JwtTokenMinter minter = new JwtTokenMinter(keySet);
+    Map<String, Object> claims = new HashMap<>();
+    claims.put("username", "test");
+    String oldToken = minter.mint(claims, DateUtils.addHours(new Date(), 1));
+    String etag = keySet.getEtag();
+
+    Assert.assertEquals(nextKey, keySet.rotate());
+    Assert.assertEquals(nextKey, keySet.getSigningKey());
+    Assert.assertNotEquals(etag, keySet.getEtag());
+    //former signing key, current signing key and new next key are published
+    Assert.assertEquals(3, ((List) keySet.toJwks().get("keys")).size());
+
+    //tokens signed before rotation are still valid
+    Jws<Claims> jws = Jwts.parser().setSigningKey(keySet.getPublicKey(signingKey.getKeyId())).parseClaimsJws(oldToken);
+    Assert.assertEquals("test", jws.getBody().get("username", String.class));
+
+    //new tokens are signed with the new key
+    String newToken = minter.mint(claims, DateUtils.addHours(new Date(), 1));
+    jws = Jwts.parser().setSigningKey(nextKey.getPublicKey()).parseClaimsJws(newToken);
+    Assert.assertEquals(nextKey.getKeyId(), jws.getHeader().getKeyId());
+    Assert.assertEquals(nextKey.getKeyId(), minter.getKeyId());
+  }
+
+  @Test
+  public void testRetirement(){
+    JwtSigningKey signingKey = JwtSigningKey.generate(SignatureAlgorithm.ES256);
+    JwtKeySet keySet = new JwtKeySet(signingKey, null, 0);
+
+    keySet.rotate();
+    //no retention, thus, the former signing key is removed immediately
+    Assert.assertNull(keySet.getPublicKey(signingKey.getKeyId()));
+    Assert.assertEquals(2, ((List) keySet.toJwks().get("keys")).size());
+    Assert.assertEquals(0, keySet.retireExpiredKeys());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRotationOfEmptyKeySet(){
+    JwtKeySet.empty().rotate();
+  }
+}
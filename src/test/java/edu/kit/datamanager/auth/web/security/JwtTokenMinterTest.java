@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import edu.kit.datamanager.entities.RepoUserRole;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author jejkal
+ */
+public class JwtTokenMinterTest{
+
+  private final static String SECRET = "test123";
+
+  @Test
+  public void testMintedTokenIsValid(){
+    JwtTokenMinter minter = new JwtTokenMinter(SECRET);
+    Map<String, Object> claims = new HashMap<>();
+    claims.put("username", "test");
+    claims.put("firstname", "Test \"Quoted\" User");
+    claims.put("groupid", "USERS");
+    claims.put("roles", JwtTokenMinter.rolesClaim(Arrays.asList(RepoUserRole.USER, RepoUserRole.ADMINISTRATOR)));
+    Date expiration = DateUtils.addHours(new Date(), 1);
+
+    String token = minter.mint(claims, expiration);
+
+    Jws<Claims> jws = Jwts.parser().setSigningKey(SECRET).parseClaimsJws(token);
+    Assert.assertEquals(SignatureAlgorithm.HS512.getValue(), jws.getHeader().getAlgorithm());
+    Assert.assertEquals("test", jws.getBody().get("username", String.class));
+    Assert.assertEquals("Test \"Quoted\" User", jws.getBody().get("firstname", String.class));
+    Assert.assertEquals("USERS", jws.getBody().get("groupid", String.class));
+    Assert.assertEquals(claims.get("roles"), jws.getBody().get("roles", String.class));
+    Assert.assertEquals(expiration.getTime() / 1000, jws.getBody().getExpiration().getTime() / 1000);
+  }
+
+  @Test
+  public void testMintedTokenMatchesJjwtSignature(){
+    JwtTokenMinter minter = new JwtTokenMinter(SECRET);
+    Map<String, Object> claims = new HashMap<>();
+    claims.put("username", "test");
+    Date expiration = new Date(1550154018000l);
+
+    String minted = minter.mint(claims, expiration);
+    String built = Jwts.builder().setClaims(new HashMap<>(claims)).setExpiration(expiration).signWith(SignatureAlgorithm.HS512, SECRET).compact();
+
+    Assert.assertEquals(built, minted);
+  }
+
+  @Test(expected = SignatureException.class)
+  public void testTokenWithOtherSecretIsRejected(){
+    String token = new JwtTokenMinter("other123").mint(new HashMap<>(), DateUtils.addHours(new Date(), 1));
+    Jwts.parser().setSigningKey(SECRET).parseClaimsJws(token);
+  }
+
+  @Test
+  public void testRsaSignedTokenIsValid(){
+    JwtSigningKey key = JwtSigningKey.generate(SignatureAlgorithm.RS256);
+    Map<String, Object> claims = new HashMap<>();
+    claims.put("username", "test");
+
+    String token = new JwtTokenMinter(key).mint(claims, DateUtils.addHours(new Date(), 1));
+
+    Jws<Claims> jws = Jwts.parser().setSigningKey(key.getPublicKey()).parseClaimsJws(token);
+    Assert.assertEquals("RS256", jws.getHeader().getAlgorithm());
+    Assert.assertEquals(key.getKeyId(), jws.getHeader().getKeyId());
+    Assert.assertEquals("test", jws.getBody().get("username", String.class));
+  }
+
+  @Test
+  public void testEcSignedTokenIsValid(){
+    JwtSigningKey key = JwtSigningKey.generate(SignatureAlgorithm.ES256);
+    Map<String, Object> claims = new HashMap<>();
+    claims.put("username", "test");
+
+    String token = new JwtTokenMinter(key).mint(claims, DateUtils.addHours(new Date(), 1));
+
+    Jws<Claims> jws = Jwts.parser().setSigningKey(key.getPublicKey()).parseClaimsJws(token);
+    Assert.assertEquals("ES256", jws.getHeader().getAlgorithm());
+    Assert.assertEquals(key.getKeyId(), jws.getHeader().getKeyId());
+    Assert.assertEquals("test", jws.getBody().get("username", String.class));
+  }
+
+  @Test(expected = SignatureException.class)
+  public void testTokenWithOtherKeyIsRejected(){
+    String token = new JwtTokenMinter(JwtSigningKey.generate(SignatureAlgorithm.RS256)).mint(new HashMap<>(), DateUtils.addHours(new Date(), 1));
+    Jwts.parser().setSigningKey(JwtSigningKey.generate(SignatureAlgorithm.RS256).getPublicKey()).parseClaimsJws(token);
+  }
+
+  @Test
+  public void testRolesClaim(){
+    Assert.assertEquals("[]", JwtTokenMinter.rolesClaim(null));
+    Assert.assertEquals("[\"ROLE_USER\"]", JwtTokenMinter.rolesClaim(Arrays.asList(RepoUserRole.USER, RepoUserRole.USER)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingSecret(){
+    new JwtTokenMinter(null);
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import edu.kit.datamanager.auth.domain.RepoUser;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+
+/**
+ *
+ * @author jejkal
+ */
+public class LoginCoalescerTest{
+
+  @Test
+  public void testConcurrentLoginsAreCoalesced() throws Exception{
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    LoginCoalescer coalescer = new LoginCoalescer(registry);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger verifications = new AtomicInteger();
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try{
+      Future<RepoUser> leader = callers.submit(() -> coalescer.verify("ci", "secret", () -> {
+        verifications.incrementAndGet();
+        running.countDown();
+        await(release);
+        return createUser("ci");
+      }));
+      Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+      Future<RepoUser> waiter = callers.submit(() -> coalescer.verify("ci", "secret", () -> {
+        verifications.incrementAndGet();
+        return createUser("ci");
+      }));
+      waitForCoalescedCount(registry, 1);
+      release.countDown();
+
+      RepoUser first = leader.get(5, TimeUnit.SECONDS);
+      RepoUser second = waiter.get(5, TimeUnit.SECONDS);
+      Assert.assertEquals(1, verifications.get());
+      Assert.assertEquals("ci", first.getUsername());
+      Assert.assertEquals("ci", second.getUsername());
+      Assert.assertNotSame(first, second);
+      Assert.assertEquals(1.0, registry.get("auth.login.verifications").tag("result", "verified").counter().count(), 0.0);
+    } finally{
+      release.countDown();
+      callers.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testDifferentPasswordsAreNotCoalesced() throws Exception{
+    LoginCoalescer coalescer = new LoginCoalescer(new SimpleMeterRegistry());
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService callers = Executors.newFixedThreadPool(1);
+    try{
+      Future<RepoUser> leader = callers.submit(() -> coalescer.verify("ci", "secret", () -> {
+        running.countDown();
+        await(release);
+        return createUser("ci");
+      }));
+      Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+      //a wrong password must be verified separately while the first verification is still running
+      try{
+        coalescer.verify("ci", "wrong", () -> {
+          throw new BadCredentialsException("Invalid credentials.");
+        });
+        Assert.fail("Login with wrong password should have failed.");
+      } catch(BadCredentialsException ex){
+        //fine
+      }
+      release.countDown();
+      Assert.assertEquals("ci", leader.get(5, TimeUnit.SECONDS).getUsername());
+    } finally{
+      release.countDown();
+      callers.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFailureIsSharedWithWaiters() throws Exception{
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    LoginCoalescer coalescer = new LoginCoalescer(registry);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try{
+      Future<RepoUser> leader = callers.submit(() -> coalescer.verify("ci", "wrong", () -> {
+        running.countDown();
+        await(release);
+        throw new BadCredentialsException("Invalid credentials.");
+      }));
+      Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+      Future<RepoUser> waiter = callers.submit(() -> coalescer.verify("ci", "wrong", () -> createUser("ci")));
+      waitForCoalescedCount(registry, 1);
+      release.countDown();
+
+      assertBadCredentials(leader);
+      assertBadCredentials(waiter);
+      //the failed verification is not remembered
+      Assert.assertEquals("ci", coalescer.verify("ci", "wrong", () -> createUser("ci")).getUsername());
+    } finally{
+      release.countDown();
+      callers.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testErrorIsSharedWithWaiters() throws Exception{
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    LoginCoalescer coalescer = new LoginCoalescer(registry);
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try{
+      Future<RepoUser> leader = callers.submit(() -> coalescer.verify("ci", "secret", () -> {
+        running.countDown();
+        await(release);
+        throw new StackOverflowError();
+      }));
+      Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+      Future<RepoUser> waiter = callers.submit(() -> coalescer.verify("ci", "secret", () -> createUser("ci")));
+      waitForCoalescedCount(registry, 1);
+      release.countDown();
+
+      for(Future<RepoUser> result : Arrays.asList(leader, waiter)){
+        try{
+          result.get(5, TimeUnit.SECONDS);
+          Assert.fail("Login should have failed.");
+        } catch(ExecutionException ex){
+          Assert.assertTrue(ex.getCause() instanceof StackOverflowError);
+        }
+      }
+    } finally{
+      release.countDown();
+      callers.shutdownNow();
+    }
+  }
+
+  private void assertBadCredentials(Future<RepoUser> result) throws InterruptedException{
+    try{
+      result.get(5, TimeUnit.SECONDS);
+      Assert.fail("Login should have failed.");
+    } catch(ExecutionException ex){
+      Assert.assertTrue(ex.getCause() instanceof BadCredentialsException);
+    } catch(TimeoutException ex){
+      Assert.fail("Login did not finish in time.");
+    }
+  }
+
+  private void waitForCoalescedCount(SimpleMeterRegistry registry, int count) throws InterruptedException{
+    for(int i = 0; i < 100; i++){
+      if(registry.get("auth.login.verifications").tag("result", "coalesced").counter().count() >= count){
+        return;
+      }
+      Thread.sleep(50);
+    }
+    Assert.fail("Coalesced count " + count + " not reached.");
+  }
+
+  private static void await(CountDownLatch latch){
+    try{
+      latch.await(10, TimeUnit.SECONDS);
+    } catch(InterruptedException ex){
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static RepoUser createUser(String username){
+    RepoUser user = new RepoUser();
+    user.setUsername(username);
+    return user;
+  }
+}
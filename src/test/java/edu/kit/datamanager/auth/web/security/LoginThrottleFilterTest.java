@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ *
+ * @author jejkal
+ */
+public class LoginThrottleFilterTest{
+
+  @Test
+  public void testRateLimiterBurst(){
+    ShardedRateLimiter limiter = new ShardedRateLimiter(1, 3, 16);
+    Assert.assertEquals(0, limiter.tryAcquire("a"));
+    Assert.assertEquals(0, limiter.tryAcquire("a"));
+    Assert.assertEquals(0, limiter.tryAcquire("a"));
+    long wait = limiter.tryAcquire("a");
+    //one permit per minute
+    Assert.assertTrue(wait > 0 && wait <= 60_000_000_000l);
+  }
+
+  @Test
+  public void testThrottlingByAddress() throws Exception{
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    LoginThrottleFilter filter = new LoginThrottleFilter(new ShardedRateLimiter(1, 2, 1024), null, registry);
+    Assert.assertEquals(HttpStatus.OK.value(), doFilter(filter, "10.0.0.1", "user1"));
+    Assert.assertEquals(HttpStatus.OK.value(), doFilter(filter, "10.0.0.1", "user2"));
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    MockFilterChain chain = new MockFilterChain();
+    filter.doFilter(createRequest("10.0.0.1", "user3"), response, chain);
+    Assert.assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), response.getStatus());
+    Assert.assertNotNull(response.getHeader(HttpHeaders.RETRY_AFTER));
+    //the request must not reach authentication
+    Assert.assertNull(chain.getRequest());
+    Assert.assertEquals(1.0, registry.get("auth.login.throttled").tag("key", "address").counter().count(), 0.0);
+  }
+
+  @Test
+  public void testSuccessfulLoginsAreNotThrottledByUsername() throws Exception{
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    LoginThrottleFilter filter = new LoginThrottleFilter(null, new ShardedRateLimiter(1, 2, 1024), registry);
+    for(int i = 0; i < 5; i++){
+      Assert.assertEquals(HttpStatus.OK.value(), doFilter(filter, "10.0.0.1", "user", true));
+    }
+    Assert.assertEquals(0.0, registry.get("auth.login.throttled").tag("key", "username").counter().count(), 0.0);
+  }
+
+  @Test
+  public void testThrottlingOfFailedLoginsByUsernameAndAddress() throws Exception{
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    LoginThrottleFilter filter = new LoginThrottleFilter(null, new ShardedRateLimiter(1, 2, 1024), registry);
+    Assert.assertEquals(HttpStatus.UNAUTHORIZED.value(), doFilter(filter, "10.0.0.1", "user", false));
+    Assert.assertEquals(HttpStatus.UNAUTHORIZED.value(), doFilter(filter, "10.0.0.1", "User", false));
+    //further attempts from this address are throttled, even with the correct password
+    Assert.assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), doFilter(filter, "10.0.0.1", "user", true));
+    //the user is not locked out from other addresses
+    Assert.assertEquals(HttpStatus.OK.value(), doFilter(filter, "10.0.0.2", "user", true));
+    Assert.assertEquals(1.0, registry.get("auth.login.throttled").tag("key", "username").counter().count(), 0.0);
+  }
+
+  @Test
+  public void testRequestsWithoutBasicCredentialsAreNotThrottled() throws Exception{
+    LoginThrottleFilter filter = new LoginThrottleFilter(new ShardedRateLimiter(1, 1, 1024), new ShardedRateLimiter(1, 1, 1024), new SimpleMeterRegistry());
+    for(int i = 0; i < 3; i++){
+      MockHttpServletRequest request = new MockHttpServletRequest();
+      request.setRemoteAddr("10.0.0.1");
+      request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer token");
+      MockHttpServletResponse response = new MockHttpServletResponse();
+      filter.doFilter(request, response, new MockFilterChain());
+      Assert.assertEquals(HttpStatus.OK.value(), response.getStatus());
+    }
+  }
+
+  private int doFilter(LoginThrottleFilter filter, String address, String username) throws Exception{
+    return doFilter(filter, address, username, true);
+  }
+
+  private int doFilter(LoginThrottleFilter filter, String address, String username, boolean authenticated) throws Exception{
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter(createRequest(address, username), response, (req, res) -> {
+      if(!authenticated){
+        ((HttpServletResponse) res).sendError(HttpStatus.UNAUTHORIZED.value());
+      }
+    });
+    return response.getStatus();
+  }
+
+  private MockHttpServletRequest createRequest(String address, String username){
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setRemoteAddr(address);
+    String credentials = Base64.getEncoder().encodeToString((username + ":secret").getBytes(StandardCharsets.UTF_8));
+    request.addHeader(HttpHeaders.AUTHORIZATION, "Basic " + credentials);
+    return request;
+  }
+}
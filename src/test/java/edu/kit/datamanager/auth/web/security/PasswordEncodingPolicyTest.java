@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import edu.kit.datamanager.auth.domain.RepoUser;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ *
+ * @author jejkal
+ */
+public class PasswordEncodingPolicyTest{
+
+  private final BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(4);
+  private final PasswordEncodingPolicy policy = new PasswordEncodingPolicy(PasswordEncodingPolicy.BCRYPT, bcrypt, 1000);
+
+  @Test
+  public void testLegacyPasswords(){
+    String legacy = bcrypt.encode("secret");
+    Assert.assertTrue(policy.getDefaultEncoder().matches("secret", legacy));
+    Assert.assertFalse(policy.getDefaultEncoder().matches("wrong", legacy));
+    //passwords without algorithm prefix are re-encoded with prefix
+    Assert.assertTrue(policy.getDefaultEncoder().upgradeEncoding(legacy));
+  }
+
+  @Test
+  public void testPasswordAlgorithmOfUser(){
+    RepoUser service = new RepoUser();
+    service.setPasswordAlgorithm(PasswordEncodingPolicy.PBKDF2);
+    PasswordEncoder encoder = policy.forUser(service);
+    String encoded = encoder.encode("secret");
+    Assert.assertTrue(encoded.startsWith("{pbkdf2}"));
+    //all encoders verify passwords of all algorithms
+    Assert.assertTrue(policy.getDefaultEncoder().matches("secret", encoded));
+    Assert.assertTrue(encoder.matches("secret", policy.getDefaultEncoder().encode("secret")));
+    //passwords of other algorithms than the one of the user are re-encoded
+    Assert.assertFalse(encoder.upgradeEncoding(encoded));
+    Assert.assertTrue(encoder.upgradeEncoding(policy.getDefaultEncoder().encode("secret")));
+    Assert.assertTrue(policy.forUser(new RepoUser()).upgradeEncoding(encoded));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsupportedAlgorithm(){
+    policy.forAlgorithm("md5");
+  }
+}
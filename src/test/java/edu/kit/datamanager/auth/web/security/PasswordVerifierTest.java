@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import edu.kit.datamanager.auth.exceptions.LoginCapacityExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ *
+ * @author jejkal
+ */
+public class PasswordVerifierTest{
+
+  @Test
+  public void testMatches(){
+    BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(4);
+    PasswordVerifier verifier = new PasswordVerifier(encoder, 1, 1, 5000, 5, new SimpleMeterRegistry());
+    try{
+      String encoded = encoder.encode("secret");
+      Assert.assertTrue(verifier.matches("secret", encoded));
+      Assert.assertFalse(verifier.matches("wrong", encoded));
+    } finally{
+      verifier.shutdown();
+    }
+  }
+
+  @Test
+  public void testMatchesDummy(){
+    AtomicInteger verifications = new AtomicInteger();
+    BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(4){
+      @Override
+      public boolean matches(CharSequence rawPassword, String encodedPassword){
+        verifications.incrementAndGet();
+        return super.matches(rawPassword, encodedPassword);
+      }
+    };
+    PasswordVerifier verifier = new PasswordVerifier(encoder, 1, 1, 5000, 5, new SimpleMeterRegistry());
+    try{
+      verifier.matchesDummy("secret");
+      verifier.matchesDummy("secret");
+      Assert.assertEquals(2, verifications.get());
+    } finally{
+      verifier.shutdown();
+    }
+  }
+
+  @Test
+  public void testRejectionIfQueueIsFull() throws Exception{
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    BlockingEncoder encoder = new BlockingEncoder(running, release);
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    PasswordVerifier verifier = new PasswordVerifier(encoder, 1, 1, 5000, 7, registry);
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try{
+      //occupy the only hashing thread...
+      callers.submit(() -> verifier.matches("a", "b"));
+      Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+      //...and the only queue slot
+      callers.submit(() -> verifier.matches("a", "b"));
+      waitForQueueDepth(registry, 1);
+
+      try{
+        verifier.matches("a", "b");
+        Assert.fail("Verification should have been rejected.");
+      } catch(LoginCapacityExceededException ex){
+        Assert.assertEquals(7, ex.getRetryAfter());
+      }
+      Assert.assertEquals(1.0, registry.get("auth.password.verification.rejected").tag("reason", "queue_full").counter().count(), 0.0);
+    } finally{
+      release.countDown();
+      callers.shutdownNow();
+      verifier.shutdown();
+    }
+  }
+
+  @Test
+  public void testRejectionOnTimeout() throws Exception{
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    PasswordVerifier verifier = new PasswordVerifier(new BlockingEncoder(running, release), 1, 1, 100, 5, registry);
+    try{
+      verifier.matches("a", "b");
+      Assert.fail("Verification should have timed out.");
+    } catch(LoginCapacityExceededException ex){
+      Assert.assertEquals(1.0, registry.get("auth.password.verification.rejected").tag("reason", "timeout").counter().count(), 0.0);
+    } finally{
+      release.countDown();
+      verifier.shutdown();
+    }
+  }
+
+  private void waitForQueueDepth(SimpleMeterRegistry registry, int depth) throws InterruptedException{
+    for(int i = 0; i < 100; i++){
+      if(registry.get("auth.password.verification.queue").gauge().value() >= depth){
+        return;
+      }
+      Thread.sleep(50);
+    }
+    Assert.fail("Queue depth " + depth + " not reached.");
+  }
+
+  private static class BlockingEncoder extends BCryptPasswordEncoder{
+
+    private final CountDownLatch running;
+    private final CountDownLatch release;
+
+    BlockingEncoder(CountDownLatch running, CountDownLatch release){
+      this.running = running;
+      this.release = release;
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword){
+      running.countDown();
+      try{
+        release.await(10, TimeUnit.SECONDS);
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+      }
+      return false;
+    }
+  }
+}
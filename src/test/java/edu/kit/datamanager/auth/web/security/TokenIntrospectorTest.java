@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import edu.kit.datamanager.entities.RepoUserRole;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author jejkal
+ */
+public class TokenIntrospectorTest{
+
+  private final static JwtTokenMinter MINTER = new JwtTokenMinter("test123");
+
+  private SimpleMeterRegistry registry;
+  private TokenRevocationList revocationList;
+  private TokenIntrospector introspector;
+
+  @Before
+  public void setUp(){
+    registry = new SimpleMeterRegistry();
+    revocationList = new TokenRevocationList(100, 0.01, registry);
+    ExtendedJwtAuthenticationProvider provider = new ExtendedJwtAuthenticationProvider("test123", null, null, null, MINTER, LoggerFactory.getLogger(TokenIntrospectorTest.class));
+    provider.setRevocationList(revocationList);
+    introspector = new TokenIntrospector(provider, revocationList, 100, 60, registry);
+  }
+
+  @Test
+  public void testActiveToken(){
+    String token = mint("id1", DateUtils.addHours(new Date(), 1));
+    Map<String, Object> result = introspector.introspect(token);
+    Assert.assertEquals(Boolean.TRUE, result.get("active"));
+    Assert.assertEquals("test", result.get("username"));
+    Assert.assertEquals("id1", result.get("jti"));
+    Assert.assertNotNull(result.get("exp"));
+
+    //second call is answered from cache
+    Assert.assertEquals(result, introspector.introspect(token));
+    Assert.assertEquals(1.0, registry.get("cache.gets").tag("cache", "introspection").tag("result", "hit").functionCounter().count(), 0.0);
+  }
+
+  @Test
+  public void testInactiveToken(){
+    Assert.assertEquals(Boolean.FALSE, introspector.introspect("invalid").get("active"));
+    Assert.assertEquals(1, introspector.introspect("invalid").size());
+    Assert.assertEquals(Boolean.FALSE, introspector.introspect(new JwtTokenMinter("other123").mint(new HashMap<>(), DateUtils.addHours(new Date(), 1))).get("active"));
+    Assert.assertEquals(Boolean.FALSE, introspector.introspect(mint("id1", DateUtils.addHours(new Date(), -1))).get("active"));
+  }
+
+  @Test
+  public void testRevokedTokenBecomesInactive(){
+    String token = mint("id1", DateUtils.addHours(new Date(), 1));
+    Assert.assertEquals(Boolean.TRUE, introspector.introspect(token).get("active"));
+    revocationList.revokeToken("id1", System.currentTimeMillis() + 60000);
+    Assert.assertEquals(Boolean.FALSE, introspector.introspect(token).get("active"));
+  }
+
+  @Test
+  public void testBatch(){
+    List<Map<String, Object>> results = introspector.introspect(Arrays.asList(mint("id1", DateUtils.addHours(new Date(), 1)), "invalid"));
+    Assert.assertEquals(2, results.size());
+    Assert.assertEquals(Boolean.TRUE, results.get(0).get("active"));
+    Assert.assertEquals(Boolean.FALSE, results.get(1).get("active"));
+  }
+
+  private String mint(String tokenId, Date expiration){
+    Map<String, Object> claims = new HashMap<>();
+    claims.put("jti", tokenId);
+    claims.put("username", "test");
+    claims.put("groupid", "USERS");
+    claims.put("roles", JwtTokenMinter.rolesClaim(Arrays.asList(RepoUserRole.USER)));
+    return MINTER.mint(claims, expiration);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.auth.web.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author jejkal
+ */
+public class TokenRevocationListTest{
+
+  private final JwtTokenMinter minter = new JwtTokenMinter("test123");
+
+  @Test
+  public void testRevokeToken(){
+    TokenRevocationList list = new TokenRevocationList(100, 0.01, new SimpleMeterRegistry());
+    String token = mint("user", "id1", new Date());
+    Assert.assertTrue(list.isEmpty());
+    Assert.assertFalse(list.isRevoked(token));
+
+    list.revokeToken("id1", System.currentTimeMillis() + 60000);
+    Assert.assertTrue(list.isRevoked(token));
+    Assert.assertFalse(list.isRevoked(mint("user", "id2", new Date())));
+  }
+
+  @Test
+  public void testRevokeUser(){
+    TokenRevocationList list = new TokenRevocationList(100, 0.01, new SimpleMeterRegistry());
+    long now = System.currentTimeMillis() / 1000 * 1000;
+    list.revokeUser("User", now, now + 60000);
+
+    Assert.assertTrue(list.isRevoked(mint("user", "id1", new Date(now - 1000))));
+    //issued within the second of the revocation
+    Assert.assertTrue(list.isRevoked(mint("user", "id4", new Date(now + 500))));
+    Assert.assertFalse(list.isRevoked(mint("user", "id2", new Date(now + 1000))));
+    Assert.assertFalse(list.isRevoked(mint("other", "id3", new Date(now - 1000))));
+  }
+
+  @Test
+  public void testRevokePersonalAccessToken(){
+    TokenRevocationList list = new TokenRevocationList(100, 0.01, new SimpleMeterRegistry());
+    list.revokeToken(TokenRevocationList.getPersonalAccessTokenId("0123456789abcdef"), System.currentTimeMillis() + 60000);
+
+    Assert.assertTrue(list.isRevoked(mint("user", "id1", new Date(), "0123456789abcdef")));
+    Assert.assertFalse(list.isRevoked(mint("user", "id2", new Date(), "fedcba9876543210")));
+    Assert.assertFalse(list.isRevoked(mint("user", "id3", new Date())));
+  }
+
+  @Test
+  public void testPurgeExpired(){
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    TokenRevocationList list = new TokenRevocationList(100, 0.01, registry);
+    list.revokeToken("expired", System.currentTimeMillis() - 1);
+    list.revokeToken("valid", System.currentTimeMillis() + 60000);
+    list.revokeUser("user", System.currentTimeMillis(), System.currentTimeMillis() - 1);
+
+    Assert.assertEquals(2, list.purgeExpired());
+    Assert.assertFalse(list.isRevoked(mint("other", "expired", new Date())));
+    Assert.assertTrue(list.isRevoked(mint("other", "valid", new Date())));
+    Assert.assertEquals(1.0, registry.get("auth.token.revocation.entries").gauge().value(), 0.0);
+  }
+
+  @Test
+  public void testFalsePositiveRate(){
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    TokenRevocationList list = new TokenRevocationList(1000, 0.01, registry);
+    for(int i = 0; i < 1000; i++){
+      list.revokeToken(UUID.randomUUID().toString(), System.currentTimeMillis() + 60000);
+    }
+    TokenRevocationList.TokenInfo info;
+    for(int i = 0; i < 10000; i++){
+      info = TokenRevocationList.TokenInfo.of(mint("user", UUID.randomUUID().toString(), new Date()));
+      Assert.assertFalse(list.isRevoked(info));
+    }
+    Assert.assertEquals(10000.0, registry.get("auth.token.revocation.checks").counter().count(), 0.0);
+    Assert.assertTrue(registry.get("auth.token.revocation.bloom.false_positive_rate").gauge().value() < 0.03);
+    Assert.assertTrue(registry.get("auth.token.revocation.bloom.expected_false_positive_rate").gauge().value() < 0.03);
+  }
+
+  @Test
+  public void testTokenInfo(){
+    Date issued = new Date(1550150418000l);
+    TokenRevocationList.TokenInfo info = TokenRevocationList.TokenInfo.of(mint("user", "id1", issued));
+    Assert.assertEquals("id1", info.getTokenId());
+    Assert.assertEquals("user", info.getUsername());
+    Assert.assertEquals(Long.valueOf(issued.getTime()), info.getIssuedAt());
+    Assert.assertEquals(Long.valueOf(DateUtils.addHours(issued, 1).getTime()), info.getExpiresAt());
+
+    info = TokenRevocationList.TokenInfo.of("invalid");
+    Assert.assertNull(info.getTokenId());
+    Assert.assertNull(info.getUsername());
+  }
+
+  private String mint(String username, String tokenId, Date issued){
+    return mint(username, tokenId, issued, null);
+  }
+
+  private String mint(String username, String tokenId, Date issued, String personalAccessToken){
+    Map<String, Object> claims = new HashMap<>();
+    if(personalAccessToken != null){
+      claims.put(PersonalAccessTokenAuthenticationProvider.PAT_CLAIM, personalAccessToken);
+    }
+    claims.put("jti", tokenId);
+    claims.put("iat", issued.getTime() / 1000);
+    claims.put("username", username);
+    claims.put("roles", "[\"ROLE_USER\"]");
+    return minter.mint(claims, DateUtils.addHours(issued, 1));
+  }
+}